@@ -0,0 +1,40 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+
+/**
+ * Messages recorded from virtualavr (one JSON message per line) the benchmarks
+ * are fed with, see <code>src/main/resources/corpus</code>.
+ */
+final class Corpus {
+
+	static final String PIN_STATES = "pinstates";
+	static final String PORT_STATES = "portstates";
+	static final String SERIAL_DEBUG = "serialdebug";
+	static final String REPLIES = "replies";
+
+	private Corpus() {
+		super();
+	}
+
+	static String[] load(String name) {
+		String resource = "/corpus/" + name + ".jsonl";
+		try (InputStream in = Corpus.class.getResourceAsStream(resource)) {
+			if (in == null) {
+				throw new IllegalArgumentException("No corpus " + resource);
+			}
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8))) {
+				return reader.lines().filter(l -> !l.isBlank()).toArray(String[]::new);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
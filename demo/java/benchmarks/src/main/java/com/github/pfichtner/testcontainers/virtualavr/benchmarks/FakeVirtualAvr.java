@@ -0,0 +1,63 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+/**
+ * In-process websocket server standing in for virtualavr: Each message having
+ * a replyId gets replied the way virtualavr does (the message complemented by
+ * <code>"executed": true</code>), so the client's reply correlation can be
+ * measured without the simulator (and without Docker).
+ */
+final class FakeVirtualAvr extends WebSocketServer {
+
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	FakeVirtualAvr() {
+		super(new InetSocketAddress("localhost", 0));
+		setReuseAddr(true);
+		setTcpNoDelay(true);
+	}
+
+	FakeVirtualAvr startAndWait() throws InterruptedException {
+		start();
+		if (!started.await(10, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("Fake virtualavr did not start");
+		}
+		return this;
+	}
+
+	String uri() {
+		return "ws://localhost:" + getPort();
+	}
+
+	@Override
+	public void onStart() {
+		started.countDown();
+	}
+
+	@Override
+	public void onMessage(WebSocket conn, String message) {
+		if (message.contains("\"replyId\"")) {
+			conn.send(message.substring(0, message.lastIndexOf('}')) + ",\"executed\":true}");
+		}
+	}
+
+	@Override
+	public void onOpen(WebSocket conn, ClientHandshake handshake) {
+	}
+
+	@Override
+	public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+	}
+
+	@Override
+	public void onError(WebSocket conn, Exception ex) {
+	}
+
+}
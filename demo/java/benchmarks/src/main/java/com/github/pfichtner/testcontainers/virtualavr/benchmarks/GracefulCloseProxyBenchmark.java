@@ -0,0 +1,72 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks;
+
+import static com.github.pfichtner.testcontainers.virtualavr.util.GracefulCloseProxy.wrapWithGracefulClose;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pfichtner.testcontainers.virtualavr.DefaultVirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+
+/**
+ * Overhead of the reflective proxy the container wraps its connection with
+ * (every call on <code>avr()</code> goes through it) compared to direct calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GracefulCloseProxyBenchmark {
+
+	private FakeVirtualAvr virtualAvr;
+	private VirtualAvrConnection direct;
+	private VirtualAvrConnection proxied;
+
+	@Setup
+	public void setup() throws InterruptedException {
+		virtualAvr = new FakeVirtualAvr().startAndWait();
+		direct = new DefaultVirtualAvrConnection(URI.create(virtualAvr.uri()));
+		proxied = wrapWithGracefulClose(direct, VirtualAvrConnection.class);
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		direct.close();
+		virtualAvr.stop();
+	}
+
+	@Benchmark
+	public boolean direct() {
+		return direct.isConnected();
+	}
+
+	@Benchmark
+	public boolean proxied() {
+		return proxied.isConnected();
+	}
+
+	@Benchmark
+	public Object directWithArguments() {
+		return direct.removePinStateListener(null);
+	}
+
+	@Benchmark
+	public Object proxiedWithArguments() {
+		return proxied.removePinStateListener(null);
+	}
+
+}
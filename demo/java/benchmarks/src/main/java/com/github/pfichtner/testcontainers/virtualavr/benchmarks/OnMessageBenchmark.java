@@ -0,0 +1,77 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks;
+
+import static com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinReportMode.DIGITAL;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pfichtner.testcontainers.virtualavr.DefaultVirtualAvrConnection;
+
+/**
+ * Decoding of the messages received from virtualavr including the dispatch to
+ * the listeners (and the pin state history every connection records).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OnMessageBenchmark {
+
+	private static final int MESSAGES = 1000;
+
+	@Param({ Corpus.PIN_STATES, Corpus.PORT_STATES, Corpus.SERIAL_DEBUG, Corpus.REPLIES })
+	private String corpus;
+
+	private FakeVirtualAvr virtualAvr;
+	private DefaultVirtualAvrConnection connection;
+	private String[] messages;
+
+	@Setup
+	public void setup() throws InterruptedException {
+		virtualAvr = new FakeVirtualAvr().startAndWait();
+		connection = new DefaultVirtualAvrConnection(URI.create(virtualAvr.uri()));
+		// the connection only records the pins it enabled reporting for
+		for (int pin = 0; pin <= 13; pin++) {
+			connection.pinReportMode(String.valueOf(pin), DIGITAL);
+		}
+		connection.addSerialDebugListener(s -> {
+		});
+		messages = Corpus.load(corpus);
+		if (messages.length < MESSAGES) {
+			throw new IllegalStateException("Corpus " + corpus + " contains less than " + MESSAGES + " messages");
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		connection.close();
+		virtualAvr.stop();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void onMessage() {
+		for (int i = 0; i < MESSAGES; i++) {
+			connection.onMessage(messages[i]);
+		}
+		// keep the recorded history at the size of one corpus
+		connection.pinStates().clear();
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pfichtner.testcontainers.virtualavr.DefaultVirtualAvrConnection.DefaultPinStates;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Queries of the recorded pin state history (as done by tests polling for a
+ * pin's state) depending on the size of the history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PinStatesBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	private int history;
+
+	private final DefaultPinStates pinStates = new DefaultPinStates();
+	private double middleCpuTime;
+
+	@Setup
+	public void setup() {
+		Gson gson = new Gson();
+		String[] messages = Corpus.load(Corpus.PIN_STATES);
+		PinState[] recorded = new PinState[messages.length];
+		for (int i = 0; i < messages.length; i++) {
+			JsonObject json = gson.fromJson(messages[i], JsonObject.class);
+			Object state = json.get("state").getAsJsonPrimitive().isBoolean() //
+					? (Object) json.get("state").getAsBoolean() //
+					: (Object) json.get("state").getAsInt();
+			recorded[i] = new PinState(json.get("pin").getAsString(), state, json.get("cpuTime").getAsDouble());
+		}
+		// the corpus is repeated, shifted in time so the cpu times keep ascending
+		double span = recorded[recorded.length - 1].getCpuTime();
+		for (int i = 0; i < history; i++) {
+			PinState pinState = recorded[i % recorded.length];
+			pinStates.add(pinState.withCpuTime(pinState.getCpuTime() + i / recorded.length * span));
+		}
+		middleCpuTime = span * history / recorded.length / 2;
+	}
+
+	@Benchmark
+	public Map<String, Object> last() {
+		return pinStates.last();
+	}
+
+	@Benchmark
+	public Object lastOfPin() {
+		return pinStates.last("13");
+	}
+
+	@Benchmark
+	public Object lastOfUnknownPin() {
+		return pinStates.last("7");
+	}
+
+	@Benchmark
+	public Object valueAt() {
+		return pinStates.valueAt("13", middleCpuTime);
+	}
+
+}
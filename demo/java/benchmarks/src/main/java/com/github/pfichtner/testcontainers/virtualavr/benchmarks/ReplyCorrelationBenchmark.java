@@ -0,0 +1,69 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pfichtner.testcontainers.virtualavr.DefaultVirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.RunResult;
+
+/**
+ * Round trips of commands (serialization, reply correlation by replyId and
+ * decoding of the reply) against an in-process fake of virtualavr, one at a
+ * time and with many pending replies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplyCorrelationBenchmark {
+
+	private static final int PENDING = 100;
+
+	private FakeVirtualAvr virtualAvr;
+	private DefaultVirtualAvrConnection connection;
+
+	@Setup
+	public void setup() throws InterruptedException {
+		virtualAvr = new FakeVirtualAvr().startAndWait();
+		connection = new DefaultVirtualAvrConnection(URI.create(virtualAvr.uri()));
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		connection.close();
+		virtualAvr.stop();
+	}
+
+	@Benchmark
+	public Object roundTrip() {
+		return connection.pinState("12", true);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PENDING)
+	public Object pendingReplies() {
+		@SuppressWarnings("unchecked")
+		CompletableFuture<RunResult>[] futures = new CompletableFuture[PENDING];
+		for (int i = 0; i < PENDING; i++) {
+			futures[i] = connection.runCyclesAsync(i);
+		}
+		return CompletableFuture.allOf(futures).join();
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.pfichtner.testcontainers.virtualavr.SerialConnection;
+
+/**
+ * Access to the bytes received via the serial line (as done by tests polling
+ * for an answer of the avr) depending on the amount of data received so far.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialConnectionBenchmark {
+
+	/**
+	 * Serial connection without a port, the data is passed in like the websocket
+	 * serial connection does.
+	 */
+	private static class RecordingSerialConnection extends SerialConnection {
+
+		@Override
+		protected void receive(byte[] data) {
+			super.receive(data);
+		}
+
+		@Override
+		protected void write(byte[] bytes) {
+		}
+
+		@Override
+		public boolean isClosed() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+		}
+
+	}
+
+	@Param({ "1024", "65536", "1048576" })
+	private int received;
+
+	private final RecordingSerialConnection connection = new RecordingSerialConnection();
+	private final byte[] chunk = "alp://rply/ok?id=1\n".getBytes();
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < received; i += chunk.length) {
+			connection.receive(chunk);
+		}
+	}
+
+	@Benchmark
+	public byte[] receivedBytes() {
+		return connection.receivedBytes();
+	}
+
+	@Benchmark
+	public String received() {
+		return connection.received();
+	}
+
+	@Benchmark
+	public void receiveChunk() {
+		// the history grows, so it gets reset regularly to keep the size comparable
+		connection.receive(chunk);
+		if (connection.receivedBytes().length > 2 * received) {
+			connection.clearReceived();
+			setup();
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks.engine;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.testcontainers.containers.Container.ExecResult;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer.IdleSkip;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Measures the raw execution speed of the simulator: each sketch of the corpus
+ * is compiled by a (paused) container, then the simulator's headless benchmark
+ * mode (<code>node virtualavr.js --benchmark=&lt;cycles&gt;</code>) runs the
+ * compiled hex inside the container without any I/O. Reported are
+ * instructions/s, cycles/s and the share of time spent in the peripherals
+ * (clock events and I/O register hooks), so it is the baseline to compare
+ * engine optimizations, node versions and hosts.
+ * <p>
+ * Options (<code>--name=value</code>):
+ * <ul>
+ * <li><code>sketches</code> comma separated sketch files (default: blink,
+ * ArdulinkProtocol, integrationtest and Firmata of the test artifacts)</li>
+ * <li><code>cycles</code> cycles to measure (default: 160000000, ten simulated
+ * seconds)</li>
+ * <li><code>warmup</code> cycles executed before measuring (default: a tenth
+ * of cycles)</li>
+ * <li><code>idleSkip</code> off, exact or loose (default: off)</li>
+ * <li><code>report</code> JSON file the results are written to (default:
+ * engine-report.json)</li>
+ * </ul>
+ */
+public final class EngineBenchmark {
+
+	private static final List<String> DEFAULT_SKETCHES = List.of( //
+			"../sketchtest/src/test/resources/blink/blink.ino", //
+			"../../../test-artifacts/ArdulinkProtocol/ArdulinkProtocol.ino", //
+			"../sketchtest/src/test/resources/integrationtest/integrationtest.ino", //
+			"../sketchtest/src/test/resources/firmata-project.zip" //
+	);
+
+	private static final String HEX_FILE = "/tmp/virtualavr-hex-*.hex";
+	private static final Type RESULT_TYPE = new TypeToken<LinkedHashMap<String, Object>>() {
+	}.getType();
+
+	private final Map<String, String> options;
+
+	private EngineBenchmark(Map<String, String> options) {
+		this.options = options;
+	}
+
+	public static void main(String... args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				throw new IllegalArgumentException(format("Expected --name=value but got %s", arg));
+			}
+			String[] nameAndValue = arg.substring(2).split("=", 2);
+			options.put(nameAndValue[0], nameAndValue[1]);
+		}
+		new EngineBenchmark(options).run();
+	}
+
+	private void run() throws Exception {
+		List<String> sketches = options.containsKey("sketches") //
+				? Stream.of(options.get("sketches").split(",")).map(String::trim).collect(toList()) //
+				: DEFAULT_SKETCHES;
+		long cycles = Long.parseLong(options.getOrDefault("cycles", "160000000"));
+		long warmup = Long.parseLong(options.getOrDefault("warmup", String.valueOf(cycles / 10)));
+		IdleSkip idleSkip = IdleSkip.valueOf(options.getOrDefault("idleSkip", "off").toUpperCase());
+
+		List<Map<String, Object>> results = new ArrayList<>();
+		for (String sketch : sketches) {
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("sketch", new File(sketch).getName());
+			result.putAll(benchmark(new File(sketch), cycles, warmup, idleSkip));
+			results.add(result);
+			print(result);
+		}
+
+		Path reportFile = Paths.get(options.getOrDefault("report", "engine-report.json"));
+		try (Writer writer = Files.newBufferedWriter(reportFile, UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(results, writer);
+		}
+		System.out.println(format("Report written to %s", reportFile.toAbsolutePath()));
+	}
+
+	private static Map<String, Object> benchmark(File sketch, long cycles, long warmup, IdleSkip idleSkip)
+			throws IOException, InterruptedException {
+		// paused, so the simulator started by the container does not compete for the cpu
+		try (VirtualAvrContainer<?> container = new VirtualAvrContainer<>().withSketchFile(sketch)
+				.withIdleSkip(idleSkip).withPausedStartup()) {
+			container.start();
+			ExecResult result = container.execInContainer("sh", "-c",
+					format("node /app/virtualavr.js --benchmark=%d --warmup=%d %s", cycles, warmup, HEX_FILE));
+			if (result.getExitCode() != 0) {
+				throw new IllegalStateException(
+						format("Benchmark of %s failed (%d): %s", sketch, result.getExitCode(), result.getStderr()));
+			}
+			String[] lines = result.getStdout().trim().split("\n");
+			return new Gson().fromJson(lines[lines.length - 1], RESULT_TYPE);
+		}
+	}
+
+	private static void print(Map<String, Object> result) {
+		System.out.println(format("%-28s %14.0f instructions/s %14.0f cycles/s %8.2fx realtime %6.1f%% peripherals",
+				result.get("sketch"), number(result, "instructionsPerSecond"), number(result, "cyclesPerSecond"),
+				number(result, "realtimeFactor"), number(result, "peripheralShare") * 100));
+	}
+
+	private static double number(Map<String, Object> result, String key) {
+		return ((Number) result.get(key)).doubleValue();
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks.load;
+
+import static com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinReportMode.DIGITAL;
+import static com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinReportMode.NONE;
+
+import java.util.Random;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+
+/**
+ * The commands the load generator sends, each one is sent synchronously (so
+ * the time measured is the round trip until virtualavr replied).
+ */
+enum Command {
+
+	PIN_STATE {
+		@Override
+		void execute(VirtualAvrConnection avr, Random random) {
+			avr.pinState("12", random.nextBoolean());
+		}
+	},
+	ANALOG_PIN_STATE {
+		@Override
+		void execute(VirtualAvrConnection avr, Random random) {
+			avr.pinState("A0", random.nextInt(1024));
+		}
+	},
+	PIN_MODE {
+		@Override
+		void execute(VirtualAvrConnection avr, Random random) {
+			avr.pinReportMode("13", random.nextBoolean() ? DIGITAL : NONE);
+		}
+	},
+	BATCH {
+		@Override
+		void execute(VirtualAvrConnection avr, Random random) {
+			avr.batch().pin("A0", random.nextInt(1024)).pin("A1", random.nextInt(1024)).pin("12", random.nextBoolean())
+					.apply();
+		}
+	};
+
+	abstract void execute(VirtualAvrConnection avr, Random random);
+
+	String commandName() {
+		return name().toLowerCase();
+	}
+
+	static Command of(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+
+}
@@ -0,0 +1,68 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks.load;
+
+import static java.lang.String.format;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Weighted mix of commands, e.g. <code>pin_state:5,pin_mode:1</code> sends
+ * five times as many pin states as pin modes.
+ */
+final class CommandMix {
+
+	private final Map<Command, Integer> weights;
+	private final Command[] commands;
+	private final int[] cumulative;
+
+	private CommandMix(Map<Command, Integer> weights) {
+		this.weights = weights;
+		this.commands = weights.keySet().toArray(new Command[0]);
+		this.cumulative = new int[commands.length];
+		int sum = 0;
+		for (int i = 0; i < commands.length; i++) {
+			sum += weights.get(commands[i]);
+			cumulative[i] = sum;
+		}
+	}
+
+	static CommandMix parse(String mix) {
+		Map<Command, Integer> weights = new EnumMap<>(Command.class);
+		if (!mix.isBlank()) {
+			for (String entry : mix.split(",")) {
+				String[] nameAndWeight = entry.split(":");
+				int weight = nameAndWeight.length > 1 ? Integer.parseInt(nameAndWeight[1].trim()) : 1;
+				if (weight < 0) {
+					throw new IllegalArgumentException(format("Negative weight in %s", entry));
+				}
+				if (weight > 0) {
+					weights.merge(Command.of(nameAndWeight[0]), weight, Integer::sum);
+				}
+			}
+		}
+		return new CommandMix(weights);
+	}
+
+	boolean isEmpty() {
+		return commands.length == 0;
+	}
+
+	Command next(Random random) {
+		int value = random.nextInt(cumulative[cumulative.length - 1]);
+		for (int i = 0; i < cumulative.length; i++) {
+			if (value < cumulative[i]) {
+				return commands[i];
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		weights.forEach((c, w) -> sb.append(sb.length() == 0 ? "" : ",").append(c.commandName()).append(':').append(w));
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks.load;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency distributions (per operation) of a load generator run, printed as
+ * table and serialized as JSON.
+ */
+final class LatencyReport {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final Map<String, Object> configuration;
+	private final long durationNanos;
+	private final Map<String, Histogram> histograms;
+	private final long errors;
+
+	LatencyReport(Map<String, Object> configuration, long durationNanos, Map<String, Histogram> histograms,
+			long errors) {
+		this.configuration = configuration;
+		this.durationNanos = durationNanos;
+		this.histograms = histograms;
+		this.errors = errors;
+	}
+
+	double throughput(Histogram histogram) {
+		return histogram.getTotalCount() / (durationNanos / 1e9);
+	}
+
+	void print(Appendable out) throws IOException {
+		out.append(format("%s%n", configuration));
+		out.append(format("%-18s %10s %12s %10s %10s %10s %10s %10s%n", "operation", "count", "ops/s", "p50 us",
+				"p90 us", "p99 us", "p99.9 us", "max us"));
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			Histogram histogram = entry.getValue();
+			out.append(format("%-18s %10d %12.1f", entry.getKey(), histogram.getTotalCount(), throughput(histogram)));
+			for (double percentile : PERCENTILES) {
+				out.append(format(" %10.1f", micros(histogram.getValueAtPercentile(percentile))));
+			}
+			out.append(format(" %10.1f%n", micros(histogram.getMaxValue())));
+		}
+		out.append(format("errors: %d%n", errors));
+	}
+
+	Map<String, Object> toJson() {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("configuration", configuration);
+		json.put("durationSeconds", durationNanos / 1e9);
+		json.put("errors", errors);
+		Map<String, Object> operations = new LinkedHashMap<>();
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			Histogram histogram = entry.getValue();
+			Map<String, Object> operation = new LinkedHashMap<>();
+			operation.put("count", histogram.getTotalCount());
+			operation.put("opsPerSecond", throughput(histogram));
+			Map<String, Object> percentiles = new LinkedHashMap<>();
+			for (double percentile : PERCENTILES) {
+				percentiles.put(String.valueOf(percentile), micros(histogram.getValueAtPercentile(percentile)));
+			}
+			operation.put("latencyMicros", percentiles);
+			operation.put("maxMicros", micros(histogram.getMaxValue()));
+			operation.put("meanMicros", micros(histogram.getMean()));
+			operations.put(entry.getKey(), operation);
+		}
+		json.put("operations", operations);
+		return json;
+	}
+
+	private static double micros(double nanos) {
+		return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+	}
+
+}
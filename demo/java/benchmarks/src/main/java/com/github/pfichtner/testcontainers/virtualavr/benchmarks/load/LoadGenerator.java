@@ -0,0 +1,336 @@
+package com.github.pfichtner.testcontainers.virtualavr.benchmarks.load;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.stream;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+
+import com.github.pfichtner.testcontainers.virtualavr.DefaultVirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.SerialConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+import com.github.pfichtner.testcontainers.virtualavr.WebSocketSerialConnection;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Drives load against virtualavr: opens N websocket connections, each sending
+ * a weighted mix of commands in a closed loop (next command after the reply of
+ * the previous one) while one additional connection echoes bytes through the
+ * serial port of the <code>byteecho</code> sketch. The round trip times are
+ * recorded in HdrHistograms and reported per operation.
+ * <p>
+ * <code>connections</code>, <code>maxLatency</code>, <code>chunkSize</code>
+ * and <code>batchMillis</code> accept comma separated values, every combination
+ * is run (each max latency / chunk size / batch millis combination in its own
+ * container) so the report shows how throughput and latency scale with them.
+ * <p>
+ * The simulator sizes its chunks (the instructions executed between two checks
+ * for commands) by the measured host speed to meet <code>maxLatency</code>.
+ * <code>chunkSize</code> only caps these chunks, so chunk sizes above
+ * instructions per millisecond times <code>maxLatency</code> (about 20000 with
+ * the default of 2ms) measure the same as the default.
+ * <p>
+ * Options (<code>--name=value</code>):
+ * <ul>
+ * <li><code>url</code> websocket url of an already running virtualavr, if
+ * missing a container is started (needs docker)</li>
+ * <li><code>sketch</code> the sketch to run in the container (default:
+ * byteecho.ino of the sketchtest module)</li>
+ * <li><code>connections</code> number of concurrent connections (default:
+ * 1,4,16)</li>
+ * <li><code>maxLatency</code> MAX_COMMAND_LATENCY (millis) of the container</li>
+ * <li><code>chunkSize</code> INSTRUCTION_CHUNK_SIZE of the container, an upper
+ * bound for the chunks sized by <code>maxLatency</code></li>
+ * <li><code>batchMillis</code> BATCH_MILLIS of the container</li>
+ * <li><code>mix</code> weighted commands (default:
+ * pin_state:5,analog_pin_state:2,pin_mode:1,batch:1)</li>
+ * <li><code>serialEcho</code> whether to echo serial bytes (default: true)</li>
+ * <li><code>warmup</code>/<code>duration</code> seconds per run (default:
+ * 5/20)</li>
+ * <li><code>report</code> JSON file the results are written to (default:
+ * load-report.json)</li>
+ * </ul>
+ */
+public final class LoadGenerator {
+
+	private static final String DEFAULT_SKETCH = "../sketchtest/src/test/resources/byteecho/byteecho.ino";
+	private static final String DEFAULT_MIX = "pin_state:5,analog_pin_state:2,pin_mode:1,batch:1";
+	private static final long HIGHEST_TRACKABLE_NANOS = SECONDS.toNanos(60);
+	private static final String SERIAL_ECHO = "serial_echo";
+
+	private final Map<String, String> options;
+
+	private LoadGenerator(Map<String, String> options) {
+		this.options = options;
+	}
+
+	public static void main(String... args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				throw new IllegalArgumentException(format("Expected --name=value but got %s", arg));
+			}
+			String[] nameAndValue = arg.substring(2).split("=", 2);
+			options.put(nameAndValue[0], nameAndValue[1]);
+		}
+		new LoadGenerator(options).run();
+	}
+
+	private void run() throws Exception {
+		CommandMix mix = CommandMix.parse(option("mix", DEFAULT_MIX));
+		boolean serialEcho = Boolean.parseBoolean(option("serialEcho", "true"));
+		Duration warmup = Duration.ofSeconds(Long.parseLong(option("warmup", "5")));
+		Duration duration = Duration.ofSeconds(Long.parseLong(option("duration", "20")));
+		List<Integer> connections = integers(option("connections", "1,4,16"));
+
+		List<LatencyReport> reports = new ArrayList<>();
+		String url = options.get("url");
+		if (url != null) {
+			for (int connectionCount : connections) {
+				Map<String, Object> configuration = configuration(connectionCount, null, null, null, mix,
+						serialEcho);
+				reports.add(run(URI.create(url), configuration, connectionCount, mix, serialEcho, warmup, duration));
+			}
+		} else {
+			File sketch = new File(option("sketch", DEFAULT_SKETCH));
+			for (Integer maxLatency : integersOrNull(options.get("maxLatency"))) {
+				for (Integer chunkSize : integersOrNull(options.get("chunkSize"))) {
+					for (Integer batchMillis : integersOrNull(options.get("batchMillis"))) {
+						try (VirtualAvrContainer<?> container = container(sketch, maxLatency, chunkSize,
+								batchMillis)) {
+							container.start();
+							URI uri = URI.create(
+									format("ws://%s:%s", container.getHost(), container.getFirstMappedPort()));
+							for (int connectionCount : connections) {
+								Map<String, Object> configuration = configuration(connectionCount, maxLatency,
+										chunkSize, batchMillis, mix, serialEcho);
+								reports.add(
+										run(uri, configuration, connectionCount, mix, serialEcho, warmup, duration));
+							}
+						}
+					}
+				}
+			}
+		}
+
+		Path reportFile = Paths.get(option("report", "load-report.json"));
+		try (Writer writer = Files.newBufferedWriter(reportFile, UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().create()
+					.toJson(reports.stream().map(LatencyReport::toJson).collect(toList()), writer);
+		}
+		System.out.println(format("Report written to %s", reportFile.toAbsolutePath()));
+	}
+
+	@SuppressWarnings("resource")
+	private static VirtualAvrContainer<?> container(File sketch, Integer maxLatency, Integer chunkSize,
+			Integer batchMillis) {
+		VirtualAvrContainer<?> container = new VirtualAvrContainer<>().withSketchFile(sketch).withWebSocketSerial();
+		if (maxLatency != null) {
+			container.withMaxCommandLatency(Duration.ofMillis(maxLatency));
+		}
+		if (chunkSize != null) {
+			container.withEnv("INSTRUCTION_CHUNK_SIZE", String.valueOf(chunkSize));
+		}
+		if (batchMillis != null) {
+			container.withEnv("BATCH_MILLIS", String.valueOf(batchMillis));
+		}
+		return container;
+	}
+
+	private static LatencyReport run(URI uri, Map<String, Object> configuration, int connectionCount,
+			CommandMix mix, boolean serialEcho, Duration warmup, Duration duration) throws Exception {
+		System.out.println(format("Running %s", configuration));
+		List<Worker> workers = new ArrayList<>();
+		for (int i = 0; i < connectionCount && !mix.isEmpty(); i++) {
+			workers.add(new CommandWorker(new DefaultVirtualAvrConnection(uri), mix, new Random(i)));
+		}
+		if (serialEcho) {
+			workers.add(new SerialEchoWorker(new DefaultVirtualAvrConnection(uri)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers.size()));
+		try {
+			long warmupEnd = System.nanoTime() + warmup.toNanos();
+			long end = warmupEnd + duration.toNanos();
+			List<Future<?>> futures = new ArrayList<>();
+			for (Worker worker : workers) {
+				futures.add(executor.submit(() -> worker.run(warmupEnd, end)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+			for (Worker worker : workers) {
+				worker.close();
+			}
+		}
+
+		Map<String, Histogram> histograms = new LinkedHashMap<>();
+		long errors = 0;
+		for (Worker worker : workers) {
+			worker.histograms.forEach((k, v) -> histograms.merge(k, v, (h1, h2) -> {
+				h1.add(h2);
+				return h1;
+			}));
+			errors += worker.errors.sum();
+		}
+		LatencyReport report = new LatencyReport(configuration, duration.toNanos(), histograms, errors);
+		report.print(System.out);
+		return report;
+	}
+
+	private static Map<String, Object> configuration(int connections, Integer maxLatency, Integer chunkSize,
+			Integer batchMillis, CommandMix mix, boolean serialEcho) {
+		Map<String, Object> configuration = new LinkedHashMap<>();
+		configuration.put("connections", connections);
+		configuration.put("maxLatency", maxLatency == null ? "default" : maxLatency);
+		// only an upper bound for the chunks sized by maxLatency
+		configuration.put("chunkSize", chunkSize == null ? "default" : chunkSize);
+		configuration.put("batchMillis", batchMillis == null ? "default" : batchMillis);
+		configuration.put("mix", mix.toString());
+		configuration.put("serialEcho", serialEcho);
+		return configuration;
+	}
+
+	private String option(String name, String defaultValue) {
+		return options.getOrDefault(name, defaultValue);
+	}
+
+	private static List<Integer> integers(String values) {
+		return stream(values.split(",")).map(String::trim).map(Integer::valueOf).collect(toList());
+	}
+
+	private static List<Integer> integersOrNull(String values) {
+		List<Integer> result = new ArrayList<>();
+		if (values == null) {
+			result.add(null);
+		} else {
+			result.addAll(integers(values));
+		}
+		return result;
+	}
+
+	private abstract static class Worker implements AutoCloseable {
+
+		protected final VirtualAvrConnection avr;
+		private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+		private final LongAdder errors = new LongAdder();
+
+		protected Worker(VirtualAvrConnection avr) {
+			this.avr = avr;
+		}
+
+		void run(long warmupEnd, long end) {
+			long now;
+			while ((now = System.nanoTime()) < end) {
+				String operation;
+				try {
+					operation = execute();
+				} catch (Exception e) {
+					errors.increment();
+					continue;
+				}
+				if (now >= warmupEnd) {
+					histograms.computeIfAbsent(operation, k -> new Histogram(HIGHEST_TRACKABLE_NANOS, 3))
+							.recordValue(Math.min(HIGHEST_TRACKABLE_NANOS, System.nanoTime() - now));
+				}
+			}
+		}
+
+		/**
+		 * Executes one operation (synchronously).
+		 *
+		 * @return the name of the operation executed
+		 */
+		protected abstract String execute() throws Exception;
+
+		@Override
+		public void close() throws Exception {
+			((AutoCloseable) avr).close();
+		}
+
+	}
+
+	private static class CommandWorker extends Worker {
+
+		private final CommandMix mix;
+		private final Random random;
+
+		CommandWorker(VirtualAvrConnection avr, CommandMix mix, Random random) {
+			super(avr);
+			this.mix = mix;
+			this.random = random;
+		}
+
+		@Override
+		protected String execute() {
+			Command command = mix.next(random);
+			command.execute(avr, random);
+			return command.commandName();
+		}
+
+	}
+
+	/**
+	 * Sends one byte and waits for the sketch to echo it. There is only one of
+	 * them since serial data is delivered to every connection that sends serial
+	 * data, so several echo workers would receive each other's bytes.
+	 */
+	private static class SerialEchoWorker extends Worker {
+
+		private static final long TIMEOUT_NANOS = SECONDS.toNanos(10);
+
+		private final SerialConnection serial;
+		private byte next;
+
+		SerialEchoWorker(VirtualAvrConnection avr) {
+			super(avr);
+			this.serial = new WebSocketSerialConnection(avr);
+		}
+
+		@Override
+		protected String execute() throws IOException, InterruptedException {
+			serial.clearReceived();
+			serial.send(new byte[] { next++ });
+			long timeout = System.nanoTime() + TIMEOUT_NANOS;
+			while (serial.receivedBytes().length == 0) {
+				if (System.nanoTime() > timeout) {
+					throw new IOException("No echo received");
+				}
+				Thread.onSpinWait();
+			}
+			return SERIAL_ECHO;
+		}
+
+		@Override
+		public void close() throws Exception {
+			serial.close();
+			super.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+/**
+ * A time-varying analog value (0-1023) that can be played into an ADC channel
+ * of the simulator in simulated time, see
+ * {@link VirtualAvrConnection#analogPlayback(String, AnalogSignal, double, Duration, boolean)}.
+ */
+@FunctionalInterface
+public interface AnalogSignal {
+
+	int MAX_VALUE = 1023;
+
+	/**
+	 * @param seconds simulated seconds since the start of the signal
+	 * @return the value at the passed time (values outside 0-1023 get clamped when
+	 *         sampled)
+	 */
+	int valueAt(double seconds);
+
+	/**
+	 * Samples the signal with the passed rate.
+	 *
+	 * @param sampleRate samples per (simulated) second
+	 * @param duration   the length of the signal to sample
+	 * @return the sampled values (0-1023)
+	 */
+	default int[] sample(double sampleRate, Duration duration) {
+		if (sampleRate <= 0) {
+			throw new IllegalArgumentException(format("sampleRate must be positive but was %s", sampleRate));
+		}
+		int count = (int) Math.max(1, Math.round(duration.toNanos() / 1e9 * sampleRate));
+		int[] samples = new int[count];
+		for (int i = 0; i < count; i++) {
+			samples[i] = Math.min(MAX_VALUE, Math.max(0, valueAt(i / sampleRate)));
+		}
+		return samples;
+	}
+
+	default AnalogSignal plus(AnalogSignal other) {
+		return t -> valueAt(t) + other.valueAt(t);
+	}
+
+	static AnalogSignal constant(int value) {
+		return t -> value;
+	}
+
+	/**
+	 * @param frequency frequency in Hz
+	 * @param offset    the center value
+	 * @param amplitude the peak deviation from the center value
+	 */
+	static AnalogSignal sine(double frequency, int offset, int amplitude) {
+		return t -> (int) Math.round(offset + amplitude * Math.sin(2 * Math.PI * frequency * t));
+	}
+
+	/**
+	 * Linear ramp from <code>from</code> to <code>to</code> within the passed
+	 * duration, keeping <code>to</code> afterwards.
+	 */
+	static AnalogSignal ramp(int from, int to, Duration duration) {
+		double seconds = duration.toNanos() / 1e9;
+		return t -> t >= seconds ? to : (int) Math.round(from + (to - from) * t / seconds);
+	}
+
+	/**
+	 * Uniformly distributed noise between min and max (inclusive). The values
+	 * only depend on the seed and the time, so playing the signal is
+	 * reproducible.
+	 */
+	static AnalogSignal noise(int min, int max, long seed) {
+		int range = max - min + 1;
+		return t -> {
+			// SplitMix64 finalizer on the seed and the time's bits
+			long z = seed + Double.doubleToLongBits(t) * 0x9E3779B97F4A7C15L;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			z = z ^ (z >>> 31);
+			return min + (int) Math.floorMod(z, (long) range);
+		};
+	}
+
+	/**
+	 * Recorded samples, each sample is held for 1/sampleRate seconds, the last
+	 * one afterwards.
+	 */
+	static AnalogSignal samples(double sampleRate, int... samples) {
+		if (samples.length == 0) {
+			throw new IllegalArgumentException("samples must not be empty");
+		}
+		int[] values = samples.clone();
+		return t -> values[(int) Math.min(values.length - 1, Math.max(0, (long) Math.floor(t * sampleRate)))];
+	}
+
+	/**
+	 * Reads samples (integers separated by whitespace, commas or semicolons) from
+	 * the passed file, see {@link #samples(double, int...)}.
+	 */
+	static AnalogSignal fromFile(Path file, double sampleRate) throws IOException {
+		return samples(sampleRate, Pattern.compile("[\\s,;]+").splitAsStream(Files.readString(file)) //
+				.map(String::trim) //
+				.filter(s -> !s.isEmpty()) //
+				.mapToInt(Integer::parseInt) //
+				.toArray());
+	}
+
+}
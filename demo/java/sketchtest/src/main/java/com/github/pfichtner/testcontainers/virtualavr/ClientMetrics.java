@@ -0,0 +1,118 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toMap;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings recorded by a {@link VirtualAvrConnection} (see
+ * {@link VirtualAvrConnection#clientMetrics()}), all of them per message type:
+ * <ul>
+ * <li>round trip: from sending a command until its reply was received (control
+ * commands are keyed by type and action, e.g. <code>control.pause</code>)</li>
+ * <li>decode: from receiving a message until it was deserialized</li>
+ * <li>event latency: from virtualavr emitting the message until it was
+ * received (based on the wall clocks of both sides)</li>
+ * <li>listener: the time the listeners took to process the message</li>
+ * </ul>
+ * Together they tell whether slowness is caused by the simulator, the network
+ * hop or the listeners.
+ */
+public class ClientMetrics implements MetricsRecorder {
+
+	private final ConcurrentMap<String, LatencyHistogram> roundTrips = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram> decodes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram> eventLatencies = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LatencyHistogram> listeners = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> events = new ConcurrentHashMap<>();
+	private volatile long startNanos = System.nanoTime();
+
+	@Override
+	public void roundTrip(String type, long nanos) {
+		histogram(roundTrips, type).record(nanos);
+	}
+
+	@Override
+	public void decoded(String type, long nanos) {
+		histogram(decodes, type).record(nanos);
+	}
+
+	@Override
+	public void event(String type, long latencyNanos) {
+		events.computeIfAbsent(type, t -> new LongAdder()).increment();
+		if (latencyNanos >= 0) {
+			histogram(eventLatencies, type).record(latencyNanos);
+		}
+	}
+
+	@Override
+	public void listener(String type, long nanos) {
+		histogram(listeners, type).record(nanos);
+	}
+
+	private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String type) {
+		LatencyHistogram histogram = histograms.get(type);
+		return histogram == null ? histograms.computeIfAbsent(type, t -> new LatencyHistogram()) : histogram;
+	}
+
+	public Map<String, LatencyHistogram> roundTrips() {
+		return sorted(roundTrips);
+	}
+
+	public Map<String, LatencyHistogram> decodes() {
+		return sorted(decodes);
+	}
+
+	public Map<String, LatencyHistogram> eventLatencies() {
+		return sorted(eventLatencies);
+	}
+
+	public Map<String, LatencyHistogram> listeners() {
+		return sorted(listeners);
+	}
+
+	/**
+	 * @return message type to the number of messages received (since the start
+	 *         or the last {@link #reset()})
+	 */
+	public Map<String, Long> events() {
+		return Collections.unmodifiableMap(
+				events.entrySet().stream().collect(toMap(Map.Entry::getKey, e -> e.getValue().sum(), (a, b) -> a, TreeMap::new)));
+	}
+
+	/**
+	 * @return the messages of the passed type received per second (since the start
+	 *         or the last {@link #reset()})
+	 */
+	public double eventRate(String type) {
+		LongAdder count = events.get(type);
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return count == null || seconds <= 0 ? 0 : count.sum() / seconds;
+	}
+
+	public void reset() {
+		roundTrips.clear();
+		decodes.clear();
+		eventLatencies.clear();
+		listeners.clear();
+		events.clear();
+		startNanos = System.nanoTime();
+	}
+
+	private static <T> Map<String, T> sorted(Map<String, T> map) {
+		return Collections.unmodifiableMap(new TreeMap<>(map));
+	}
+
+	@Override
+	public String toString() {
+		return format("ClientMetrics [roundTrips=%s, eventLatencies=%s, listeners=%s, events=%s]", roundTrips(),
+				eventLatencies(), listeners(), events());
+	}
+
+}
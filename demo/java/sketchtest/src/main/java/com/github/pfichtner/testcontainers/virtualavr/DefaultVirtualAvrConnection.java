@@ -1,18 +1,26 @@
 package com.github.pfichtner.testcontainers.virtualavr;
 
 import static java.lang.String.format;
-import static java.util.stream.Collectors.toMap;
 
 import java.lang.reflect.Type;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.function.BinaryOperator;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
@@ -20,7 +28,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testcontainers.containers.GenericContainer;
 
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.Batch;
 import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinStates;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.Stimulus;
+import com.github.pfichtner.testcontainers.virtualavr.jfr.VirtualAvrEvents;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
@@ -34,37 +45,60 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 
 	private static final Logger logger = LoggerFactory.getLogger(VirtualAvrConnection.class);
 
+	private static final byte BINARY_SERIAL_DATA = 0x01;
+	private static final String SERIAL_DATA = "serialData";
+
 	public static class DefaultPinStates implements PinStates {
 
-		private final List<PinState> pinStates = new CopyOnWriteArrayList<>();
+		private static final int INITIAL_CAPACITY = 16;
+
+		// append-only (in the order received): the elements below size are never
+		// changed, so iterators work on the array and size at their creation without
+		// copying, growing and clearing replace the array
+		private PinState[] pinStates = new PinState[INITIAL_CAPACITY];
+		private int size;
+		private final PinHistory history = new PinHistory();
 
 		@Override
 		public Iterator<PinState> iterator() {
-			return pinStates.iterator();
+			PinState[] elements;
+			int count;
+			synchronized (this) {
+				elements = this.pinStates;
+				count = this.size;
+			}
+			return Arrays.asList(elements).subList(0, count).iterator();
 		}
 
 		public void add(PinState pinState) {
-			this.pinStates.add(pinState);
+			synchronized (this) {
+				if (size == pinStates.length) {
+					pinStates = Arrays.copyOf(pinStates, size * 2);
+				}
+				pinStates[size++] = pinState;
+			}
+			this.history.add(pinState);
 		}
 
 		public void clear() {
-			this.pinStates.clear();
+			synchronized (this) {
+				this.pinStates = new PinState[INITIAL_CAPACITY];
+				this.size = 0;
+			}
+			this.history.clear();
 		}
 
 		public Map<String, Object> last() {
-			return this.pinStates.stream().collect(toMap(PinState::getPin, PinState::getState, lastWins()));
+			return history.last();
 		}
 
 		public Object last(String pin) {
-			return this.pinStates.stream() //
-					.filter(p -> p.getPin().equals(pin)) //
-					.reduce(lastWins()) //
-					.map(PinState::getState) //
-					.orElse(null);
+			return history.last(pin);
 		}
 
-		private static <T> BinaryOperator<T> lastWins() {
-			return (first, last) -> last;
+		@Override
+		public PinHistory history() {
+			return history;
 		}
 
 	}
@@ -92,10 +126,27 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 			.create();
 
 	private final List<VirtualAvrConnection.Listener<PinState>> pinStateListeners = new CopyOnWriteArrayList<>();
+	private final List<VirtualAvrConnection.Listener<PortState>> portStateListeners = new CopyOnWriteArrayList<>();
 	private final List<VirtualAvrConnection.Listener<SerialDebug>> serialDebugListeners = new CopyOnWriteArrayList<>();
 	private final List<VirtualAvrConnection.Listener<CommandReply>> commandReplyListeners = new CopyOnWriteArrayList<>();
+	private final List<VirtualAvrConnection.Listener<byte[]>> serialDataListeners = new CopyOnWriteArrayList<>();
+	private final List<VirtualAvrConnection.Listener<Lag>> lagListeners = new CopyOnWriteArrayList<>();
+	private final Map<String, PendingReply<?>> pendingReplies = new ConcurrentHashMap<>();
+	// captures are sent (binary) right before the reply to the download command
+	private final Map<String, WaveformCapture> captures = new ConcurrentHashMap<>();
 	private final DefaultPinStates pinStates = new DefaultPinStates();
+	// the pins this connection enabled reporting for, virtualavr only sends us the states of these pins
+	private final Set<String> subscribedPins = ConcurrentHashMap.newKeySet();
+	private final LongAdder lagEvents = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAccumulator maxQueued = new LongAccumulator(Math::max, 0);
+	private volatile boolean lagging;
+	private final ClientMetrics clientMetrics = new ClientMetrics();
+	private final List<EventPublisher<?>> publishers = new CopyOnWriteArrayList<>();
+	private final List<MetricsRecorder> metricsRecorders = new CopyOnWriteArrayList<>(List.of(clientMetrics));
 	private boolean debugSerial;
+	private boolean serialData;
 
 	private VirtualAvrConnection sendAndWaitForReply(WithReplyId messageToSend) {
 		sendAndWaitForReplyAsync(messageToSend).join();
@@ -103,25 +154,49 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 	}
 
 	private CompletableFuture<CommandReply> sendAndWaitForReplyAsync(WithReplyId message) {
-		CompletableFuture<CommandReply> future = createReplyFuture(message);
+		return sendAndWaitForReplyAsync(message, CommandReply.class);
+	}
+
+	private <R extends CommandReply> CompletableFuture<R> sendAndWaitForReplyAsync(WithReplyId message,
+			Class<R> replyType) {
+		PendingReply<R> pendingReply = new PendingReply<>(replyType);
+		String replyId = String.valueOf(message.replyId());
+		pendingReplies.put(replyId, pendingReply);
+		pendingReply.future.whenComplete((__r, __t) -> pendingReplies.remove(replyId));
 		try {
-			send(gson.toJson(message));
+			String json = gson.toJson(message);
+			send(json);
+			VirtualAvrEvents.commandSent(replyId, json.length());
 		} catch (Exception ex) {
-			future.completeExceptionally(ex);
+			pendingReply.future.completeExceptionally(ex);
 		}
-		return future;
+		return pendingReply.future;
 	}
 
-	private CompletableFuture<CommandReply> createReplyFuture(WithReplyId message) {
-		CompletableFuture<CommandReply> future = new CompletableFuture<>();
-		VirtualAvrConnection.Listener<CommandReply> listener = r -> {
-			if (Objects.equals(message.replyId(), r.replyId())) {
-				future.complete(r);
+	private final class PendingReply<R extends CommandReply> {
+
+		private final Class<R> replyType;
+		private final CompletableFuture<R> future = new CompletableFuture<>();
+		private final long sentNanos = System.nanoTime();
+		private final Object flightRecording = VirtualAvrEvents.commandPending();
+
+		private PendingReply(Class<R> replyType) {
+			this.replyType = replyType;
+		}
+
+		private void complete(String message, Map<?, ?> json) {
+			String type = commandType(json);
+			recordRoundTrip(type, System.nanoTime() - sentNanos);
+			Object error = json.get("error");
+			VirtualAvrEvents.commandAcknowledged(flightRecording, type, String.valueOf(json.get("replyId")),
+					error == null ? null : String.valueOf(error));
+			if (error == null) {
+				future.complete(gson.fromJson(message, replyType));
+			} else {
+				future.completeExceptionally(new IllegalStateException(String.valueOf(error)));
 			}
-		};
-		addCommandReplyListener(listener);
-		future.whenComplete((__r, __t) -> removeCommandReplyListener(listener));
-		return future;
+		}
+
 	}
 
 	@SuppressWarnings("resource")
@@ -135,7 +210,9 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 		super(serverUri);
 		addPinStateListener(pinStates::add);
 		try {
-			connectBlocking();
+			if (connectBlocking()) {
+				subscribe();
+			}
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 		}
@@ -192,6 +269,25 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 		return this;
 	}
 
+	public VirtualAvrConnection addPortStateListener(VirtualAvrConnection.Listener<PortState> listener) {
+		boolean first = portStateListeners.isEmpty();
+		portStateListeners.add(listener);
+		return first ? portStateListenersChanged() : this;
+	}
+
+	public VirtualAvrConnection removePortStateListener(VirtualAvrConnection.Listener<PortState> listener) {
+		return portStateListeners.remove(listener) && portStateListeners.isEmpty() ? portStateListenersChanged()
+				: this;
+	}
+
+	private VirtualAvrConnection portStateListenersChanged() {
+		// port events are only requested while there are listeners for them
+		if (isOpen()) {
+			subscribe();
+		}
+		return this;
+	}
+
 	public VirtualAvrConnection addSerialDebugListener(VirtualAvrConnection.Listener<SerialDebug> listener) {
 		serialDebugListeners.add(listener);
 		return serialDebugListenersChanged();
@@ -203,7 +299,115 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 	}
 
 	private VirtualAvrConnection serialDebugListenersChanged() {
-		return debugSerial(!serialDebugListeners.isEmpty());
+		// publishers remove their listeners when they get completed on close
+		return isClosed() ? this : debugSerial(!serialDebugListeners.isEmpty());
+	}
+
+	public VirtualAvrConnection addSerialDataListener(VirtualAvrConnection.Listener<byte[]> listener) {
+		serialDataListeners.add(listener);
+		return serialDataListenersChanged();
+	}
+
+	public VirtualAvrConnection removeSerialDataListener(VirtualAvrConnection.Listener<byte[]> listener) {
+		serialDataListeners.remove(listener);
+		return serialDataListenersChanged();
+	}
+
+	private VirtualAvrConnection serialDataListenersChanged() {
+		return serialData(!serialDataListeners.isEmpty());
+	}
+
+	public VirtualAvrConnection addLagListener(VirtualAvrConnection.Listener<Lag> listener) {
+		lagListeners.add(listener);
+		return this;
+	}
+
+	public VirtualAvrConnection removeLagListener(VirtualAvrConnection.Listener<Lag> listener) {
+		lagListeners.remove(listener);
+		return this;
+	}
+
+	@Override
+	public LagMetrics lagMetrics() {
+		return new LagMetrics(lagging, lagEvents.sum(), dropped.sum(), coalesced.sum(), maxQueued.get());
+	}
+
+	@Override
+	public EventPublisher<PinState> pinStatePublisher(int bufferSize, EventPublisher.Overflow overflow) {
+		return publisher(new EventPublisher<>(bufferSize, overflow, this::addPinStateListener,
+				this::removePinStateListener));
+	}
+
+	@Override
+	public EventPublisher<SerialDebug> serialDebugPublisher(int bufferSize, EventPublisher.Overflow overflow) {
+		return publisher(new EventPublisher<>(bufferSize, overflow, this::addSerialDebugListener,
+				this::removeSerialDebugListener));
+	}
+
+	private <T> EventPublisher<T> publisher(EventPublisher<T> publisher) {
+		publishers.add(publisher);
+		if (isClosed()) {
+			completePublishers();
+		}
+		return publisher;
+	}
+
+	private void completePublishers() {
+		for (EventPublisher<?> publisher : publishers) {
+			publisher.complete();
+			publishers.remove(publisher);
+		}
+	}
+
+	@Override
+	public ClientMetrics clientMetrics() {
+		return clientMetrics;
+	}
+
+	@Override
+	public VirtualAvrConnection addMetricsRecorder(MetricsRecorder recorder) {
+		metricsRecorders.add(recorder);
+		return this;
+	}
+
+	@Override
+	public VirtualAvrConnection removeMetricsRecorder(MetricsRecorder recorder) {
+		metricsRecorders.remove(recorder);
+		return this;
+	}
+
+	@Override
+	public PinSnapshot snapshotPins() {
+		return snapshotPinsAsync().join();
+	}
+
+	@Override
+	public CompletableFuture<PinSnapshot> snapshotPinsAsync() {
+		return sendAndWaitForReplyAsync(new SnapshotRequest(), PinSnapshot.class);
+	}
+
+	@Override
+	public SimulatorMetrics metrics() {
+		return metricsAsync().join();
+	}
+
+	@Override
+	public CompletableFuture<SimulatorMetrics> metricsAsync() {
+		return sendAndWaitForReplyAsync(new MetricsRequest(), SimulatorMetrics.class);
+	}
+
+	private void lag(Lag lag) {
+		lagEvents.increment();
+		dropped.add(lag.dropped());
+		coalesced.add(lag.coalesced());
+		maxQueued.accumulate(lag.queued());
+		lagging = lag.isLagging();
+		if (lag.isLagging()) {
+			logger.warn("Connection does not keep up with virtualavr's messages: {}", lag);
+		} else if (lag.dropped() > 0 || lag.coalesced() > 0) {
+			logger.warn("Connection caught up with virtualavr's messages: {}", lag);
+		}
+		callAccept(lagListeners, lag);
 	}
 
 	public VirtualAvrConnection addCommandReplyListener(VirtualAvrConnection.Listener<CommandReply> listener) {
@@ -222,22 +426,122 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 
 	@Override
 	public void onMessage(String message) {
+		long start = System.nanoTime();
 		Map<?, ?> json = gson.fromJson(message, Map.class);
 		if (isDeprecated(json)) {
 			return;
 		}
+		long parsed = System.nanoTime() - start;
 		if (isResponse(json)) {
-			callAccept(commandReplyListeners, message, CommandReply.class);
+			String type = commandType(json);
+			recordEvent(type, json);
+			Optional.ofNullable(pendingReplies.remove(String.valueOf(json.get("replyId"))))
+					.ifPresent(p -> p.complete(message, json));
+			handle(type, parsed, message, CommandReply.class, r -> callAccept(commandReplyListeners, r));
 		} else {
 			String type = String.valueOf(json.get("type"));
+			recordEvent(type, json);
 			if ("pinState".equals(type)) {
-				callAccept(pinStateListeners, message, PinState.class);
+				handle(type, parsed, message, PinState.class, this::pinState);
+			} else if ("portState".equals(type)) {
+				handle(type, parsed, message, PortState.class, this::portState);
 			} else if ("serialDebug".equals(type)) {
-				callAccept(serialDebugListeners, message, SerialDebug.class);
+				handle(type, parsed, message, SerialDebug.class, d -> callAccept(serialDebugListeners, d));
+			} else if ("lag".equals(type)) {
+				handle(type, parsed, message, Lag.class, this::lag);
+			} else {
+				recordDecoded(type, parsed);
 			}
 		}
 	}
 
+	/**
+	 * Deserializes the message and passes it to the handler, recording the time
+	 * of both (parsed are the nanos it took to parse the message into a map).
+	 */
+	private <T> void handle(String type, long parsed, String message, Class<T> clazz, Consumer<T> handler) {
+		long start = System.nanoTime();
+		T value = gson.fromJson(message, clazz);
+		long decoded = System.nanoTime();
+		recordDecoded(type, parsed + decoded - start);
+		handler.accept(value);
+		recordListener(type, System.nanoTime() - decoded);
+	}
+
+	private static String commandType(Map<?, ?> json) {
+		Object action = json.get("action");
+		return action == null ? String.valueOf(json.get("type")) : json.get("type") + "." + action;
+	}
+
+	private void recordEvent(String type, Map<?, ?> json) {
+		Object emitTime = json.get("emitTime");
+		long latency = -1;
+		if (emitTime instanceof Number) {
+			Instant now = Instant.now();
+			double millis = now.getEpochSecond() * 1000d + now.getNano() / 1e6 - ((Number) emitTime).doubleValue();
+			// clocks of the host and the container may differ slightly
+			latency = Math.max(0, (long) (millis * 1e6));
+		}
+		for (MetricsRecorder recorder : metricsRecorders) {
+			recorder.event(type, latency);
+		}
+	}
+
+	private void recordDecoded(String type, long nanos) {
+		for (MetricsRecorder recorder : metricsRecorders) {
+			recorder.decoded(type, nanos);
+		}
+	}
+
+	private void recordListener(String type, long nanos) {
+		for (MetricsRecorder recorder : metricsRecorders) {
+			recorder.listener(type, nanos);
+		}
+	}
+
+	private void recordRoundTrip(String type, long nanos) {
+		for (MetricsRecorder recorder : metricsRecorders) {
+			recorder.roundTrip(type, nanos);
+		}
+	}
+
+	@Override
+	public void onMessage(ByteBuffer bytes) {
+		if (!bytes.hasRemaining()) {
+			return;
+		}
+		byte type = bytes.get(bytes.position());
+		if (type == BINARY_SERIAL_DATA) {
+			byte[] data = new byte[bytes.remaining() - 1];
+			bytes.position(bytes.position() + 1);
+			bytes.get(data);
+			recordEvent(SERIAL_DATA, Collections.emptyMap());
+			long start = System.nanoTime();
+			callAccept(serialDataListeners, data);
+			recordListener(SERIAL_DATA, System.nanoTime() - start);
+		} else if (type == WaveformCapture.BINARY_CAPTURE) {
+			WaveformCapture capture = WaveformCapture.decode(bytes);
+			if (pendingReplies.containsKey(capture.replyId())) {
+				captures.put(capture.replyId(), capture);
+			}
+		}
+	}
+
+	private void portState(PortState portState) {
+		callAccept(portStateListeners, portState);
+		for (int bit = 0; bit < Byte.SIZE; bit++) {
+			String pin = portState.pin(bit);
+			if (portState.isChanged(bit) && pin != null && subscribedPins.contains(pin)) {
+				pinState(new PinState(pin, portState.state(bit), portState.cpuTime()));
+			}
+		}
+	}
+
+	private void pinState(PinState pinState) {
+		VirtualAvrEvents.pinEventReceived(pinState.getPin(), pinState.getState(), pinState.getCpuTime());
+		callAccept(pinStateListeners, pinState);
+	}
+
 	private static boolean isDeprecated(Map<?, ?> json) {
 		return hasAttribute(json, "deprecated");
 	}
@@ -250,10 +554,6 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 		return values.get(name) != null;
 	}
 
-	private <T> void callAccept(List<VirtualAvrConnection.Listener<T>> listeners, String message, Class<T> clazz) {
-		callAccept(listeners, gson.fromJson(message, clazz));
-	}
-
 	private static <T> void callAccept(List<VirtualAvrConnection.Listener<T>> listeners, T message) {
 		for (VirtualAvrConnection.Listener<T> listener : listeners) {
 			listener.accept(message);
@@ -270,10 +570,17 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 	}
 
 	@SuppressWarnings("unused")
-	private static class Control extends WithReplyId {
+	private static class MetricsRequest extends WithReplyId {
+		private final String type = "metrics";
+	}
 
-		private static final Control PAUSE = new Control("pause");
-		private static final Control UNPAUSE = new Control("unpause");
+	@SuppressWarnings("unused")
+	private static class SnapshotRequest extends WithReplyId {
+		private final String type = "snapshot";
+	}
+
+	@SuppressWarnings("unused")
+	private static class Control extends WithReplyId {
 
 		private final String type = "control";
 		private final String action;
@@ -282,6 +589,66 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 			this.action = action;
 		}
 
+		private static Control pause() {
+			return new Control("pause");
+		}
+
+		private static Control unpause() {
+			return new Control("unpause");
+		}
+
+	}
+
+	@SuppressWarnings("unused")
+	private static class Run extends Control {
+
+		private final Long cycles;
+		private final Double cpuTime;
+		private final Double seconds;
+
+		private Run(String action, Long cycles, Double cpuTime, Double seconds) {
+			super(action);
+			this.cycles = cycles;
+			this.cpuTime = cpuTime;
+			this.seconds = seconds;
+		}
+
+		private static Run cycles(long cycles) {
+			return new Run("runCycles", cycles, null, null);
+		}
+
+		private static Run until(double cpuTime) {
+			return new Run("runUntil", null, cpuTime, null);
+		}
+
+		private static Run duration(Duration duration) {
+			return new Run("runFor", null, null, duration.toNanos() / 1e9);
+		}
+
+	}
+
+	@SuppressWarnings("unused")
+	private static class Speed extends Control {
+
+		private final double factor;
+
+		private Speed(double factor) {
+			super("speed");
+			this.factor = factor;
+		}
+
+	}
+
+	@SuppressWarnings("unused")
+	private static class MaxLatency extends Control {
+
+		private final double millis;
+
+		private MaxLatency(Duration maxLatency) {
+			super("maxLatency");
+			this.millis = maxLatency.toNanos() / 1e6;
+		}
+
 	}
 
 	@SuppressWarnings("unused")
@@ -320,6 +687,77 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 
 	}
 
+	@SuppressWarnings("unused")
+	private static class AnalogPlayback extends WithReplyId {
+
+		private final String type = "analogPlayback";
+		private final String pin;
+		private final int[] samples;
+		private final Double sampleRate;
+		private final Boolean loop;
+
+		private AnalogPlayback(String pin, int[] samples, Double sampleRate, Boolean loop) {
+			this.pin = pin;
+			this.samples = samples;
+			this.sampleRate = sampleRate;
+			this.loop = loop;
+		}
+
+	}
+
+	@SuppressWarnings("unused")
+	private static class PinBatch extends WithReplyId {
+
+		private final String type = "batch";
+		private final List<Batch.PinStateOperation> pinStates;
+		private final List<Batch.PinModeOperation> pinModes;
+
+		private PinBatch(Batch batch) {
+			this.pinStates = List.copyOf(batch.pinStates());
+			this.pinModes = List.copyOf(batch.pinModes());
+		}
+
+	}
+
+	@SuppressWarnings("unused")
+	private static class StimulusTimeline extends WithReplyId {
+
+		private final String type = "stimulus";
+		private final String action;
+		private final List<Stimulus.Event> events;
+		private final Stimulus.Trigger trigger;
+
+		private StimulusTimeline(String action, List<Stimulus.Event> events, Stimulus.Trigger trigger) {
+			this.action = action;
+			this.events = events;
+			this.trigger = trigger;
+		}
+
+	}
+
+	/**
+	 * Restricts the messages virtualavr sends to this connection (other clients
+	 * connected to the same simulator keep their own subscriptions). With
+	 * portEvents the digital pin changes are received as port messages, otherwise
+	 * as pin states.
+	 */
+	@SuppressWarnings("unused")
+	private static class Subscription extends WithReplyId {
+
+		private static final List<String> EVENTS = List.of("pinState", "portState", "serialDebug");
+
+		private final String type = "subscribe";
+		private final List<String> pins;
+		private final List<String> events = EVENTS;
+		private final boolean portEvents;
+
+		private Subscription(Set<String> pins, boolean portEvents) {
+			this.pins = List.copyOf(pins);
+			this.portEvents = portEvents;
+		}
+
+	}
+
 	@SuppressWarnings("unused")
 	private static class SetSerialDebug extends WithReplyId {
 
@@ -332,16 +770,189 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 
 	}
 
+	@SuppressWarnings("unused")
+	private static class SetSerialData extends WithReplyId {
+
+		private final String type = "serialData";
+		private final boolean state;
+
+		private SetSerialData(boolean state) {
+			this.state = state;
+		}
+
+	}
+
 	public VirtualAvrConnection pinReportMode(String pin, VirtualAvrConnection.PinReportMode mode) {
+		updateSubscription(pin, mode);
 		return sendAndWaitForReply(new SetPinReportMode(pin, mode));
 	}
 
+	private void updateSubscription(String pin, PinReportMode mode) {
+		if (mode == PinReportMode.NONE ? subscribedPins.remove(pin) : subscribedPins.add(pin)) {
+			subscribe();
+		}
+	}
+
+	private void subscribe() {
+		// messages of a connection are processed in order, so there is no need to wait for the reply
+		sendAndWaitForReplyAsync(new Subscription(subscribedPins, !portStateListeners.isEmpty()));
+	}
+
+	@Override
+	public VirtualAvrConnection analogPlayback(String pin, int[] samples, double sampleRate, boolean loop) {
+		return sendAndWaitForReply(new AnalogPlayback(pin, samples.clone(), sampleRate, loop));
+	}
+
+	@Override
+	public VirtualAvrConnection stopAnalogPlayback(String pin) {
+		return sendAndWaitForReply(new AnalogPlayback(pin, new int[0], null, null));
+	}
+
+	@Override
+	public Batch batch() {
+		return new Batch(b -> {
+			b.pinModes().forEach(m -> updateSubscription(m.pin(), m.reportMode()));
+			return sendAndWaitForReplyAsync(new PinBatch(b));
+		});
+	}
+
+	@Override
+	public Stimulus stimulus() {
+		return new Stimulus(s -> sendAndWaitForReplyAsync(
+				new StimulusTimeline("start", List.copyOf(s.events()), s.trigger())));
+	}
+
+	@Override
+	public VirtualAvrConnection clearStimuli() {
+		return sendAndWaitForReply(new StimulusTimeline("clear", null, null));
+	}
+
+	@SuppressWarnings("unused")
+	private static class Capture extends WithReplyId {
+
+		private final String type = "capture";
+		private final String action;
+		private final List<String> pins;
+		private final Integer maxSamples;
+
+		private Capture(String action, List<String> pins, Integer maxSamples) {
+			this.action = action;
+			this.pins = pins;
+			this.maxSamples = maxSamples;
+		}
+
+		private static Capture start(Integer maxSamples, String... pins) {
+			return new Capture("start", List.of(pins), maxSamples);
+		}
+
+		private static Capture stop() {
+			return new Capture("stop", null, null);
+		}
+
+		private static Capture download() {
+			return new Capture("download", null, null);
+		}
+
+	}
+
+	@SuppressWarnings("unused")
+	private static class RunUntilConditions extends WithReplyId {
+
+		private final String type = "runUntil";
+		private final List<RunUntil.Condition> conditions;
+		private final Long maxCycles;
+
+		private RunUntilConditions(RunUntil runUntil) {
+			this.conditions = List.copyOf(runUntil.conditions());
+			this.maxCycles = runUntil.maxCycles();
+		}
+
+	}
+
 	public VirtualAvrConnection pause() {
-		return sendAndWaitForReply(Control.PAUSE);
+		return sendAndWaitForReply(Control.pause());
 	}
 
 	public VirtualAvrConnection unpause() {
-		return sendAndWaitForReply(Control.UNPAUSE);
+		return sendAndWaitForReply(Control.unpause());
+	}
+
+	@Override
+	public VirtualAvrConnection startCapture(String... pins) {
+		return sendAndWaitForReply(Capture.start(null, pins));
+	}
+
+	@Override
+	public VirtualAvrConnection startCapture(int maxSamples, String... pins) {
+		return sendAndWaitForReply(Capture.start(maxSamples, pins));
+	}
+
+	@Override
+	public VirtualAvrConnection stopCapture() {
+		return sendAndWaitForReply(Capture.stop());
+	}
+
+	@Override
+	public WaveformCapture downloadCapture() {
+		Capture download = Capture.download();
+		String replyId = String.valueOf(download.replyId());
+		return sendAndWaitForReplyAsync(download) //
+				.thenApply(r -> Optional.ofNullable(captures.remove(replyId)) //
+						.orElseThrow(() -> new IllegalStateException("No capture received for " + replyId))) //
+				.join();
+	}
+
+	@Override
+	public VirtualAvrConnection speed(double factor) {
+		return sendAndWaitForReply(new Speed(checkSpeedFactor(factor)));
+	}
+
+	static double checkSpeedFactor(double factor) {
+		if (factor != 0 && (factor < MIN_SPEED_FACTOR || factor > MAX_SPEED_FACTOR)) {
+			throw new IllegalArgumentException(format("speed factor must be 0 or between %s and %s but was %s",
+					MIN_SPEED_FACTOR, MAX_SPEED_FACTOR, factor));
+		}
+		return factor;
+	}
+
+	@Override
+	public VirtualAvrConnection maxCommandLatency(Duration maxLatency) {
+		return sendAndWaitForReply(new MaxLatency(maxLatency));
+	}
+
+	@Override
+	public RunResult runCycles(long cycles) {
+		return runCyclesAsync(cycles).join();
+	}
+
+	@Override
+	public CompletableFuture<RunResult> runCyclesAsync(long cycles) {
+		return sendAndWaitForReplyAsync(Run.cycles(cycles), RunResult.class);
+	}
+
+	@Override
+	public RunResult runUntil(double cpuTime) {
+		return runUntilAsync(cpuTime).join();
+	}
+
+	@Override
+	public CompletableFuture<RunResult> runUntilAsync(double cpuTime) {
+		return sendAndWaitForReplyAsync(Run.until(cpuTime), RunResult.class);
+	}
+
+	@Override
+	public RunResult runFor(Duration duration) {
+		return runForAsync(duration).join();
+	}
+
+	@Override
+	public CompletableFuture<RunResult> runForAsync(Duration duration) {
+		return sendAndWaitForReplyAsync(Run.duration(duration), RunResult.class);
+	}
+
+	@Override
+	public RunUntil runUntil() {
+		return new RunUntil(r -> sendAndWaitForReplyAsync(new RunUntilConditions(r), RunUntilResult.class));
 	}
 
 	private VirtualAvrConnection debugSerial(boolean state) {
@@ -353,6 +964,22 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 		return this;
 	}
 
+	private VirtualAvrConnection serialData(boolean state) {
+		if (state != serialData) {
+			VirtualAvrConnection connection = sendAndWaitForReply(new SetSerialData(state));
+			serialData = state;
+			return connection;
+		}
+		return this;
+	}
+
+	@Override
+	public VirtualAvrConnection serialWrite(byte[] bytes) {
+		ByteBuffer frame = ByteBuffer.allocate(bytes.length + 1).put(BINARY_SERIAL_DATA).put(bytes);
+		send(frame.flip());
+		return this;
+	}
+
 	@Override
 	public void onError(Exception ex) {
 		logger.warn("WebSocket error: {}", ex.getMessage());
@@ -361,6 +988,9 @@ public class DefaultVirtualAvrConnection extends WebSocketClient implements Virt
 	@Override
 	public void onClose(int code, String reason, boolean remote) {
 		logger.debug("WebSocket closed: code={}, reason={}, remote={}", code, reason, remote);
+		IllegalStateException closed = new IllegalStateException(format("WebSocket closed: %s", reason));
+		pendingReplies.values().forEach(p -> p.future.completeExceptionally(closed));
+		completePublishers();
 	}
 
 }
\ No newline at end of file
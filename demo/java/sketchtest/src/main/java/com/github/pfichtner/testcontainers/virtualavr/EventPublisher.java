@@ -0,0 +1,246 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.lang.String.format;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * {@link Flow.Publisher} view of a listener based event source (e.g.
+ * {@link VirtualAvrConnection#addPinStateListener(VirtualAvrConnection.Listener)}).
+ * The listener is registered as long as there are subscribers. Each subscriber
+ * gets its own buffer of the configured size holding the events it did not
+ * request yet, the {@link Overflow} strategy decides what happens when the
+ * buffer is full. Subscribers are completed (after they received the buffered
+ * events) when the source is closed.
+ * <p>
+ * Events are delivered on the thread that published them or on the thread
+ * requesting them, never concurrently.
+ */
+public class EventPublisher<T> implements Flow.Publisher<T> {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+	public enum Overflow {
+		/**
+		 * Drops the oldest buffered event (like virtualavr's "drop-oldest"
+		 * BACKPRESSURE_POLICY).
+		 */
+		DROP_OLDEST,
+		/**
+		 * Drops the event that does not fit into the buffer anymore.
+		 */
+		DROP_NEWEST,
+		/**
+		 * Cancels the subscription and signals an {@link IllegalStateException} to
+		 * the subscriber (after the buffered events).
+		 */
+		ERROR;
+	}
+
+	private final int bufferSize;
+	private final Overflow overflow;
+	private final Consumer<VirtualAvrConnection.Listener<T>> register;
+	private final Consumer<VirtualAvrConnection.Listener<T>> unregister;
+	private final VirtualAvrConnection.Listener<T> listener = this::publish;
+	private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final LongAdder dropped = new LongAdder();
+	private boolean completed;
+
+	/**
+	 * @param register   registers the passed listener at the event source
+	 * @param unregister removes the passed listener from the event source
+	 */
+	public EventPublisher(int bufferSize, Overflow overflow, Consumer<VirtualAvrConnection.Listener<T>> register,
+			Consumer<VirtualAvrConnection.Listener<T>> unregister) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException(format("bufferSize must be greater than 0 but was %d", bufferSize));
+		}
+		this.bufferSize = bufferSize;
+		this.overflow = Objects.requireNonNull(overflow, "overflow must not be null");
+		this.register = register;
+		this.unregister = unregister;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		Objects.requireNonNull(subscriber, "subscriber must not be null");
+		EventSubscription subscription = new EventSubscription(subscriber);
+		synchronized (this) {
+			if (completed) {
+				subscription.done = true;
+			} else {
+				subscriptions.add(subscription);
+				if (subscriptions.size() == 1) {
+					register.accept(listener);
+				}
+			}
+		}
+		subscriber.onSubscribe(subscription);
+		subscription.drainLoop(1);
+	}
+
+	private void publish(T event) {
+		for (EventSubscription subscription : subscriptions) {
+			subscription.offer(event);
+		}
+	}
+
+	/**
+	 * Completes all subscribers (after they received their buffered events), later
+	 * subscribers get completed immediately.
+	 */
+	public void complete() {
+		List<EventSubscription> toComplete;
+		synchronized (this) {
+			if (completed) {
+				return;
+			}
+			completed = true;
+			toComplete = List.copyOf(subscriptions);
+		}
+		toComplete.forEach(EventSubscription::complete);
+	}
+
+	public synchronized boolean isCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return the number of current subscribers
+	 */
+	public int subscribers() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * @return the events dropped (of all subscribers) because a buffer was full
+	 */
+	public long dropped() {
+		return dropped.sum();
+	}
+
+	private synchronized void remove(EventSubscription subscription) {
+		if (subscriptions.remove(subscription) && subscriptions.isEmpty()) {
+			unregister.accept(listener);
+		}
+	}
+
+	private final class EventSubscription implements Flow.Subscription {
+
+		private final Flow.Subscriber<? super T> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		// 1 while onSubscribe is running, so no other signal can happen before
+		private final AtomicInteger wip = new AtomicInteger(1);
+		// all following fields are guarded by this
+		private final ArrayDeque<T> buffer = new ArrayDeque<>();
+		private boolean done;
+		private Throwable error;
+		private volatile boolean cancelled;
+
+		private EventSubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		private void offer(T event) {
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				if (buffer.size() >= bufferSize) {
+					dropped.increment();
+					if (overflow == Overflow.DROP_NEWEST) {
+						return;
+					} else if (overflow == Overflow.ERROR) {
+						done = true;
+						error = new IllegalStateException(
+								format("Subscriber did not keep up, buffer of %d events overflowed", bufferSize));
+						remove(this);
+					} else {
+						buffer.pollFirst();
+						buffer.addLast(event);
+					}
+				} else {
+					buffer.addLast(event);
+				}
+			}
+			drain();
+		}
+
+		private void complete() {
+			synchronized (this) {
+				done = true;
+			}
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				synchronized (this) {
+					done = true;
+					buffer.clear();
+					error = new IllegalArgumentException(format("Requested %d events, must be positive (§3.9)", n));
+				}
+				remove(this);
+			} else {
+				demand.accumulateAndGet(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			remove(this);
+		}
+
+		private void drain() {
+			if (wip.getAndIncrement() == 0) {
+				drainLoop(1);
+			}
+		}
+
+		private void drainLoop(int missed) {
+			do {
+				while (!cancelled) {
+					T next = null;
+					boolean terminate;
+					Throwable failure;
+					synchronized (this) {
+						if (demand.get() > 0 && !buffer.isEmpty()) {
+							next = buffer.pollFirst();
+						}
+						terminate = done && buffer.isEmpty();
+						failure = error;
+					}
+					if (next != null) {
+						if (demand.get() != Long.MAX_VALUE) {
+							demand.decrementAndGet();
+						}
+						subscriber.onNext(next);
+					} else if (terminate) {
+						cancel();
+						if (failure == null) {
+							subscriber.onComplete();
+						} else {
+							subscriber.onError(failure);
+						}
+					} else {
+						break;
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+	}
+
+}
@@ -0,0 +1,23 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+/**
+ * Receives the timings of a {@link VirtualAvrConnection}, e.g. to publish them
+ * to a metrics library, see
+ * {@link VirtualAvrConnection#addMetricsRecorder(MetricsRecorder)}. The methods
+ * are called on the websocket's thread, so they must be fast.
+ */
+public interface MetricsRecorder {
+
+	void roundTrip(String type, long nanos);
+
+	void decoded(String type, long nanos);
+
+	/**
+	 * @param latencyNanos the time since virtualavr emitted the message,
+	 *                     negative if the message did not contain the emit time
+	 */
+	void event(String type, long latencyNanos);
+
+	void listener(String type, long nanos);
+
+}
@@ -0,0 +1,277 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+
+/**
+ * Time-indexed history of the pin states: per pin the cpu times and states are
+ * kept in primitive arrays sorted by cpu time, so looking up the state at a cpu
+ * time or the changes in a time range is a binary search instead of a scan of
+ * all pin states received.
+ */
+public class PinHistory {
+
+	/**
+	 * A pin having a state from <code>start</code> (inclusive) to
+	 * <code>end</code> (exclusive, the cpu time of the next change).
+	 */
+	public static class Interval {
+
+		private final Object state;
+		private final double start;
+		private final double end;
+
+		public Interval(Object state, double start, double end) {
+			this.state = state;
+			this.start = start;
+			this.end = end;
+		}
+
+		public Object state() {
+			return state;
+		}
+
+		public double start() {
+			return start;
+		}
+
+		public double end() {
+			return end;
+		}
+
+		/**
+		 * @return the cpu time (seconds) the pin had the state
+		 */
+		public double width() {
+			return end - start;
+		}
+
+		@Override
+		public String toString() {
+			return format("Interval [state=%s, start=%s, end=%s]", state, start, end);
+		}
+
+	}
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final class Timeline {
+
+		private final String pin;
+		private double[] cpuTimes = new double[INITIAL_CAPACITY];
+		// booleans are stored as 0/1 flagged in digital
+		private int[] values = new int[INITIAL_CAPACITY];
+		private boolean[] digital = new boolean[INITIAL_CAPACITY];
+		private int size;
+
+		private Timeline(String pin) {
+			this.pin = pin;
+		}
+
+		private synchronized void add(double cpuTime, Object state) {
+			if (size == cpuTimes.length) {
+				int capacity = size * 2;
+				cpuTimes = Arrays.copyOf(cpuTimes, capacity);
+				values = Arrays.copyOf(values, capacity);
+				digital = Arrays.copyOf(digital, capacity);
+			}
+			// pin states normally arrive in order, so this is the end of the arrays
+			int index = upperBound(cpuTime);
+			if (index < size) {
+				System.arraycopy(cpuTimes, index, cpuTimes, index + 1, size - index);
+				System.arraycopy(values, index, values, index + 1, size - index);
+				System.arraycopy(digital, index, digital, index + 1, size - index);
+			}
+			cpuTimes[index] = cpuTime;
+			digital[index] = state instanceof Boolean;
+			values[index] = state instanceof Boolean ? ((Boolean) state ? 1 : 0) : ((Number) state).intValue();
+			size++;
+		}
+
+		/**
+		 * @return the index of the first entry with a cpu time greater than the passed
+		 *         one
+		 */
+		private int upperBound(double cpuTime) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (cpuTimes[mid] <= cpuTime) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @return the index of the first entry with a cpu time greater than or equal
+		 *         to the passed one
+		 */
+		private int lowerBound(double cpuTime) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (cpuTimes[mid] < cpuTime) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		private Object state(int index) {
+			return digital[index] ? (Object) (values[index] != 0) : (Object) values[index];
+		}
+
+		private synchronized Object valueAt(double cpuTime) {
+			int index = upperBound(cpuTime) - 1;
+			return index < 0 ? null : state(index);
+		}
+
+		private synchronized Object last() {
+			return size == 0 ? null : state(size - 1);
+		}
+
+		private synchronized List<PinState> between(double from, double to) {
+			int start = lowerBound(from);
+			int end = upperBound(to);
+			List<PinState> pinStates = new ArrayList<>(Math.max(0, end - start));
+			for (int i = start; i < end; i++) {
+				pinStates.add(new PinState(pin, state(i), cpuTimes[i]));
+			}
+			return pinStates;
+		}
+
+		private synchronized List<Interval> intervals(double from, double to) {
+			List<Interval> intervals = new ArrayList<>();
+			int index = Math.max(0, upperBound(from) - 1);
+			int end = upperBound(to);
+			while (index < end) {
+				Object state = state(index);
+				double start = cpuTimes[index];
+				// repeated (unchanged) states do not end the interval
+				do {
+					index++;
+				} while (index < size && Objects.equals(state(index), state));
+				if (index < size) {
+					intervals.add(new Interval(state, start, cpuTimes[index]));
+				}
+			}
+			return intervals;
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+
+	}
+
+	private final ConcurrentMap<String, Timeline> timelines = new ConcurrentHashMap<>();
+
+	public void add(PinState pinState) {
+		Timeline timeline = timelines.get(pinState.getPin());
+		if (timeline == null) {
+			timeline = timelines.computeIfAbsent(pinState.getPin(), Timeline::new);
+		}
+		timeline.add(pinState.getCpuTime(), pinState.getState());
+	}
+
+	public void clear() {
+		timelines.clear();
+	}
+
+	/**
+	 * @return the state the pin had at the passed cpu time (the last state
+	 *         received at or before it), <code>null</code> if there is none
+	 */
+	public Object valueAt(String pin, double cpuTime) {
+		Timeline timeline = timelines.get(pin);
+		return timeline == null ? null : timeline.valueAt(cpuTime);
+	}
+
+	/**
+	 * @return the last state received of the pin, <code>null</code> if there is
+	 *         none
+	 */
+	public Object last(String pin) {
+		Timeline timeline = timelines.get(pin);
+		return timeline == null ? null : timeline.last();
+	}
+
+	/**
+	 * @return the last states received of all pins
+	 */
+	public Map<String, Object> last() {
+		Map<String, Object> last = new LinkedHashMap<>();
+		timelines.forEach((pin, timeline) -> {
+			Object state = timeline.last();
+			if (state != null) {
+				last.put(pin, state);
+			}
+		});
+		return last;
+	}
+
+	/**
+	 * @return the states of the pin received from <code>from</code> to
+	 *         <code>to</code> (both inclusive) ordered by cpu time
+	 */
+	public List<PinState> between(String pin, double from, double to) {
+		Timeline timeline = timelines.get(pin);
+		return timeline == null ? Collections.emptyList() : timeline.between(from, to);
+	}
+
+	/**
+	 * @return the intervals the pin had a state (ended by a change of the state)
+	 *         overlapping the range from <code>from</code> to <code>to</code>
+	 *         (both inclusive), ordered by cpu time. The intervals are not clipped
+	 *         to the range, the interval of the current state is not included
+	 *         since it did not end yet.
+	 */
+	public List<Interval> intervals(String pin, double from, double to) {
+		Timeline timeline = timelines.get(pin);
+		return timeline == null ? Collections.emptyList() : timeline.intervals(from, to);
+	}
+
+	/**
+	 * @see #intervals(String, double, double)
+	 */
+	public List<Interval> intervals(String pin) {
+		return intervals(pin, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @return the widths (cpu time in seconds) of the (ended) intervals the pin had
+	 *         the passed state, e.g. <code>pulseWidths("9", true)</code> for the
+	 *         widths of the high pulses
+	 */
+	public double[] pulseWidths(String pin, Object state) {
+		return intervals(pin).stream().filter(i -> Objects.equals(i.state(), state)).mapToDouble(Interval::width)
+				.toArray();
+	}
+
+	/**
+	 * @return the number of states received of the pin
+	 */
+	public int size(String pin) {
+		Timeline timeline = timelines.get(pin);
+		return timeline == null ? 0 : timeline.size();
+	}
+
+}
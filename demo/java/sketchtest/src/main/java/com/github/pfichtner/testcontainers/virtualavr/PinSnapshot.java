@@ -0,0 +1,112 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.lang.String.format;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.CommandReply;
+
+/**
+ * The states of all pins taken at a single cpu cycle, see
+ * {@link VirtualAvrConnection#snapshotPins()}. Unlike
+ * {@link VirtualAvrConnection#pinStates()} it does not depend on the pins
+ * being listened to.
+ */
+public class PinSnapshot extends CommandReply {
+
+	private final long cycles;
+	private final double cpuTime;
+	private final Map<String, Integer> ports;
+	private final Map<String, Boolean> digital;
+	private final Map<String, Integer> analog;
+	private final Map<String, Integer> pwm;
+
+	public PinSnapshot(UUID replyId, long cycles, double cpuTime, Map<String, Integer> ports,
+			Map<String, Boolean> digital, Map<String, Integer> analog, Map<String, Integer> pwm) {
+		super(replyId);
+		this.cycles = cycles;
+		this.cpuTime = cpuTime;
+		this.ports = ports;
+		this.digital = digital;
+		this.analog = analog;
+		this.pwm = pwm;
+	}
+
+	public long cycles() {
+		return cycles;
+	}
+
+	public double cpuTime() {
+		return cpuTime;
+	}
+
+	/**
+	 * @return port name (B, C, D) to the levels of its pins (the PIN register, so
+	 *         inputs are included)
+	 */
+	public Map<String, Integer> ports() {
+		return unmodifiable(ports);
+	}
+
+	/**
+	 * @return pin to its level (<code>true</code> is high)
+	 */
+	public Map<String, Boolean> digital() {
+		return unmodifiable(digital);
+	}
+
+	/**
+	 * @return analog pin (A0-A5) to the value (0-1023) of its ADC channel
+	 */
+	public Map<String, Integer> analog() {
+		return unmodifiable(analog);
+	}
+
+	/**
+	 * @return PWM pin to its duty (0-255), <code>null</code> if the pin is not
+	 *         driven by its timer
+	 */
+	public Map<String, Integer> pwm() {
+		return unmodifiable(pwm);
+	}
+
+	public boolean digital(String pin) {
+		Boolean level = digital().get(pin);
+		if (level == null) {
+			throw new IllegalArgumentException(format("Unknown pin %s", pin));
+		}
+		return level;
+	}
+
+	public int analog(String pin) {
+		Integer value = analog().get(pin);
+		if (value == null) {
+			throw new IllegalArgumentException(format("%s is no analog pin", pin));
+		}
+		return value;
+	}
+
+	/**
+	 * @return the duty of the pin, <code>null</code> if the pin is not driven by
+	 *         its timer
+	 */
+	public Integer pwm(String pin) {
+		if (!pwm().containsKey(pin)) {
+			throw new IllegalArgumentException(format("%s is no PWM pin", pin));
+		}
+		return pwm().get(pin);
+	}
+
+	private static <V> Map<String, V> unmodifiable(Map<String, V> map) {
+		return map == null ? Collections.emptyMap() : Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public String toString() {
+		return format("PinSnapshot [cycles=%d, cpuTime=%f, ports=%s, analog=%s, pwm=%s]", cycles, cpuTime, ports,
+				analog, pwm);
+	}
+
+}
@@ -3,16 +3,33 @@ package com.github.pfichtner.testcontainers.virtualavr;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
 
 import com.fazecast.jSerialComm.SerialPort;
 import com.fazecast.jSerialComm.SerialPortDataListener;
 import com.fazecast.jSerialComm.SerialPortEvent;
 import com.fazecast.jSerialComm.SerialPortInvalidPortException;
+import com.github.pfichtner.testcontainers.virtualavr.jfr.VirtualAvrEvents;
 
 public class SerialConnection implements AutoCloseable {
 
 	private final SerialPort port;
 	private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+	private final List<VirtualAvrConnection.Listener<byte[]>> receiveListeners = new CopyOnWriteArrayList<>();
+	private final List<EventPublisher<byte[]>> publishers = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Constructor for subclasses that do not transport the serial data via a
+	 * (virtual) serial port. Those have to override {@link #write(byte[])},
+	 * {@link #isClosed()} and {@link #close()} and pass all data received to
+	 * {@link #receive(byte[])}. When closed they have to call
+	 * {@link #completePublishers()}.
+	 */
+	protected SerialConnection() {
+		this.port = null;
+	}
 
 	public SerialConnection(String name, int baudrate) throws IOException {
 		try {
@@ -38,28 +55,71 @@ public class SerialConnection implements AutoCloseable {
 				if (event.getEventType() == SerialPort.LISTENING_EVENT_DATA_RECEIVED) {
 					byte[] data = event.getReceivedData();
 					if (data != null && data.length > 0) {
-						synchronized (received) {
-							try {
-								received.write(data);
-							} catch (IOException e) {
-								throw new RuntimeException(e);
-							}
-						}
+						receive(data);
 					}
 				}
 			}
 		});
 	}
 
-	public void send(String string) throws IOException {
-		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
-		int written = port.writeBytes(bytes, bytes.length);
-		if (written < 0) {
-			throw new IOException("Failed to write to serial port");
+	protected void receive(byte[] data) {
+		VirtualAvrEvents.serialBytesRead(this, data.length);
+		synchronized (received) {
+			try {
+				received.write(data);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		for (VirtualAvrConnection.Listener<byte[]> listener : receiveListeners) {
+			listener.accept(data);
+		}
+	}
+
+	/**
+	 * @return a {@link Flow.Publisher} of the bytes received (as they arrived,
+	 *         buffering up to {@value EventPublisher#DEFAULT_BUFFER_SIZE} chunks
+	 *         per subscriber and dropping the oldest ones), completed when the
+	 *         connection is closed
+	 */
+	public EventPublisher<byte[]> receivedPublisher() {
+		return receivedPublisher(EventPublisher.DEFAULT_BUFFER_SIZE, EventPublisher.Overflow.DROP_OLDEST);
+	}
+
+	/**
+	 * @param bufferSize the chunks buffered per subscriber until they are
+	 *                   requested
+	 * @param overflow   what happens if a subscriber's buffer is full
+	 * @return a {@link Flow.Publisher} of the bytes received, completed when the
+	 *         connection is closed
+	 */
+	public EventPublisher<byte[]> receivedPublisher(int bufferSize, EventPublisher.Overflow overflow) {
+		EventPublisher<byte[]> publisher = new EventPublisher<>(bufferSize, overflow, receiveListeners::add,
+				receiveListeners::remove);
+		publishers.add(publisher);
+		if (isClosed()) {
+			completePublishers();
+		}
+		return publisher;
+	}
+
+	protected void completePublishers() {
+		for (EventPublisher<byte[]> publisher : publishers) {
+			publisher.complete();
+			publishers.remove(publisher);
 		}
 	}
 
+	public void send(String string) throws IOException {
+		send(string.getBytes(StandardCharsets.UTF_8));
+	}
+
 	public void send(byte[] bytes) throws IOException {
+		write(bytes);
+		VirtualAvrEvents.serialBytesWritten(this, bytes.length);
+	}
+
+	protected void write(byte[] bytes) throws IOException {
 		int written = port.writeBytes(bytes, bytes.length);
 		if (written < 0) {
 			throw new IOException("Failed to write to serial port");
@@ -90,6 +150,7 @@ public class SerialConnection implements AutoCloseable {
 	@Override
 	public void close() {
 		port.closePort();
+		completePublishers();
 	}
 
 }
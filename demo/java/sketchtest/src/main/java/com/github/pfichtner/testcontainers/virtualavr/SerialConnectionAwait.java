@@ -8,6 +8,8 @@ import java.util.function.Predicate;
 
 import org.testcontainers.shaded.org.awaitility.core.ConditionFactory;
 
+import com.github.pfichtner.testcontainers.virtualavr.jfr.VirtualAvrEvents;
+
 public class SerialConnectionAwait {
 
 	private final SerialConnection connection;
@@ -55,7 +57,14 @@ public class SerialConnectionAwait {
 	}
 
 	public SerialConnectionAwait awaitReceivedBytes(Predicate<byte[]> predicate) {
-		conditionFactory().until(() -> predicate.test(connection.receivedBytes()));
+		Object flightRecording = VirtualAvrEvents.awaitStarted(connection);
+		boolean satisfied = false;
+		try {
+			conditionFactory().until(() -> predicate.test(connection.receivedBytes()));
+			satisfied = true;
+		} finally {
+			VirtualAvrEvents.awaitFinished(flightRecording, connection, satisfied);
+		}
 		connection.clearReceived();
 		return this;
 	}
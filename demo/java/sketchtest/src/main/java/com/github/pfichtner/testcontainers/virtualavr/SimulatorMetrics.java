@@ -0,0 +1,323 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.lang.String.format;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.CommandReply;
+
+/**
+ * Counters and gauges of a running simulator and its websocket server, see
+ * {@link VirtualAvrConnection#metrics()}. The counters are totals since the
+ * start of the simulator, the rates are sampled by the simulator once per
+ * second.
+ */
+public class SimulatorMetrics extends CommandReply {
+
+	public static class Simulator {
+
+		private long cycles;
+		private double cpuTime;
+		private long instructions;
+		private long skippedCycles;
+		private long commands;
+		private int serialRxQueued;
+		private boolean paused;
+		private double speedFactor;
+		private double instructionsPerSecond;
+		private double cyclesPerSecond;
+		private double realtimeFactor;
+		private Histogram chunkMillis;
+
+		public long cycles() {
+			return cycles;
+		}
+
+		public double cpuTime() {
+			return cpuTime;
+		}
+
+		public long instructions() {
+			return instructions;
+		}
+
+		/**
+		 * @return the cycles fast-forwarded (not executed) because the firmware was
+		 *         idle
+		 */
+		public long skippedCycles() {
+			return skippedCycles;
+		}
+
+		public long commands() {
+			return commands;
+		}
+
+		/**
+		 * @return the bytes sent to the serial line the firmware did not receive
+		 *         yet
+		 */
+		public int serialRxQueued() {
+			return serialRxQueued;
+		}
+
+		public boolean isPaused() {
+			return paused;
+		}
+
+		/**
+		 * @return the configured speed factor, <code>0</code> means as fast as
+		 *         possible
+		 */
+		public double speedFactor() {
+			return speedFactor;
+		}
+
+		public double instructionsPerSecond() {
+			return instructionsPerSecond;
+		}
+
+		public double cyclesPerSecond() {
+			return cyclesPerSecond;
+		}
+
+		/**
+		 * @return simulated seconds per wall-clock second during the last second, a
+		 *         running simulator with a speed factor of 1 that reports less than
+		 *         1 falls behind real time
+		 */
+		public double realtimeFactor() {
+			return realtimeFactor;
+		}
+
+		/**
+		 * @return the (host) duration of the instruction chunks in milliseconds
+		 */
+		public Histogram chunkMillis() {
+			return chunkMillis;
+		}
+
+		@Override
+		public String toString() {
+			return format(
+					"Simulator [cycles=%d, instructions=%d, paused=%s, instructionsPerSecond=%.0f, realtimeFactor=%.3f, chunkMillis=%s]",
+					cycles, instructions, paused, instructionsPerSecond, realtimeFactor, chunkMillis);
+		}
+
+	}
+
+	/**
+	 * Histogram with fixed buckets, the counts are cumulative (like Prometheus
+	 * histograms): <code>counts()[i]</code> is the number of observations less
+	 * than or equal to <code>upperBounds()[i]</code>, the last count is the total.
+	 */
+	public static class Histogram {
+
+		private double[] upperBounds;
+		private long[] counts;
+		private double sum;
+		private long count;
+
+		public double[] upperBounds() {
+			return upperBounds.clone();
+		}
+
+		public long[] counts() {
+			return counts.clone();
+		}
+
+		public double sum() {
+			return sum;
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public double mean() {
+			return count == 0 ? 0 : sum / count;
+		}
+
+		/**
+		 * @param upperBound one of the {@link #upperBounds()}
+		 * @return the number of observations greater than the passed bound
+		 */
+		public long countAbove(double upperBound) {
+			int index = Arrays.binarySearch(upperBounds, upperBound);
+			if (index < 0) {
+				throw new IllegalArgumentException(
+						format("%s is not one of the bounds %s", upperBound, Arrays.toString(upperBounds)));
+			}
+			return count - counts[index];
+		}
+
+		@Override
+		public String toString() {
+			return format("Histogram [count=%d, mean=%.3f]", count, mean());
+		}
+
+	}
+
+	public static class Server {
+
+		private double uptimeSeconds;
+		private int clients;
+		private int pendingMessages;
+		private int commandBacklog;
+		private long commandRingBytes;
+		private long eventRingBytes;
+		private long serialOutputQueued;
+		private Map<String, Long> sentMessages;
+
+		public double uptimeSeconds() {
+			return uptimeSeconds;
+		}
+
+		public int clients() {
+			return clients;
+		}
+
+		/**
+		 * @return the messages waiting for the next batch (see BATCH_MILLIS)
+		 */
+		public int pendingMessages() {
+			return pendingMessages;
+		}
+
+		/**
+		 * @return the commands waiting for the simulator to consume the ones before
+		 */
+		public int commandBacklog() {
+			return commandBacklog;
+		}
+
+		public long commandRingBytes() {
+			return commandRingBytes;
+		}
+
+		public long eventRingBytes() {
+			return eventRingBytes;
+		}
+
+		/**
+		 * @return the bytes not yet written to the serial device
+		 */
+		public long serialOutputQueued() {
+			return serialOutputQueued;
+		}
+
+		/**
+		 * @return message type to the number of messages sent to the clients
+		 */
+		public Map<String, Long> sentMessages() {
+			return sentMessages == null ? Collections.emptyMap() : Collections.unmodifiableMap(sentMessages);
+		}
+
+		@Override
+		public String toString() {
+			return format("Server [clients=%d, pendingMessages=%d, commandBacklog=%d, sentMessages=%s]", clients,
+					pendingMessages, commandBacklog, sentMessages);
+		}
+
+	}
+
+	public static class Client {
+
+		private String address;
+		private String policy;
+		private long highWaterMark;
+		private boolean lagging;
+		private long queued;
+		private long bufferedAmount;
+		private long sentMessages;
+		private long sentBytes;
+		private long dropped;
+		private long coalesced;
+
+		public String address() {
+			return address;
+		}
+
+		public String policy() {
+			return policy;
+		}
+
+		public long highWaterMark() {
+			return highWaterMark;
+		}
+
+		public boolean isLagging() {
+			return lagging;
+		}
+
+		public long queued() {
+			return queued;
+		}
+
+		public long bufferedAmount() {
+			return bufferedAmount;
+		}
+
+		public long sentMessages() {
+			return sentMessages;
+		}
+
+		/**
+		 * @return the bytes sent to the client (characters for text messages)
+		 */
+		public long sentBytes() {
+			return sentBytes;
+		}
+
+		public long dropped() {
+			return dropped;
+		}
+
+		public long coalesced() {
+			return coalesced;
+		}
+
+		@Override
+		public String toString() {
+			return format("Client [address=%s, lagging=%s, queued=%d, sentMessages=%d, sentBytes=%d, dropped=%d]",
+					address, lagging, queued, sentMessages, sentBytes, dropped);
+		}
+
+	}
+
+	private final Simulator simulator;
+	private final Server server;
+	private final List<Client> clients;
+
+	public SimulatorMetrics(UUID replyId, Simulator simulator, Server server, List<Client> clients) {
+		super(replyId);
+		this.simulator = simulator;
+		this.server = server;
+		this.clients = clients;
+	}
+
+	public Simulator simulator() {
+		return simulator;
+	}
+
+	public Server server() {
+		return server;
+	}
+
+	/**
+	 * @return the connected websocket clients (including this connection)
+	 */
+	public List<Client> clients() {
+		return clients == null ? Collections.emptyList() : Collections.unmodifiableList(clients);
+	}
+
+	@Override
+	public String toString() {
+		return format("SimulatorMetrics [simulator=%s, server=%s, clients=%s]", simulator, server, clients);
+	}
+
+}
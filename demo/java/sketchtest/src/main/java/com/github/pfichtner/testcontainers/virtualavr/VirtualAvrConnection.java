@@ -4,14 +4,29 @@ import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 import static java.lang.String.format;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public interface VirtualAvrConnection extends AutoCloseable {
 
+	/**
+	 * The clock frequency (in Hz) of the simulated cpu.
+	 */
+	double CLOCK_FREQUENCY = 16e6;
+
+	double MIN_SPEED_FACTOR = 0.1;
+	double MAX_SPEED_FACTOR = 100;
+
 	enum PinReportMode {
 		ANALOG("analog"), DIGITAL("digital"), NONE("none");
 
@@ -30,6 +45,29 @@ public interface VirtualAvrConnection extends AutoCloseable {
 
 		Object last(String pin);
 
+		/**
+		 * @return the pin states indexed by pin and cpu time
+		 */
+		PinHistory history();
+
+		/**
+		 * @return the state the pin had at the passed cpu time, <code>null</code> if
+		 *         unknown
+		 * @see PinHistory#valueAt(String, double)
+		 */
+		default Object valueAt(String pin, double cpuTime) {
+			return history().valueAt(pin, cpuTime);
+		}
+
+		/**
+		 * @return the states of the pin received from <code>from</code> to
+		 *         <code>to</code> (cpu times, both inclusive)
+		 * @see PinHistory#between(String, double, double)
+		 */
+		default List<PinState> between(String pin, double from, double to) {
+			return history().between(pin, from, to);
+		}
+
 		default Stream<PinState> stream() {
 			return StreamSupport.stream(spliterator(), false);
 		}
@@ -118,6 +156,84 @@ public interface VirtualAvrConnection extends AutoCloseable {
 
 	}
 
+	/**
+	 * All digital pins of an avr port that changed with one write to the port
+	 * (only the pins reporting is enabled for are part of the mask).
+	 */
+	public static class PortState {
+
+		private final String port;
+		private final int value;
+		private final int mask;
+		private final long cycles;
+		private final double cpuTime;
+
+		public PortState(String port, int value, int mask, long cycles, double cpuTime) {
+			this.port = port;
+			this.value = value;
+			this.mask = mask;
+			this.cycles = cycles;
+			this.cpuTime = cpuTime;
+		}
+
+		public String port() {
+			return port;
+		}
+
+		/**
+		 * @return the states of all the port's pins (bit 0 is pin 0 of the port)
+		 */
+		public int value() {
+			return value;
+		}
+
+		/**
+		 * @return the bits of the pins that changed
+		 */
+		public int mask() {
+			return mask;
+		}
+
+		public long cycles() {
+			return cycles;
+		}
+
+		public double cpuTime() {
+			return cpuTime;
+		}
+
+		public boolean isChanged(int bit) {
+			return (mask & (1 << bit)) != 0;
+		}
+
+		public boolean state(int bit) {
+			return (value & (1 << bit)) != 0;
+		}
+
+		/**
+		 * @param bit the bit of the port
+		 * @return the arduino (uno) pin of the bit or <code>null</code> if the bit is
+		 *         not mapped to a pin
+		 */
+		public String pin(int bit) {
+			if ("B".equals(port) && bit < 6) {
+				return String.valueOf(8 + bit);
+			} else if ("C".equals(port) && bit < 6) {
+				return "A" + bit;
+			} else if ("D".equals(port) && bit < 8) {
+				return String.valueOf(bit);
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return format("PortState [port=%s, value=%s, mask=%s, cpuTime=%f]", port, Integer.toBinaryString(value),
+					Integer.toBinaryString(mask), cpuTime);
+		}
+
+	}
+
 	public static class CommandReply {
 
 		private final UUID replyId;
@@ -131,6 +247,403 @@ public interface VirtualAvrConnection extends AutoCloseable {
 		}
 	}
 
+	/**
+	 * Reply of the run commands: The cycles and the cpu time the simulation was
+	 * paused at.
+	 */
+	public static class RunResult extends CommandReply {
+
+		private final long cycles;
+		private final double cpuTime;
+
+		public RunResult(UUID replyId, long cycles, double cpuTime) {
+			super(replyId);
+			this.cycles = cycles;
+			this.cpuTime = cpuTime;
+		}
+
+		public long cycles() {
+			return cycles;
+		}
+
+		public double cpuTime() {
+			return cpuTime;
+		}
+
+		@Override
+		public String toString() {
+			return format("RunResult [cycles=%d, cpuTime=%f]", cycles, cpuTime);
+		}
+
+	}
+
+	/**
+	 * Reply of {@link RunUntil}: The cycles and the cpu time the simulation was
+	 * halted at and the index of the condition that matched (in the order the
+	 * conditions were added) or <code>-1</code> if the cycle budget was exhausted.
+	 */
+	public static class RunUntilResult extends RunResult {
+
+		private final int matched;
+
+		public RunUntilResult(UUID replyId, long cycles, double cpuTime, int matched) {
+			super(replyId, cycles, cpuTime);
+			this.matched = matched;
+		}
+
+		public int matched() {
+			return matched;
+		}
+
+		public boolean isConditionMet() {
+			return matched >= 0;
+		}
+
+		@Override
+		public String toString() {
+			return format("RunUntilResult [cycles=%d, cpuTime=%f, matched=%d]", cycles(), cpuTime(), matched);
+		}
+
+	}
+
+	/**
+	 * Fluent builder for running the simulation until one of the conditions is
+	 * met. The conditions are evaluated by virtualavr inside the simulator loop, so
+	 * the cpu is halted at the exact instruction that fulfilled the condition.
+	 * Pins are passed as "13" or "D13", unknown pins fail the run. A run started
+	 * while another one is running supersedes it, the superseded run fails.
+	 * 
+	 * <pre>
+	 * RunUntilResult result = avr.runUntil().pinRises("13").serialContains("OK").maxCycles(16_000_000).run();
+	 * </pre>
+	 */
+	public static class RunUntil {
+
+		public enum Edge {
+			RISING("rising"), FALLING("falling"), ANY("any");
+
+			final String edgeName;
+
+			Edge(String edgeName) {
+				this.edgeName = edgeName;
+			}
+		}
+
+		@SuppressWarnings("unused")
+		static class Condition {
+
+			private final String pin;
+			private final String edge;
+			private final Boolean state;
+			private final int[] serial;
+
+			private Condition(String pin, String edge, Boolean state, int[] serial) {
+				this.pin = pin;
+				this.edge = edge;
+				this.state = state;
+				this.serial = serial;
+			}
+
+		}
+
+		private final Function<RunUntil, CompletableFuture<RunUntilResult>> executor;
+		private final List<Condition> conditions = new ArrayList<>();
+		private Long maxCycles;
+
+		public RunUntil(Function<RunUntil, CompletableFuture<RunUntilResult>> executor) {
+			this.executor = executor;
+		}
+
+		public RunUntil pinRises(String pin) {
+			return pinEdge(pin, Edge.RISING);
+		}
+
+		public RunUntil pinFalls(String pin) {
+			return pinEdge(pin, Edge.FALLING);
+		}
+
+		public RunUntil pinChanges(String pin) {
+			return pinEdge(pin, Edge.ANY);
+		}
+
+		public RunUntil pinEdge(String pin, Edge edge) {
+			return add(new Condition(pin, edge.edgeName, null, null));
+		}
+
+		public RunUntil pinIs(String pin, boolean state) {
+			return add(new Condition(pin, null, state, null));
+		}
+
+		public RunUntil serialContains(String text) {
+			return serialContains(text.getBytes(StandardCharsets.UTF_8));
+		}
+
+		public RunUntil serialContains(byte[] bytes) {
+			int[] unsigned = new int[bytes.length];
+			for (int i = 0; i < bytes.length; i++) {
+				unsigned[i] = bytes[i] & 0xFF;
+			}
+			return add(new Condition(null, null, null, unsigned));
+		}
+
+		/**
+		 * The cycle budget: If none of the conditions is met within these cycles the
+		 * simulation gets halted anyway.
+		 */
+		public RunUntil maxCycles(long maxCycles) {
+			this.maxCycles = maxCycles;
+			return this;
+		}
+
+		/**
+		 * The cycle budget as simulated (not wall-clock) duration.
+		 */
+		public RunUntil within(Duration duration) {
+			return maxCycles(Math.round(duration.toNanos() * CLOCK_FREQUENCY / 1e9));
+		}
+
+		private RunUntil add(Condition condition) {
+			conditions.add(condition);
+			return this;
+		}
+
+		List<Condition> conditions() {
+			return conditions;
+		}
+
+		Long maxCycles() {
+			return maxCycles;
+		}
+
+		public RunUntilResult run() {
+			return runAsync().join();
+		}
+
+		public CompletableFuture<RunUntilResult> runAsync() {
+			return executor.apply(this);
+		}
+
+	}
+
+	/**
+	 * Builder for pin states and report modes that are sent as one message and
+	 * applied atomically (at the same cpu cycle) with a single reply. The report
+	 * modes are applied before the states.
+	 */
+	public static class Batch {
+
+		@SuppressWarnings("unused")
+		static class PinStateOperation {
+
+			private final String pin;
+			private final Object state;
+
+			private PinStateOperation(String pin, Object state) {
+				this.pin = pin;
+				this.state = state;
+			}
+
+		}
+
+		@SuppressWarnings("unused")
+		static class PinModeOperation {
+
+			private final String pin;
+			private final String mode;
+
+			private final transient PinReportMode reportMode;
+
+			private PinModeOperation(String pin, PinReportMode mode) {
+				this.pin = pin;
+				this.mode = mode.modeName;
+				this.reportMode = mode;
+			}
+
+			String pin() {
+				return pin;
+			}
+
+			PinReportMode reportMode() {
+				return reportMode;
+			}
+
+		}
+
+		private final Function<Batch, CompletableFuture<CommandReply>> executor;
+		private final List<PinStateOperation> pinStates = new ArrayList<>();
+		private final List<PinModeOperation> pinModes = new ArrayList<>();
+
+		public Batch(Function<Batch, CompletableFuture<CommandReply>> executor) {
+			this.executor = executor;
+		}
+
+		public Batch pin(String pin, boolean state) {
+			pinStates.add(new PinStateOperation(pin, state));
+			return this;
+		}
+
+		public Batch pin(String pin, int value) {
+			pinStates.add(new PinStateOperation(pin, value));
+			return this;
+		}
+
+		public Batch reportMode(String pin, PinReportMode mode) {
+			pinModes.add(new PinModeOperation(pin, mode));
+			return this;
+		}
+
+		List<PinStateOperation> pinStates() {
+			return pinStates;
+		}
+
+		List<PinModeOperation> pinModes() {
+			return pinModes;
+		}
+
+		public void apply() {
+			applyAsync().join();
+		}
+
+		public CompletableFuture<CommandReply> applyAsync() {
+			return executor.apply(this);
+		}
+
+	}
+
+	/**
+	 * Builder for a timeline of pin states that is uploaded at once and applied by
+	 * virtualavr at the exact cpu cycles (relative to the start of the stimulus),
+	 * optionally started by an edge of a pin.
+	 * 
+	 * <pre>
+	 * avr.stimulus().triggeredBy("13", Edge.RISING).set("2", true).advance(ofMillis(1)).set("2", false).start();
+	 * </pre>
+	 */
+	public static class Stimulus {
+
+		@SuppressWarnings("unused")
+		static class Event {
+
+			private final long cycles;
+			private final String pin;
+			private final Object state;
+
+			private Event(long cycles, String pin, Object state) {
+				this.cycles = cycles;
+				this.pin = pin;
+				this.state = state;
+			}
+
+		}
+
+		@SuppressWarnings("unused")
+		static class Trigger {
+
+			private final String pin;
+			private final String edge;
+
+			private Trigger(String pin, RunUntil.Edge edge) {
+				this.pin = pin;
+				this.edge = edge.edgeName;
+			}
+
+		}
+
+		private final Function<Stimulus, CompletableFuture<CommandReply>> executor;
+		private final List<Event> events = new ArrayList<>();
+		private Trigger trigger;
+		private long cursor;
+
+		public Stimulus(Function<Stimulus, CompletableFuture<CommandReply>> executor) {
+			this.executor = executor;
+		}
+
+		public Stimulus at(long cycles, String pin, boolean state) {
+			return add(cycles, pin, state);
+		}
+
+		public Stimulus at(long cycles, String pin, int value) {
+			return add(cycles, pin, value);
+		}
+
+		public Stimulus at(Duration offset, String pin, boolean state) {
+			return at(toCycles(offset), pin, state);
+		}
+
+		public Stimulus at(Duration offset, String pin, int value) {
+			return at(toCycles(offset), pin, value);
+		}
+
+		/**
+		 * Adds a pin state at the current position, see
+		 * {@link #advance(Duration)}.
+		 */
+		public Stimulus set(String pin, boolean state) {
+			return at(cursor, pin, state);
+		}
+
+		public Stimulus set(String pin, int value) {
+			return at(cursor, pin, value);
+		}
+
+		/**
+		 * Moves the position the following {@link #set(String, boolean)} calls are
+		 * applied at by the passed simulated (not wall-clock) duration.
+		 */
+		public Stimulus advance(Duration duration) {
+			return advanceCycles(toCycles(duration));
+		}
+
+		public Stimulus advanceCycles(long cycles) {
+			if (cycles < 0) {
+				throw new IllegalArgumentException(format("cycles must not be negative but was %d", cycles));
+			}
+			cursor += cycles;
+			return this;
+		}
+
+		/**
+		 * Arms the stimulus: The timeline starts at the cpu cycle the pin's edge
+		 * occurs (once).
+		 */
+		public Stimulus triggeredBy(String pin, RunUntil.Edge edge) {
+			this.trigger = new Trigger(pin, edge);
+			return this;
+		}
+
+		private Stimulus add(long cycles, String pin, Object state) {
+			if (cycles < 0) {
+				throw new IllegalArgumentException(format("cycles must not be negative but was %d", cycles));
+			}
+			events.add(new Event(cycles, pin, state));
+			return this;
+		}
+
+		private static long toCycles(Duration duration) {
+			return Math.round(duration.toNanos() * CLOCK_FREQUENCY / 1e9);
+		}
+
+		List<Event> events() {
+			return events;
+		}
+
+		Trigger trigger() {
+			return trigger;
+		}
+
+		public void start() {
+			startAsync().join();
+		}
+
+		public CompletableFuture<CommandReply> startAsync() {
+			if (events.isEmpty()) {
+				throw new IllegalStateException("Stimulus without events");
+			}
+			return executor.apply(this);
+		}
+
+	}
+
 	public static class SerialDebug {
 
 		public enum Direction {
@@ -155,6 +668,121 @@ public interface VirtualAvrConnection extends AutoCloseable {
 
 	}
 
+	/**
+	 * Sent by virtualavr when this connection does not keep up with the messages
+	 * (and once it caught up again). The counts are the ones since the previous
+	 * lag message.
+	 */
+	public static class Lag {
+
+		private final boolean lagging;
+		private final String policy;
+		private final long highWaterMark;
+		private final long bufferedAmount;
+		private final long queued;
+		private final long dropped;
+		private final long coalesced;
+
+		public Lag(boolean lagging, String policy, long highWaterMark, long bufferedAmount, long queued,
+				long dropped, long coalesced) {
+			this.lagging = lagging;
+			this.policy = policy;
+			this.highWaterMark = highWaterMark;
+			this.bufferedAmount = bufferedAmount;
+			this.queued = queued;
+			this.dropped = dropped;
+			this.coalesced = coalesced;
+		}
+
+		public boolean isLagging() {
+			return lagging;
+		}
+
+		public String policy() {
+			return policy;
+		}
+
+		public long highWaterMark() {
+			return highWaterMark;
+		}
+
+		public long bufferedAmount() {
+			return bufferedAmount;
+		}
+
+		public long queued() {
+			return queued;
+		}
+
+		public long dropped() {
+			return dropped;
+		}
+
+		public long coalesced() {
+			return coalesced;
+		}
+
+		@Override
+		public String toString() {
+			return format("Lag [lagging=%s, policy=%s, bufferedAmount=%d, queued=%d, dropped=%d, coalesced=%d]",
+					lagging, policy, bufferedAmount, queued, dropped, coalesced);
+		}
+
+	}
+
+	/**
+	 * The totals of the {@link Lag} messages received by this connection.
+	 */
+	public static class LagMetrics {
+
+		private final boolean lagging;
+		private final long lagEvents;
+		private final long dropped;
+		private final long coalesced;
+		private final long maxQueued;
+
+		public LagMetrics(boolean lagging, long lagEvents, long dropped, long coalesced, long maxQueued) {
+			this.lagging = lagging;
+			this.lagEvents = lagEvents;
+			this.dropped = dropped;
+			this.coalesced = coalesced;
+			this.maxQueued = maxQueued;
+		}
+
+		public boolean isLagging() {
+			return lagging;
+		}
+
+		public long lagEvents() {
+			return lagEvents;
+		}
+
+		/**
+		 * @return the messages virtualavr dropped for this connection
+		 */
+		public long dropped() {
+			return dropped;
+		}
+
+		/**
+		 * @return the pin states virtualavr replaced by newer ones for this connection
+		 */
+		public long coalesced() {
+			return coalesced;
+		}
+
+		public long maxQueued() {
+			return maxQueued;
+		}
+
+		@Override
+		public String toString() {
+			return format("LagMetrics [lagging=%s, lagEvents=%d, dropped=%d, coalesced=%d, maxQueued=%d]", lagging,
+					lagEvents, dropped, coalesced, maxQueued);
+		}
+
+	}
+
 	interface Listener<T> {
 		void accept(T t);
 	}
@@ -167,14 +795,111 @@ public interface VirtualAvrConnection extends AutoCloseable {
 
 	VirtualAvrConnection removePinStateListener(VirtualAvrConnection.Listener<PinState> listener);
 
+	/**
+	 * Registers a listener for the raw port messages virtualavr sends (one per
+	 * port write, see {@link PortState}). The pin state listeners keep on getting
+	 * one {@link PinState} per changed pin. Port messages are only requested while
+	 * port state listeners are registered, otherwise virtualavr sends the changes
+	 * as pin states.
+	 */
+	VirtualAvrConnection addPortStateListener(VirtualAvrConnection.Listener<PortState> listener);
+
+	VirtualAvrConnection removePortStateListener(VirtualAvrConnection.Listener<PortState> listener);
+
 	VirtualAvrConnection addSerialDebugListener(VirtualAvrConnection.Listener<SerialDebug> listener);
 
 	VirtualAvrConnection removeSerialDebugListener(VirtualAvrConnection.Listener<SerialDebug> listener);
 
+	/**
+	 * @return a {@link Flow.Publisher} of the pin states received (buffering up to
+	 *         {@value EventPublisher#DEFAULT_BUFFER_SIZE} events per subscriber and
+	 *         dropping the oldest ones), completed when the connection is closed
+	 * @see #pinStatePublisher(int, EventPublisher.Overflow)
+	 */
+	default EventPublisher<PinState> pinStatePublisher() {
+		return pinStatePublisher(EventPublisher.DEFAULT_BUFFER_SIZE, EventPublisher.Overflow.DROP_OLDEST);
+	}
+
+	/**
+	 * @param bufferSize the events buffered per subscriber until they are requested
+	 * @param overflow   what happens if a subscriber's buffer is full
+	 * @return a {@link Flow.Publisher} of the pin states received, completed when
+	 *         the connection is closed
+	 */
+	EventPublisher<PinState> pinStatePublisher(int bufferSize, EventPublisher.Overflow overflow);
+
+	/**
+	 * @see #pinStatePublisher()
+	 */
+	default EventPublisher<SerialDebug> serialDebugPublisher() {
+		return serialDebugPublisher(EventPublisher.DEFAULT_BUFFER_SIZE, EventPublisher.Overflow.DROP_OLDEST);
+	}
+
+	/**
+	 * @see #pinStatePublisher(int, EventPublisher.Overflow)
+	 */
+	EventPublisher<SerialDebug> serialDebugPublisher(int bufferSize, EventPublisher.Overflow overflow);
+
+	VirtualAvrConnection addLagListener(VirtualAvrConnection.Listener<Lag> listener);
+
+	VirtualAvrConnection removeLagListener(VirtualAvrConnection.Listener<Lag> listener);
+
+	/**
+	 * @return the totals of the lag messages virtualavr sent to this connection
+	 *         because it did not keep up with the messages
+	 */
+	LagMetrics lagMetrics();
+
+	/**
+	 * @return the timings (round trips, decoding, event latencies and listener
+	 *         execution) recorded by this connection
+	 */
+	ClientMetrics clientMetrics();
+
+	/**
+	 * Passes the timings recorded by this connection to the passed recorder as
+	 * well, e.g. to publish them via Micrometer (see
+	 * <code>MicrometerMetricsRecorder</code>).
+	 */
+	VirtualAvrConnection addMetricsRecorder(MetricsRecorder recorder);
+
+	VirtualAvrConnection removeMetricsRecorder(MetricsRecorder recorder);
+
+	/**
+	 * Requests the states of all pins (levels of the digital ports, values of the
+	 * ADC channels and PWM duties) taken at a single cpu cycle, in one round trip
+	 * and regardless of the pins being listened to.
+	 * 
+	 * @return the snapshot
+	 */
+	PinSnapshot snapshotPins();
+
+	CompletableFuture<PinSnapshot> snapshotPinsAsync();
+
+	/**
+	 * Requests the counters of the simulator (instruction rate, chunk durations,
+	 * realtime factor, ...) and its websocket server (queues, messages sent per
+	 * type and per client).
+	 * 
+	 * @return the metrics
+	 */
+	SimulatorMetrics metrics();
+
+	CompletableFuture<SimulatorMetrics> metricsAsync();
+
 	VirtualAvrConnection addCommandReplyListener(VirtualAvrConnection.Listener<CommandReply> listener);
 
 	VirtualAvrConnection removeCommandReplyListener(VirtualAvrConnection.Listener<CommandReply> listener);
 
+	/**
+	 * Registers a listener for the bytes the avr sends via its serial line. As long
+	 * as there are listeners registered virtualavr sends all the serial data via
+	 * the websocket.
+	 */
+	VirtualAvrConnection addSerialDataListener(VirtualAvrConnection.Listener<byte[]> listener);
+
+	VirtualAvrConnection removeSerialDataListener(VirtualAvrConnection.Listener<byte[]> listener);
+
 	PinStates pinStates();
 
 	/**
@@ -207,8 +932,150 @@ public interface VirtualAvrConnection extends AutoCloseable {
 
 	VirtualAvrConnection pinReportMode(String pin, VirtualAvrConnection.PinReportMode mode);
 
+	/**
+	 * Collects pin states and report modes that are applied at once, e.g.
+	 * <code>batch().pin("A0", 1000).pin("A1", 900).apply()</code>
+	 * 
+	 * @return builder to add the operations to
+	 */
+	Batch batch();
+
+	/**
+	 * Plays the samples into the ADC channel of the (analog) pin, each sample is
+	 * applied at its exact cpu cycle, so the playback is tied to the simulated
+	 * time. Setting the pin's state stops the playback.
+	 * 
+	 * @param pin        the analog pin, e.g. <code>A0</code>
+	 * @param samples    the values (0-1023)
+	 * @param sampleRate samples per (simulated) second
+	 * @param loop       whether to restart the playback after the last sample (if
+	 *                   not the last value is kept)
+	 */
+	VirtualAvrConnection analogPlayback(String pin, int[] samples, double sampleRate, boolean loop);
+
+	/**
+	 * Samples the signal and plays it into the ADC channel of the (analog) pin,
+	 * see {@link #analogPlayback(String, int[], double, boolean)}.
+	 */
+	default VirtualAvrConnection analogPlayback(String pin, AnalogSignal signal, double sampleRate,
+			Duration duration, boolean loop) {
+		return analogPlayback(pin, signal.sample(sampleRate, duration), sampleRate, loop);
+	}
+
+	VirtualAvrConnection stopAnalogPlayback(String pin);
+
+	/**
+	 * Collects pin states that are applied by the simulator at exact cpu cycles,
+	 * e.g. a 1ms pulse on pin 2:
+	 * <code>stimulus().set("2", true).advance(ofMillis(1)).set("2", false).start()</code>
+	 * 
+	 * @return builder to add the pin states to
+	 */
+	Stimulus stimulus();
+
+	/**
+	 * Removes all stimuli, the ones waiting for their trigger as well as the
+	 * running ones.
+	 */
+	VirtualAvrConnection clearStimuli();
+
+	/**
+	 * Sends the passed bytes to the avr's serial line using the websocket.
+	 */
+	VirtualAvrConnection serialWrite(byte[] bytes);
+
 	VirtualAvrConnection pause();
 
 	VirtualAvrConnection unpause();
 
+	/**
+	 * Sets the maximum (host) time the simulator executes instructions before it
+	 * handles incoming commands and serial data. Lower values reduce the command
+	 * latency at the price of a lower simulation speed.
+	 * 
+	 * @param maxLatency the latency target
+	 */
+	VirtualAvrConnection maxCommandLatency(Duration maxLatency);
+
+	/**
+	 * Paces the simulation to the passed multiple of the wall-clock time, e.g.
+	 * <code>2.0</code> runs the avr at twice its real speed. The simulator sleeps
+	 * between its bursts so slow factors do not waste host cpu time.
+	 * 
+	 * @param factor the speed factor ({@value #MIN_SPEED_FACTOR} to
+	 *               {@value #MAX_SPEED_FACTOR}) or <code>0</code> to run as fast
+	 *               as the host allows
+	 */
+	VirtualAvrConnection speed(double factor);
+
+	/**
+	 * Runs the simulation for the passed amount of cpu cycles (as fast as the host
+	 * allows) and pauses it afterwards.
+	 * 
+	 * @param cycles the cpu cycles to run
+	 * @return the state when the simulation was paused
+	 */
+	RunResult runCycles(long cycles);
+
+	CompletableFuture<RunResult> runCyclesAsync(long cycles);
+
+	/**
+	 * Runs the simulation until the cpu time (in seconds) is reached (as fast as
+	 * the host allows) and pauses it afterwards.
+	 * 
+	 * @param cpuTime the cpu time in seconds to run until
+	 * @return the state when the simulation was paused
+	 */
+	RunResult runUntil(double cpuTime);
+
+	CompletableFuture<RunResult> runUntilAsync(double cpuTime);
+
+	/**
+	 * Runs the simulation for the passed simulated (not wall-clock) duration (as
+	 * fast as the host allows) and pauses it afterwards.
+	 * 
+	 * @param duration the simulated duration to run
+	 * @return the state when the simulation was paused
+	 */
+	RunResult runFor(Duration duration);
+
+	CompletableFuture<RunResult> runForAsync(Duration duration);
+
+	/**
+	 * Runs the simulation (as fast as the host allows) until one of the conditions
+	 * of the returned builder is met and pauses it afterwards.
+	 * 
+	 * @return builder to add the conditions to
+	 */
+	RunUntil runUntil();
+
+	/**
+	 * Starts recording each change of the passed pins inside the simulator
+	 * (instead of publishing a message per change). The capture is retrieved using
+	 * {@link #downloadCapture()}. Starting a new capture discards the previous
+	 * one.
+	 * 
+	 * @param pins the pins to capture
+	 */
+	VirtualAvrConnection startCapture(String... pins);
+
+	/**
+	 * Like {@link #startCapture(String...)} but with the size of the capture
+	 * buffer. When the buffer is full further changes are dropped and the capture
+	 * is marked as {@link WaveformCapture#isOverflow() overflow}.
+	 * 
+	 * @param maxSamples the max number of changes to record
+	 * @param pins       the pins to capture
+	 */
+	VirtualAvrConnection startCapture(int maxSamples, String... pins);
+
+	VirtualAvrConnection stopCapture();
+
+	/**
+	 * Downloads the current capture (which keeps on recording if not stopped).
+	 * 
+	 * @return the decoded capture
+	 */
+	WaveformCapture downloadCapture();
+
 }
\ No newline at end of file
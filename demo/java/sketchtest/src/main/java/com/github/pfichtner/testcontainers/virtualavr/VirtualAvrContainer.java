@@ -12,6 +12,8 @@ import static org.testcontainers.containers.BindMode.READ_WRITE;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -25,7 +27,54 @@ public class VirtualAvrContainer<SELF extends VirtualAvrContainer<SELF>> extends
 
 	enum EnvVars {
 		VIRTUALDEVICE, DEBUG, VERBOSITY, BAUDRATE, DEVICEUSER, DEVICEGROUP, DEVICEMODE, PAUSE_ON_START,
-		BUILD_EXTRA_FLAGS, FILENAME, PUBLISH_MILLIS, SERIAL_TCP
+		BUILD_EXTRA_FLAGS, FILENAME, PUBLISH_MILLIS, SERIAL_TCP, SERIAL_WEBSOCKET, IDLE_SKIP,
+		MAX_COMMAND_LATENCY, SPEED_FACTOR, BACKPRESSURE_POLICY, CLIENT_HIGH_WATER_MARK, METRICS_ENDPOINT
+	}
+
+	/**
+	 * How the simulator fast-forwards the cpu while the firmware is idle.
+	 */
+	public enum IdleSkip {
+		/**
+		 * Skip SLEEP and loops that provably cannot change state before the next
+		 * interrupt, interrupts may be dispatched up to one loop iteration later.
+		 * <code>delay()</code> loops are not skipped since they poll the timer
+		 * counters.
+		 */
+		EXACT,
+		/**
+		 * Additionally skip loops polling the timer counters like
+		 * <code>delay()</code>, these may end up to one interrupt period late.
+		 */
+		LOOSE,
+		/**
+		 * Execute every instruction (default).
+		 */
+		OFF
+	}
+
+	/**
+	 * What the simulator does when a websocket client does not keep up with the
+	 * messages.
+	 */
+	public enum BackpressurePolicy {
+		/**
+		 * Drop the oldest messages exceeding the high-water mark (default).
+		 */
+		DROP_OLDEST,
+		/**
+		 * Like {@link #DROP_OLDEST} but queued pin states are replaced by newer states
+		 * of the same pin.
+		 */
+		COALESCE,
+		/**
+		 * Hold the cpu until the client drained its buffer, nothing gets lost.
+		 */
+		PAUSE;
+
+		String policyName() {
+			return name().toLowerCase().replace('_', '-');
+		}
 	}
 
 	private static final String VIRTUAL_AVR = "VirtualAVR";
@@ -73,6 +122,22 @@ public class VirtualAvrContainer<SELF extends VirtualAvrContainer<SELF>> extends
 		return self();
 	}
 
+	/**
+	 * Enables WebSocket serial mode. In this mode the container is started without
+	 * socat and without a PTY device, the serial data is carried over the
+	 * websocket connection instead. No <code>/dev</code> bind mount is needed so
+	 * this works in rootless environments as well.
+	 *
+	 * @return this container instance
+	 * @see WebSocketSerialConnection
+	 */
+	public VirtualAvrContainer<?> withWebSocketSerial() {
+		// the serial data is carried over the websocket, so there is no need for TCP
+		tcpSerialModeSupport = null;
+		getBinds().removeIf(b -> b.getVolume().getPath().equals(containerDev));
+		return withEnv(EnvVars.SERIAL_WEBSOCKET, true);
+	}
+
 	public VirtualAvrContainer<?> withDeviceName(String ttyDevice) {
 		this.ttyDevice = ttyDevice;
 		return withEnv(EnvVars.VIRTUALDEVICE, format("%s/%s", containerDev, ttyDevice));
@@ -118,6 +183,80 @@ public class VirtualAvrContainer<SELF extends VirtualAvrContainer<SELF>> extends
 				.withFileSystemBind(sketchFile.getParent(), "/sketch/", READ_ONLY);
 	}
 
+	/**
+	 * Enables the idle skip {@link IdleSkip#EXACT}.
+	 * 
+	 * @return this container instance
+	 */
+	public VirtualAvrContainer<?> withIdleSkip() {
+		return withIdleSkip(IdleSkip.EXACT);
+	}
+
+	public VirtualAvrContainer<?> withIdleSkip(IdleSkip idleSkip) {
+		return withEnv(EnvVars.IDLE_SKIP, idleSkip.name().toLowerCase());
+	}
+
+	/**
+	 * Sets the maximum (host) time the simulator executes instructions before it
+	 * handles incoming commands and serial data (default 2ms). The simulator sizes
+	 * its instruction chunks adaptively to meet this target.
+	 * 
+	 * @param maxLatency the latency target
+	 * @return this container instance
+	 * @see VirtualAvrConnection#maxCommandLatency(Duration)
+	 */
+	public VirtualAvrContainer<?> withMaxCommandLatency(Duration maxLatency) {
+		return withEnv(EnvVars.MAX_COMMAND_LATENCY, maxLatency.toNanos() / 1e6);
+	}
+
+	/**
+	 * Paces the simulation to the passed multiple of the wall-clock time, e.g.
+	 * <code>1.0</code> runs in real time, <code>0.5</code> at half speed.
+	 * 
+	 * @param factor the speed factor
+	 *               ({@value VirtualAvrConnection#MIN_SPEED_FACTOR} to
+	 *               {@value VirtualAvrConnection#MAX_SPEED_FACTOR})
+	 * @return this container instance
+	 * @see VirtualAvrConnection#speed(double)
+	 */
+	public VirtualAvrContainer<?> withSpeedFactor(double factor) {
+		return withEnv(EnvVars.SPEED_FACTOR, DefaultVirtualAvrConnection.checkSpeedFactor(factor));
+	}
+
+	/**
+	 * Sets what happens when a websocket client falls behind by more than the
+	 * passed bytes. Clients get informed by {@link VirtualAvrConnection.Lag}
+	 * messages.
+	 * 
+	 * @param policy        the policy
+	 * @param highWaterMark the bytes buffered per client before the policy applies
+	 *                      (default 4MiB)
+	 * @return this container instance
+	 */
+	public VirtualAvrContainer<?> withBackpressure(BackpressurePolicy policy, long highWaterMark) {
+		return withEnv(EnvVars.BACKPRESSURE_POLICY, policy.policyName()) //
+				.withEnv(EnvVars.CLIENT_HIGH_WATER_MARK, highWaterMark);
+	}
+
+	/**
+	 * Serves the metrics (see {@link VirtualAvrConnection#metrics()}) in the
+	 * Prometheus text format on the websocket port at <code>/metrics</code>.
+	 * 
+	 * @return this container instance
+	 * @see #metricsEndpoint()
+	 */
+	public VirtualAvrContainer<?> withMetricsEndpoint() {
+		return withEnv(EnvVars.METRICS_ENDPOINT, true);
+	}
+
+	/**
+	 * @return the URI to scrape the metrics from
+	 * @see #withMetricsEndpoint()
+	 */
+	public URI metricsEndpoint() {
+		return URI.create(format("http://%s:%s/metrics", getHost(), getMappedPort(WEBSOCKET_PORT)));
+	}
+
 	public VirtualAvrContainer<?> withPublishMillis(int millis) {
 		return withEnv(EnvVars.PUBLISH_MILLIS, millis);
 	}
@@ -153,7 +292,9 @@ public class VirtualAvrContainer<SELF extends VirtualAvrContainer<SELF>> extends
 	public synchronized SerialConnection serialConnection() throws IOException {
 		// TODO a shared connection that can be closed is not very smart
 		if (serialConnection == null || serialConnection.isClosed()) {
-			serialConnection = new SerialConnection(serialPortDescriptor(), baudrate().orElse(DEFAULT_BAUDRATE));
+			serialConnection = webSocketSerial() //
+					? new WebSocketSerialConnection(avr()) //
+					: new SerialConnection(serialPortDescriptor(), baudrate().orElse(DEFAULT_BAUDRATE));
 		}
 		return serialConnection;
 	}
@@ -173,19 +314,29 @@ public class VirtualAvrContainer<SELF extends VirtualAvrContainer<SELF>> extends
 		return Optional.ofNullable(getEnv(EnvVars.VERBOSITY)).filter(not(String::isEmpty));
 	}
 
+	protected boolean webSocketSerial() {
+		return Boolean.parseBoolean(getEnv(EnvVars.SERIAL_WEBSOCKET));
+	}
+
 	protected Optional<Integer> baudrate() {
 		return Optional.ofNullable(getEnv(EnvVars.BAUDRATE)).map(Integer::parseInt);
 	}
 
 	@Override
 	public void start() {
-		logger.info("Starting VirtualAVR container in {} mode",
-				tcpSerialModeSupport == null ? "standard PTY" : "TCP serial");
+		logger.info("Starting VirtualAVR container in {} mode", serialMode());
 		Optional.ofNullable(tcpSerialModeSupport).ifPresent(TcpSerialModeSupport::prepareStart);
 		super.start();
 		debug().filter(TRUE::equals).ifPresent(b -> debugStartOut());
 	}
 
+	private String serialMode() {
+		if (webSocketSerial()) {
+			return "WebSocket serial";
+		}
+		return tcpSerialModeSupport == null ? "standard PTY" : "TCP serial";
+	}
+
 	private void debugStartOut() {
 		logger.info("{} container started: ID={}", VIRTUAL_AVR, getContainerId());
 		logger.info("Container environment variables:");
@@ -0,0 +1,308 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+
+/**
+ * Waveform of the pins captured by the simulator (see
+ * {@link VirtualAvrConnection#startCapture(String...)}). Each captured pin is
+ * decoded to its initial state and the cpu cycles of its edges, the whole
+ * capture can be exported as VCD (e.g. to be viewed with GTKWave).
+ */
+public class WaveformCapture {
+
+	static final byte BINARY_CAPTURE = 0x02;
+
+	private static final int SAMPLE_SIZE = 10;
+
+	private static final Gson gson = new Gson();
+
+	@SuppressWarnings("unused")
+	private static class Metadata {
+		private String replyId;
+		private double clockFrequency;
+		private long startCycles;
+		private long endCycles;
+		private int samples;
+		private boolean overflow;
+		private List<String> ports;
+		private Map<String, PinRef> pins;
+	}
+
+	@SuppressWarnings("unused")
+	private static class PinRef {
+		private String port;
+		private int bit;
+	}
+
+	public static class PinWaveform {
+
+		private final String pin;
+		private final boolean initialState;
+		private final long[] edges;
+
+		private PinWaveform(String pin, boolean initialState, long[] edges) {
+			this.pin = pin;
+			this.initialState = initialState;
+			this.edges = edges;
+		}
+
+		public String pin() {
+			return pin;
+		}
+
+		public boolean initialState() {
+			return initialState;
+		}
+
+		/**
+		 * @return the cpu cycles of the edges (each edge toggles the state)
+		 */
+		public long[] edges() {
+			return edges.clone();
+		}
+
+		public int edgeCount() {
+			return edges.length;
+		}
+
+		public long edge(int index) {
+			return edges[index];
+		}
+
+		/**
+		 * @param index index of the edge
+		 * @return the state the pin has after the edge
+		 */
+		public boolean stateAfter(int index) {
+			return initialState ^ (index % 2 == 0);
+		}
+
+		public boolean stateAt(long cycles) {
+			int index = Arrays.binarySearch(edges, cycles);
+			int edgesUpTo = index >= 0 ? lastIndexOf(index, cycles) + 1 : -index - 1;
+			return initialState ^ (edgesUpTo % 2 == 1);
+		}
+
+		private int lastIndexOf(int index, long cycles) {
+			while (index + 1 < edges.length && edges[index + 1] == cycles) {
+				index++;
+			}
+			return index;
+		}
+
+		@Override
+		public String toString() {
+			return format("PinWaveform [pin=%s, initialState=%s, edges=%d]", pin, initialState, edges.length);
+		}
+
+	}
+
+	private final String replyId;
+	private final double clockFrequency;
+	private final long startCycles;
+	private final long endCycles;
+	private final boolean overflow;
+	private final Map<String, PinWaveform> pins;
+
+	private WaveformCapture(Metadata metadata, Map<String, PinWaveform> pins) {
+		this.replyId = metadata.replyId;
+		this.clockFrequency = metadata.clockFrequency;
+		this.startCycles = metadata.startCycles;
+		this.endCycles = metadata.endCycles;
+		this.overflow = metadata.overflow;
+		this.pins = Collections.unmodifiableMap(pins);
+	}
+
+	/**
+	 * Decodes the binary capture frame sent by the simulator: type byte, length of
+	 * the metadata (uint32), the metadata as JSON followed by the samples (float64
+	 * cycles, uint8 port index, uint8 port value), all little endian.
+	 */
+	public static WaveformCapture decode(ByteBuffer frame) {
+		ByteBuffer buffer = frame.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.get() != BINARY_CAPTURE) {
+			throw new IllegalArgumentException("Not a capture frame");
+		}
+		byte[] json = new byte[buffer.getInt()];
+		buffer.get(json);
+		Metadata metadata = gson.fromJson(new String(json, UTF_8), Metadata.class);
+		if (buffer.remaining() < metadata.samples * SAMPLE_SIZE) {
+			throw new IllegalArgumentException(
+					format("Frame contains %d bytes of samples, expected %d", buffer.remaining(),
+							metadata.samples * SAMPLE_SIZE));
+		}
+
+		int pinCount = metadata.pins.size();
+		String[] names = metadata.pins.keySet().toArray(new String[0]);
+		int[] portIndexes = new int[pinCount];
+		int[] masks = new int[pinCount];
+		for (int i = 0; i < pinCount; i++) {
+			PinRef ref = metadata.pins.get(names[i]);
+			portIndexes[i] = metadata.ports.indexOf(ref.port);
+			masks[i] = 1 << ref.bit;
+		}
+
+		Boolean[] states = new Boolean[pinCount];
+		boolean[] initialStates = new boolean[pinCount];
+		long[][] edges = new long[pinCount][16];
+		int[] edgeCounts = new int[pinCount];
+		for (int s = 0; s < metadata.samples; s++) {
+			long cycles = (long) buffer.getDouble();
+			int port = buffer.get() & 0xFF;
+			int value = buffer.get() & 0xFF;
+			for (int i = 0; i < pinCount; i++) {
+				if (portIndexes[i] == port) {
+					boolean state = (value & masks[i]) != 0;
+					if (states[i] == null) {
+						initialStates[i] = state;
+					} else if (states[i] != state) {
+						if (edgeCounts[i] == edges[i].length) {
+							edges[i] = Arrays.copyOf(edges[i], edges[i].length * 2);
+						}
+						edges[i][edgeCounts[i]++] = cycles;
+					}
+					states[i] = state;
+				}
+			}
+		}
+
+		Map<String, PinWaveform> pins = new LinkedHashMap<>();
+		for (int i = 0; i < pinCount; i++) {
+			pins.put(names[i], new PinWaveform(names[i], initialStates[i], Arrays.copyOf(edges[i], edgeCounts[i])));
+		}
+		return new WaveformCapture(metadata, pins);
+	}
+
+	String replyId() {
+		return replyId;
+	}
+
+	public double clockFrequency() {
+		return clockFrequency;
+	}
+
+	public long startCycles() {
+		return startCycles;
+	}
+
+	public long endCycles() {
+		return endCycles;
+	}
+
+	/**
+	 * @return <code>true</code> if the simulator's capture buffer was full, so
+	 *         edges after the overflow are missing
+	 */
+	public boolean isOverflow() {
+		return overflow;
+	}
+
+	public Set<String> pins() {
+		return pins.keySet();
+	}
+
+	public PinWaveform pin(String pin) {
+		PinWaveform waveform = pins.get(pin);
+		if (waveform == null) {
+			throw new IllegalArgumentException(format("Pin %s has not been captured (captured: %s)", pin, pins()));
+		}
+		return waveform;
+	}
+
+	public double cpuTime(long cycles) {
+		return cycles / clockFrequency;
+	}
+
+	public String toVcd() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			writeVcd(sb);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the capture in Value Change Dump format, the timescale is 1ps and the
+	 * time starts at the begin of the capture.
+	 */
+	public void writeVcd(Appendable out) throws IOException {
+		PinWaveform[] waveforms = pins.values().toArray(new PinWaveform[0]);
+		out.append("$version virtualavr $end\n");
+		out.append("$timescale 1ps $end\n");
+		out.append("$scope module virtualavr $end\n");
+		for (int i = 0; i < waveforms.length; i++) {
+			out.append(format("$var wire 1 %s %s $end\n", vcdId(i), vcdName(waveforms[i].pin())));
+		}
+		out.append("$upscope $end\n");
+		out.append("$enddefinitions $end\n");
+		out.append("#0\n$dumpvars\n");
+		for (int i = 0; i < waveforms.length; i++) {
+			out.append(vcdValue(waveforms[i].initialState())).append(vcdId(i)).append('\n');
+		}
+		out.append("$end\n");
+
+		int[] next = new int[waveforms.length];
+		long lastTime = 0;
+		while (true) {
+			int pin = -1;
+			for (int i = 0; i < waveforms.length; i++) {
+				if (next[i] < waveforms[i].edgeCount()
+						&& (pin < 0 || waveforms[i].edge(next[i]) < waveforms[pin].edge(next[pin]))) {
+					pin = i;
+				}
+			}
+			if (pin < 0) {
+				break;
+			}
+			long time = vcdTime(waveforms[pin].edge(next[pin]));
+			if (time != lastTime) {
+				out.append('#').append(String.valueOf(time)).append('\n');
+				lastTime = time;
+			}
+			out.append(vcdValue(waveforms[pin].stateAfter(next[pin]))).append(vcdId(pin)).append('\n');
+			next[pin]++;
+		}
+		long end = vcdTime(endCycles);
+		if (end > lastTime) {
+			out.append('#').append(String.valueOf(end)).append('\n');
+		}
+	}
+
+	private long vcdTime(long cycles) {
+		return Math.round((cycles - startCycles) * 1e12 / clockFrequency);
+	}
+
+	private static String vcdId(int index) {
+		StringBuilder id = new StringBuilder();
+		do {
+			id.append((char) ('!' + index % 94));
+			index = index / 94 - 1;
+		} while (index >= 0);
+		return id.toString();
+	}
+
+	private static String vcdName(String pin) {
+		return Character.isDigit(pin.charAt(0)) ? "D" + pin : pin;
+	}
+
+	private static char vcdValue(boolean state) {
+		return state ? '1' : '0';
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import java.io.IOException;
+
+/**
+ * {@link SerialConnection} whose data is carried over the websocket of a
+ * {@link VirtualAvrConnection} instead of a (virtual) serial device. Neither
+ * socat nor a PTY (and so no <code>/dev</code> bind mount) is needed.
+ */
+public class WebSocketSerialConnection extends SerialConnection {
+
+	private final VirtualAvrConnection avr;
+	private final VirtualAvrConnection.Listener<byte[]> listener = this::receive;
+	private volatile boolean closed;
+
+	public WebSocketSerialConnection(VirtualAvrConnection avr) {
+		this.avr = avr;
+		avr.addSerialDataListener(listener);
+	}
+
+	@Override
+	protected void write(byte[] bytes) throws IOException {
+		if (closed) {
+			throw new IOException("Serial connection already closed");
+		}
+		try {
+			avr.serialWrite(bytes);
+		} catch (RuntimeException e) {
+			throw new IOException("Failed to write to websocket", e);
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed || !avr.isConnected();
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			avr.removeSerialDataListener(listener);
+			completePublishers();
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+package com.github.pfichtner.testcontainers.virtualavr.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The events and the code creating them, only loaded by
+ * {@link VirtualAvrEvents} if the jdk.jfr module is present.
+ */
+final class JfrEvents {
+
+	private static final String PREFIX = "com.github.pfichtner.virtualavr.";
+	private static final String CATEGORY = "virtualavr";
+
+	private JfrEvents() {
+		super();
+	}
+
+	@Name(PREFIX + "CommandSent")
+	@Label("Command Sent")
+	@Category(CATEGORY)
+	@Enabled(false)
+	@StackTrace(false)
+	static class CommandSent extends Event {
+		@Label("Reply Id")
+		String replyId;
+		@Label("Size")
+		@DataAmount
+		int bytes;
+	}
+
+	@Name(PREFIX + "CommandAcknowledged")
+	@Label("Command Acknowledged")
+	@Description("The duration is the time from sending the command until its reply was received")
+	@Category(CATEGORY)
+	@Enabled(false)
+	@StackTrace(false)
+	static class CommandAcknowledged extends Event {
+		@Label("Type")
+		String type;
+		@Label("Reply Id")
+		String replyId;
+		@Label("Error")
+		String error;
+	}
+
+	@Name(PREFIX + "PinEventReceived")
+	@Label("Pin Event Received")
+	@Category(CATEGORY)
+	@Enabled(false)
+	@StackTrace(false)
+	static class PinEventReceived extends Event {
+		@Label("Pin")
+		String pin;
+		@Label("State")
+		String state;
+		@Label("CPU Time")
+		@Description("Seconds the microcontroller was running when the pin changed")
+		double cpuTime;
+	}
+
+	@Name(PREFIX + "SerialBytesRead")
+	@Label("Serial Bytes Read")
+	@Category(CATEGORY)
+	@Enabled(false)
+	@StackTrace(false)
+	static class SerialBytesRead extends Event {
+		@Label("Connection")
+		String connection;
+		@Label("Size")
+		@DataAmount
+		int bytes;
+	}
+
+	@Name(PREFIX + "SerialBytesWritten")
+	@Label("Serial Bytes Written")
+	@Category(CATEGORY)
+	@Enabled(false)
+	@StackTrace(false)
+	static class SerialBytesWritten extends Event {
+		@Label("Connection")
+		String connection;
+		@Label("Size")
+		@DataAmount
+		int bytes;
+	}
+
+	@Name(PREFIX + "SerialAwaitStarted")
+	@Label("Serial Await Started")
+	@Category(CATEGORY)
+	@Enabled(false)
+	static class SerialAwaitStarted extends Event {
+		@Label("Connection")
+		String connection;
+	}
+
+	@Name(PREFIX + "SerialAwait")
+	@Label("Serial Await")
+	@Description("The duration is the time waited for the expected data")
+	@Category(CATEGORY)
+	@Enabled(false)
+	static class SerialAwait extends Event {
+		@Label("Connection")
+		String connection;
+		@Label("Satisfied")
+		boolean satisfied;
+	}
+
+	static void commandSent(String replyId, int bytes) {
+		CommandSent event = new CommandSent();
+		if (event.isEnabled()) {
+			event.replyId = replyId;
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	static Object commandPending() {
+		CommandAcknowledged event = new CommandAcknowledged();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void commandAcknowledged(Object pending, String type, String replyId, String error) {
+		CommandAcknowledged event = (CommandAcknowledged) pending;
+		event.end();
+		if (event.shouldCommit()) {
+			event.type = type;
+			event.replyId = replyId;
+			event.error = error;
+			event.commit();
+		}
+	}
+
+	static void pinEventReceived(String pin, Object state, double cpuTime) {
+		PinEventReceived event = new PinEventReceived();
+		if (event.isEnabled()) {
+			event.pin = pin;
+			event.state = String.valueOf(state);
+			event.cpuTime = cpuTime;
+			event.commit();
+		}
+	}
+
+	static void serialBytesRead(Object connection, int bytes) {
+		SerialBytesRead event = new SerialBytesRead();
+		if (event.isEnabled()) {
+			event.connection = connection.getClass().getSimpleName();
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	static void serialBytesWritten(Object connection, int bytes) {
+		SerialBytesWritten event = new SerialBytesWritten();
+		if (event.isEnabled()) {
+			event.connection = connection.getClass().getSimpleName();
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+	static Object awaitStarted(Object connection) {
+		SerialAwaitStarted started = new SerialAwaitStarted();
+		if (started.isEnabled()) {
+			started.connection = connection.getClass().getSimpleName();
+			started.commit();
+		}
+		SerialAwait event = new SerialAwait();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void awaitFinished(Object pending, Object connection, boolean satisfied) {
+		SerialAwait event = (SerialAwait) pending;
+		event.end();
+		if (event.shouldCommit()) {
+			event.connection = connection.getClass().getSimpleName();
+			event.satisfied = satisfied;
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.github.pfichtner.testcontainers.virtualavr.jfr;
+
+/**
+ * Java Flight Recorder events of the virtualavr client (category
+ * "virtualavr"): commands sent and acknowledged (with their latency), pin
+ * events received, serial bytes read and written and the awaits of
+ * <code>SerialConnectionAwait</code>. So the simulator traffic shows up in the
+ * same timeline as GC, thread contention and the test phases.
+ * <p>
+ * All events are disabled by default (so they cost next to nothing), enable
+ * them in the settings of the recording, e.g.
+ * <code>jfr configure com.github.pfichtner.virtualavr.CommandAcknowledged#enabled=true</code>
+ * or <code>recording.enable("com.github.pfichtner.virtualavr.CommandAcknowledged")</code>.
+ * On JVMs without the jdk.jfr module all methods are no-ops.
+ * <p>
+ * The methods returning an Object start a duration, the returned value
+ * (<code>null</code> if the event is disabled) has to be passed to the method
+ * ending it.
+ */
+public final class VirtualAvrEvents {
+
+	private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+	private VirtualAvrEvents() {
+		super();
+	}
+
+	public static void commandSent(String replyId, int bytes) {
+		if (AVAILABLE) {
+			JfrEvents.commandSent(replyId, bytes);
+		}
+	}
+
+	public static Object commandPending() {
+		return AVAILABLE ? JfrEvents.commandPending() : null;
+	}
+
+	public static void commandAcknowledged(Object pending, String type, String replyId, String error) {
+		if (pending != null) {
+			JfrEvents.commandAcknowledged(pending, type, replyId, error);
+		}
+	}
+
+	public static void pinEventReceived(String pin, Object state, double cpuTime) {
+		if (AVAILABLE) {
+			JfrEvents.pinEventReceived(pin, state, cpuTime);
+		}
+	}
+
+	public static void serialBytesRead(Object connection, int bytes) {
+		if (AVAILABLE) {
+			JfrEvents.serialBytesRead(connection, bytes);
+		}
+	}
+
+	public static void serialBytesWritten(Object connection, int bytes) {
+		if (AVAILABLE) {
+			JfrEvents.serialBytesWritten(connection, bytes);
+		}
+	}
+
+	public static Object awaitStarted(Object connection) {
+		return AVAILABLE ? JfrEvents.awaitStarted(connection) : null;
+	}
+
+	public static void awaitFinished(Object pending, Object connection, boolean satisfied) {
+		if (pending != null) {
+			JfrEvents.awaitFinished(pending, connection, satisfied);
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.github.pfichtner.testcontainers.virtualavr.micrometer;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.pfichtner.testcontainers.virtualavr.MetricsRecorder;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Publishes the timings of a {@link VirtualAvrConnection} to a Micrometer
+ * {@link MeterRegistry}, all meters are tagged with the message type:
+ * 
+ * <pre>
+ * avr.addMetricsRecorder(new MicrometerMetricsRecorder(registry));
+ * </pre>
+ * 
+ * micrometer-core is an optional dependency, so it has to be added to the
+ * project using this class.
+ */
+public class MicrometerMetricsRecorder implements MetricsRecorder {
+
+	public static final String ROUND_TRIP = "virtualavr.client.roundtrip";
+	public static final String DECODE = "virtualavr.client.decode";
+	public static final String EVENT_LATENCY = "virtualavr.client.event.latency";
+	public static final String LISTENER = "virtualavr.client.listener";
+	public static final String EVENTS = "virtualavr.client.events";
+
+	private static final String TYPE = "type";
+
+	private final MeterRegistry registry;
+	private final ConcurrentMap<String, Timer> roundTrips = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Timer> decodes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Timer> eventLatencies = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Timer> listeners = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Counter> events = new ConcurrentHashMap<>();
+
+	public MicrometerMetricsRecorder(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void roundTrip(String type, long nanos) {
+		timer(roundTrips, ROUND_TRIP, type).record(nanos, NANOSECONDS);
+	}
+
+	@Override
+	public void decoded(String type, long nanos) {
+		timer(decodes, DECODE, type).record(nanos, NANOSECONDS);
+	}
+
+	@Override
+	public void event(String type, long latencyNanos) {
+		events.computeIfAbsent(type, t -> Counter.builder(EVENTS).tag(TYPE, t).register(registry)).increment();
+		if (latencyNanos >= 0) {
+			timer(eventLatencies, EVENT_LATENCY, type).record(latencyNanos, NANOSECONDS);
+		}
+	}
+
+	@Override
+	public void listener(String type, long nanos) {
+		timer(listeners, LISTENER, type).record(nanos, NANOSECONDS);
+	}
+
+	private Timer timer(ConcurrentMap<String, Timer> timers, String name, String type) {
+		return timers.computeIfAbsent(type,
+				t -> Timer.builder(name).tag(TYPE, t).publishPercentileHistogram().register(registry));
+	}
+
+}
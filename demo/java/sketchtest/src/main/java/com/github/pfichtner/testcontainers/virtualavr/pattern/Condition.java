@@ -0,0 +1,77 @@
+package com.github.pfichtner.testcontainers.virtualavr.pattern;
+
+import static java.lang.String.format;
+
+import java.util.Objects;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+
+/**
+ * Condition evaluated for each pin state received, see {@link PinCondition} for
+ * the predefined ones.
+ */
+@FunctionalInterface
+public interface Condition {
+
+	/**
+	 * What a {@link Condition} can see when a pin state is received.
+	 */
+	interface Context {
+
+		/**
+		 * @return the pin state received
+		 */
+		PinState event();
+
+		/**
+		 * @return the state the pin of the {@link #event()} had before,
+		 *         <code>null</code> if unknown
+		 */
+		Object previousState();
+
+		/**
+		 * @return the current state (including the {@link #event()}) of the passed
+		 *         pin, <code>null</code> if unknown
+		 */
+		Object state(String pin);
+
+	}
+
+	boolean test(Context context);
+
+	default Condition and(Condition other) {
+		Objects.requireNonNull(other);
+		return named(format("(%s and %s)", this, other), c -> test(c) && other.test(c));
+	}
+
+	default Condition or(Condition other) {
+		Objects.requireNonNull(other);
+		return named(format("(%s or %s)", this, other), c -> test(c) || other.test(c));
+	}
+
+	default Condition negate() {
+		return named(format("not %s", this), c -> !test(c));
+	}
+
+	/**
+	 * @return the condition with the passed description (used in the messages of
+	 *         {@link PatternViolationException}s)
+	 */
+	static Condition named(String description, Condition condition) {
+		Objects.requireNonNull(condition);
+		return new Condition() {
+
+			@Override
+			public boolean test(Context context) {
+				return condition.test(context);
+			}
+
+			@Override
+			public String toString() {
+				return description;
+			}
+
+		};
+	}
+
+}
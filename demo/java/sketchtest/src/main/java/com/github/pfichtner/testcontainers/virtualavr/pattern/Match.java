@@ -0,0 +1,49 @@
+package com.github.pfichtner.testcontainers.virtualavr.pattern;
+
+import static java.lang.String.format;
+
+import java.util.List;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+
+/**
+ * A successful match of a {@link Pattern}.
+ */
+public class Match {
+
+	private final List<PinState> events;
+
+	Match(List<PinState> events) {
+		this.events = List.copyOf(events);
+	}
+
+	/**
+	 * @return the pin states that matched the steps of the pattern (in the order
+	 *         of the steps), empty for invariants
+	 */
+	public List<PinState> events() {
+		return events;
+	}
+
+	public double startCpuTime() {
+		return events.isEmpty() ? 0 : events.get(0).getCpuTime();
+	}
+
+	public double endCpuTime() {
+		return events.isEmpty() ? 0 : events.get(events.size() - 1).getCpuTime();
+	}
+
+	/**
+	 * @return the cpu time (seconds) from the first to the last matched pin state
+	 */
+	public double cpuTime() {
+		return endCpuTime() - startCpuTime();
+	}
+
+	@Override
+	public String toString() {
+		return format("Match [events=%d, startCpuTime=%s, endCpuTime=%s]", events.size(), startCpuTime(),
+				endCpuTime());
+	}
+
+}
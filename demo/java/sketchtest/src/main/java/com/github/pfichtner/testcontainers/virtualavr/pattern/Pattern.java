@@ -0,0 +1,267 @@
+package com.github.pfichtner.testcontainers.virtualavr.pattern;
+
+import static java.lang.String.format;
+import static java.util.stream.Collectors.joining;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+
+/**
+ * Temporal pattern over the pin states received, e.g. "13 goes high, then low
+ * within 1000 ms of cpu time, three times":
+ * 
+ * <pre>
+ * step(pin(13).rises()).then(pin(13).falls()).within(ofMillis(1000)).times(3)
+ * </pre>
+ * 
+ * "12 never high while 13 high": <code>never(pin(12).high().and(pin(13).high()))</code>,
+ * "LED pattern green, yellow, red":
+ * <code>sequence(step(pin(GREEN).rises()), step(pin(YELLOW).rises()), step(pin(RED).rises()))</code>.
+ * <p>
+ * A pattern is compiled into a state machine ({@link #matcher()}) which is fed
+ * with the pin states as they arrive, so each pin state costs O(1) regardless
+ * of the history. Steps of a sequence do not have to follow each other
+ * immediately, pin states not matching the next step are skipped (unless they
+ * violate a {@link #never(Condition)} or {@link #unless(Condition)}). All
+ * times are cpu times (see {@link VirtualAvrConnection.PinState#getCpuTime()}),
+ * so the patterns do not depend on the speed of the simulation.
+ */
+public abstract class Pattern {
+
+	Pattern() {
+		super();
+	}
+
+	/**
+	 * @return a pattern matched by the first pin state the condition holds for
+	 */
+	public static Pattern step(Condition condition) {
+		return new Step(condition);
+	}
+
+	/**
+	 * @return a pattern matched if the passed patterns are matched one after the
+	 *         other
+	 */
+	public static Pattern sequence(Pattern... patterns) {
+		return new Sequence(List.of(patterns));
+	}
+
+	/**
+	 * Negation: the pattern is violated as soon as the condition holds between the
+	 * step before and the step after this pattern in a {@link #sequence(Pattern...)}.
+	 * On its own it is an invariant that holds until the matcher is closed.
+	 */
+	public static Pattern never(Condition condition) {
+		return new Never(condition);
+	}
+
+	public Pattern then(Pattern next) {
+		return sequence(this, next);
+	}
+
+	public Pattern then(Condition next) {
+		return then(step(next));
+	}
+
+	/**
+	 * @return this pattern that has to be matched completely within the passed cpu
+	 *         time (measured from the pin state matching its first step), violated
+	 *         otherwise
+	 */
+	public Pattern within(Duration cpuTime) {
+		return new Within(this, cpuTime);
+	}
+
+	/**
+	 * @return this pattern repeated the passed number of times
+	 */
+	public Pattern times(int times) {
+		return new Times(this, times);
+	}
+
+	/**
+	 * @return this pattern that is violated if the condition holds after its first
+	 *         step was matched and before its last step was matched
+	 */
+	public Pattern unless(Condition condition) {
+		return new Unless(this, condition);
+	}
+
+	/**
+	 * @return a new state machine matching this pattern, it has to be fed with the
+	 *         pin states
+	 */
+	public PatternMatcher matcher() {
+		return new PatternMatcher(new Program(this));
+	}
+
+	/**
+	 * Matches this pattern against the pin states the passed connection receives
+	 * from now on. The current states of the pins are taken from the
+	 * {@link VirtualAvrConnection#pinStates()} received so far.
+	 * 
+	 * @return the matcher, completed on match or violation
+	 */
+	public PatternMatcher attach(VirtualAvrConnection avr) {
+		PatternMatcher matcher = matcher().withStates(avr.pinStates().last());
+		avr.addPinStateListener(matcher);
+		matcher.future().whenComplete((r, t) -> avr.removePinStateListener(matcher));
+		return matcher;
+	}
+
+	/**
+	 * @return the future completed on match or violation of this pattern against
+	 *         the pin states the passed connection receives from now on
+	 * @see #attach(VirtualAvrConnection)
+	 */
+	public CompletableFuture<Match> matchOn(VirtualAvrConnection avr) {
+		return attach(avr).future();
+	}
+
+	abstract void compile(Program program);
+
+	private static final class Step extends Pattern {
+
+		private final Condition condition;
+
+		private Step(Condition condition) {
+			this.condition = Objects.requireNonNull(condition, "condition must not be null");
+		}
+
+		@Override
+		void compile(Program program) {
+			program.step(condition);
+		}
+
+		@Override
+		public String toString() {
+			return condition.toString();
+		}
+
+	}
+
+	private static final class Sequence extends Pattern {
+
+		private final List<Pattern> patterns;
+
+		private Sequence(List<Pattern> patterns) {
+			this.patterns = patterns;
+		}
+
+		@Override
+		void compile(Program program) {
+			patterns.forEach(p -> p.compile(program));
+		}
+
+		@Override
+		public String toString() {
+			return patterns.stream().map(String::valueOf).collect(joining(" -> ", "(", ")"));
+		}
+
+	}
+
+	private static final class Never extends Pattern {
+
+		private final Condition condition;
+
+		private Never(Condition condition) {
+			this.condition = Objects.requireNonNull(condition, "condition must not be null");
+		}
+
+		@Override
+		void compile(Program program) {
+			int position = program.position();
+			program.negation(position, position, condition, this);
+		}
+
+		@Override
+		public String toString() {
+			return format("never %s", condition);
+		}
+
+	}
+
+	private static final class Within extends Pattern {
+
+		private final Pattern pattern;
+		private final double seconds;
+
+		private Within(Pattern pattern, Duration cpuTime) {
+			if (cpuTime.isNegative()) {
+				throw new IllegalArgumentException(format("cpuTime must not be negative but was %s", cpuTime));
+			}
+			this.pattern = pattern;
+			this.seconds = cpuTime.toNanos() / 1e9;
+		}
+
+		@Override
+		void compile(Program program) {
+			int start = program.position();
+			pattern.compile(program);
+			program.window(start, program.position(), seconds, this);
+		}
+
+		@Override
+		public String toString() {
+			return format("%s within %ss", pattern, seconds);
+		}
+
+	}
+
+	private static final class Times extends Pattern {
+
+		private final Pattern pattern;
+		private final int times;
+
+		private Times(Pattern pattern, int times) {
+			if (times < 1) {
+				throw new IllegalArgumentException(format("times must be greater than 0 but was %d", times));
+			}
+			this.pattern = pattern;
+			this.times = times;
+		}
+
+		@Override
+		void compile(Program program) {
+			for (int i = 0; i < times; i++) {
+				pattern.compile(program);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return format("%s x%d", pattern, times);
+		}
+
+	}
+
+	private static final class Unless extends Pattern {
+
+		private final Pattern pattern;
+		private final Condition condition;
+
+		private Unless(Pattern pattern, Condition condition) {
+			this.pattern = pattern;
+			this.condition = Objects.requireNonNull(condition, "condition must not be null");
+		}
+
+		@Override
+		void compile(Program program) {
+			int start = program.position();
+			pattern.compile(program);
+			program.negation(start + 1, program.position() - 1, condition, this);
+		}
+
+		@Override
+		public String toString() {
+			return format("%s unless %s", pattern, condition);
+		}
+
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.github.pfichtner.testcontainers.virtualavr.pattern;
+
+import static java.lang.String.format;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+
+/**
+ * State machine of a {@link Pattern}, fed with the pin states (e.g. as pin
+ * state listener, see {@link Pattern#attach(VirtualAvrConnection)}). Its
+ * {@link #future()} is completed on match or violation, later pin states are
+ * ignored.
+ */
+public class PatternMatcher implements VirtualAvrConnection.Listener<PinState>, AutoCloseable {
+
+	private final Program program;
+	private final CompletableFuture<Match> future = new CompletableFuture<>();
+	private final Map<String, Object> states = new HashMap<>();
+	private final PinState[] matched;
+	private final EventContext context = new EventContext();
+	private int state;
+
+	private final class EventContext implements Condition.Context {
+
+		private PinState event;
+		private Object previousState;
+
+		@Override
+		public PinState event() {
+			return event;
+		}
+
+		@Override
+		public Object previousState() {
+			return previousState;
+		}
+
+		@Override
+		public Object state(String pin) {
+			return states.get(pin);
+		}
+
+	}
+
+	PatternMatcher(Program program) {
+		this.program = program;
+		this.matched = new PinState[program.steps.length];
+		if (program.steps.length == 0 && program.negationsAt[0].length == 0) {
+			future.complete(new Match(Arrays.asList(matched)));
+		}
+	}
+
+	/**
+	 * @param states the current states of the pins (before the first pin state
+	 *               fed)
+	 */
+	public synchronized PatternMatcher withStates(Map<String, Object> states) {
+		this.states.putAll(states);
+		return this;
+	}
+
+	@Override
+	public synchronized void accept(PinState event) {
+		if (future.isDone()) {
+			return;
+		}
+		context.event = event;
+		context.previousState = states.put(event.getPin(), event.getState());
+
+		double cpuTime = event.getCpuTime();
+		for (Program.Window window : program.windowsAt[state]) {
+			double elapsed = cpuTime - matched[window.start].getCpuTime();
+			if (elapsed > window.seconds) {
+				violated(format("%s was not matched within %ss of cpu time (%ss elapsed at cpu time %s)",
+						window.pattern, window.seconds, elapsed, cpuTime), event);
+				return;
+			}
+		}
+		for (Program.Negation negation : program.negationsAt[state]) {
+			if (negation.condition.test(context)) {
+				violated(format("%s violated by pin %s=%s at cpu time %s", negation.pattern, event.getPin(),
+						event.getState(), cpuTime), event);
+				return;
+			}
+		}
+		if (state < matched.length && program.steps[state].test(context)) {
+			matched[state++] = event;
+			if (state == matched.length) {
+				future.complete(new Match(Arrays.asList(matched)));
+			}
+		}
+	}
+
+	private void violated(String message, PinState event) {
+		future.completeExceptionally(new PatternViolationException(message, event));
+	}
+
+	/**
+	 * @return the future completed with the {@link Match} or exceptionally with a
+	 *         {@link PatternViolationException}
+	 */
+	public CompletableFuture<Match> future() {
+		return future;
+	}
+
+	/**
+	 * @return the number of steps matched so far
+	 */
+	public synchronized int matchedSteps() {
+		return state;
+	}
+
+	/**
+	 * Ends the matching: invariants (patterns without steps) that were not
+	 * violated are completed as matched, patterns with steps not matched so far
+	 * as violated.
+	 */
+	@Override
+	public synchronized void close() {
+		if (future.isDone()) {
+			return;
+		}
+		if (matched.length == 0) {
+			future.complete(new Match(Arrays.asList(matched)));
+		} else {
+			violated(format("%s was not matched (matched %d of %d steps)", program.pattern, state, matched.length),
+					null);
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package com.github.pfichtner.testcontainers.virtualavr.pattern;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+
+/**
+ * Signals that a {@link Pattern} was violated (a window was exceeded, a negated
+ * condition held or the matcher was closed before the pattern matched).
+ */
+public class PatternViolationException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient PinState event;
+
+	PatternViolationException(String message, PinState event) {
+		super(message);
+		this.event = event;
+	}
+
+	/**
+	 * @return the pin state that violated the pattern, <code>null</code> if the
+	 *         matcher was closed
+	 */
+	public PinState event() {
+		return event;
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.github.pfichtner.testcontainers.virtualavr.pattern;
+
+import static com.github.pfichtner.testcontainers.virtualavr.pattern.Condition.named;
+import static java.lang.String.format;
+
+import java.util.Objects;
+
+/**
+ * Builds the {@link Condition}s of a pin, e.g.
+ * <code>pin("13").rises()</code>. Level conditions ({@link #high()},
+ * {@link #low()}, {@link #is(Object)}) hold for every pin state received while
+ * the pin has that level, edge conditions ({@link #rises()}, {@link #falls()},
+ * {@link #changes()}) only for the pin state of the pin that changed its level.
+ * Digital pins are high when their state is <code>true</code>, analog pins when
+ * their value is not 0.
+ */
+public final class PinCondition {
+
+	private final String pin;
+
+	private PinCondition(String pin) {
+		this.pin = Objects.requireNonNull(pin, "pin must not be null");
+	}
+
+	public static PinCondition pin(String pin) {
+		return new PinCondition(pin);
+	}
+
+	public static PinCondition pin(int pin) {
+		return pin(String.valueOf(pin));
+	}
+
+	public Condition high() {
+		return named(format("%s is high", pin), c -> isHigh(c.state(pin)));
+	}
+
+	public Condition low() {
+		return named(format("%s is low", pin), c -> isLow(c.state(pin)));
+	}
+
+	public Condition is(Object state) {
+		return named(format("%s is %s", pin, state), c -> equal(c.state(pin), state));
+	}
+
+	public Condition rises() {
+		return named(format("%s rises", pin),
+				c -> isEvent(c) && isHigh(c.event().getState()) && !isHigh(c.previousState()));
+	}
+
+	public Condition falls() {
+		return named(format("%s falls", pin),
+				c -> isEvent(c) && isLow(c.event().getState()) && !isLow(c.previousState()));
+	}
+
+	public Condition changes() {
+		return named(format("%s changes", pin),
+				c -> isEvent(c) && !equal(c.event().getState(), c.previousState()));
+	}
+
+	private boolean isEvent(Condition.Context context) {
+		return pin.equals(context.event().getPin());
+	}
+
+	static boolean isHigh(Object state) {
+		return Boolean.TRUE.equals(state) || state instanceof Number && ((Number) state).doubleValue() != 0;
+	}
+
+	static boolean isLow(Object state) {
+		return Boolean.FALSE.equals(state) || state instanceof Number && ((Number) state).doubleValue() == 0;
+	}
+
+	private static boolean equal(Object state1, Object state2) {
+		return state1 instanceof Number && state2 instanceof Number //
+				? ((Number) state1).doubleValue() == ((Number) state2).doubleValue()
+				: Objects.equals(state1, state2);
+	}
+
+}
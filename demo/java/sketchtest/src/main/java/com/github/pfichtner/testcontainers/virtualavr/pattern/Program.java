@@ -0,0 +1,106 @@
+package com.github.pfichtner.testcontainers.virtualavr.pattern;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state machine a {@link Pattern} is compiled to: the steps to match one
+ * after the other (the state is the index of the next step) and, per state,
+ * the windows and negations to check. So matching a pin state only evaluates
+ * what is active in the current state.
+ */
+final class Program {
+
+	static final class Window {
+
+		/**
+		 * the step whose cpu time the window starts at
+		 */
+		final int start;
+		final double seconds;
+		final Pattern pattern;
+
+		private Window(int start, double seconds, Pattern pattern) {
+			this.start = start;
+			this.seconds = seconds;
+			this.pattern = pattern;
+		}
+
+	}
+
+	static final class Negation {
+
+		final Condition condition;
+		final Pattern pattern;
+
+		private Negation(Condition condition, Pattern pattern) {
+			this.condition = condition;
+			this.pattern = pattern;
+		}
+
+	}
+
+	private static final Window[] NO_WINDOWS = new Window[0];
+	private static final Negation[] NO_NEGATIONS = new Negation[0];
+
+	private final List<Condition> stepList = new ArrayList<>();
+	private final List<List<Window>> windowList = new ArrayList<>();
+	private final List<List<Negation>> negationList = new ArrayList<>();
+
+	final Pattern pattern;
+	final Condition[] steps;
+	final Window[][] windowsAt;
+	final Negation[][] negationsAt;
+
+	Program(Pattern pattern) {
+		this.pattern = pattern;
+		windowList.add(new ArrayList<>());
+		negationList.add(new ArrayList<>());
+		pattern.compile(this);
+		this.steps = stepList.toArray(new Condition[0]);
+		if (steps.length > 0 && !negationList.get(steps.length).isEmpty()) {
+			throw new IllegalArgumentException(
+					format("%s: negations have to be followed by a step (or be the whole pattern)", pattern));
+		}
+		this.windowsAt = windowList.stream().map(w -> w.toArray(NO_WINDOWS)).toArray(Window[][]::new);
+		this.negationsAt = negationList.stream().map(n -> n.toArray(NO_NEGATIONS)).toArray(Negation[][]::new);
+	}
+
+	/**
+	 * @return the index of the next step added
+	 */
+	int position() {
+		return stepList.size();
+	}
+
+	void step(Condition condition) {
+		stepList.add(condition);
+		windowList.add(new ArrayList<>());
+		negationList.add(new ArrayList<>());
+	}
+
+	/**
+	 * Adds a window for the steps from <code>start</code> (inclusive) to
+	 * <code>end</code> (exclusive).
+	 */
+	void window(int start, int end, double seconds, Pattern pattern) {
+		Window window = new Window(start, seconds, pattern);
+		for (int state = start + 1; state < end; state++) {
+			windowList.get(state).add(window);
+		}
+	}
+
+	/**
+	 * Adds a negation that is checked in the states from <code>from</code> to
+	 * <code>to</code> (both inclusive).
+	 */
+	void negation(int from, int to, Condition condition, Pattern pattern) {
+		Negation negation = new Negation(condition, pattern);
+		for (int state = Math.max(0, from); state <= to; state++) {
+			negationList.get(state).add(negation);
+		}
+	}
+
+}
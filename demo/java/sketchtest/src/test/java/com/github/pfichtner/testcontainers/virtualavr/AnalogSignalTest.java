@@ -0,0 +1,59 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static com.github.pfichtner.testcontainers.virtualavr.AnalogSignal.constant;
+import static com.github.pfichtner.testcontainers.virtualavr.AnalogSignal.noise;
+import static com.github.pfichtner.testcontainers.virtualavr.AnalogSignal.ramp;
+import static com.github.pfichtner.testcontainers.virtualavr.AnalogSignal.samples;
+import static com.github.pfichtner.testcontainers.virtualavr.AnalogSignal.sine;
+import static java.time.Duration.ofMillis;
+import static java.time.Duration.ofSeconds;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AnalogSignalTest {
+
+	@Test
+	void sineIsSampledWithTheSampleRate() {
+		assertThat(sine(1, 512, 100).sample(4, ofSeconds(1))).containsExactly(512, 612, 512, 412);
+	}
+
+	@Test
+	void rampKeepsItsEndValue() {
+		assertThat(ramp(0, 1000, ofMillis(500)).sample(10, ofSeconds(1))).containsExactly(0, 200, 400, 600, 800,
+				1000, 1000, 1000, 1000, 1000);
+	}
+
+	@Test
+	void valuesAreClamped() {
+		assertThat(constant(600).plus(constant(600)).sample(1, ofSeconds(1))).containsExactly(1023);
+		assertThat(constant(-1).sample(1, ofSeconds(1))).containsExactly(0);
+	}
+
+	@Test
+	void noiseIsReproducibleAndWithinItsBounds() {
+		int[] samples = noise(100, 200, 42).sample(1000, ofSeconds(1));
+		assertThat(IntStream.of(samples).allMatch(v -> v >= 100 && v <= 200)).isTrue();
+		assertThat(samples).containsAnyOf(100, 101, 102).containsAnyOf(198, 199, 200);
+		assertThat(noise(100, 200, 42).sample(1000, ofSeconds(1))).isEqualTo(samples);
+		assertThat(noise(100, 200, 43).sample(1000, ofSeconds(1))).isNotEqualTo(samples);
+	}
+
+	@Test
+	void samplesAreResampled() {
+		assertThat(samples(2, 1, 2, 3).sample(4, ofSeconds(2))).containsExactly(1, 1, 2, 2, 3, 3, 3, 3);
+	}
+
+	@Test
+	void samplesFromFile(@TempDir Path dir) throws IOException {
+		Path file = Files.writeString(dir.resolve("samples.csv"), "1, 2;3\n4\n");
+		assertThat(AnalogSignal.fromFile(file, 4).sample(4, ofSeconds(1))).containsExactly(1, 2, 3, 4);
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.pfichtner.testcontainers.virtualavr.micrometer.MicrometerMetricsRecorder;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ClientMetricsTest {
+
+	@Test
+	void bucketsCoverTheirUpperBounds() {
+		LongStream.of(0, 1, 3, 4, 5, 7, 8, 1000, 123_456_789, Long.MAX_VALUE).forEach(value -> {
+			int bucket = LatencyHistogram.bucket(value);
+			assertThat(LatencyHistogram.upperBound(bucket)).isGreaterThanOrEqualTo(value);
+			assertThat(bucket == 0 || LatencyHistogram.upperBound(bucket - 1) < value).isTrue();
+		});
+	}
+
+	@Test
+	void percentilesAreWithinTheBucketResolution() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		LongStream.rangeClosed(1, 1000).forEach(histogram::record);
+		assertThat(histogram.count()).isEqualTo(1000);
+		assertThat(histogram.meanNanos()).isEqualTo(500.5);
+		assertThat(histogram.maxNanos()).isEqualTo(1000);
+		assertThat(histogram.percentileNanos(50)).isBetween(500L, 625L);
+		assertThat(histogram.percentileNanos(99)).isBetween(990L, 1000L);
+		assertThat(histogram.percentileNanos(100)).isEqualTo(1000);
+	}
+
+	@Test
+	void recordsPerType() {
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.roundTrip("pinState", 1000);
+		metrics.event("pinState", 2000);
+		metrics.event("pinState", -1);
+		metrics.event("serialData", -1);
+		metrics.listener("pinState", 3000);
+
+		assertThat(metrics.roundTrips()).containsOnlyKeys("pinState");
+		assertThat(metrics.events()).containsExactly(entry("pinState", 2L), entry("serialData", 1L));
+		assertThat(metrics.eventLatencies().get("pinState").count()).isEqualTo(1);
+		assertThat(metrics.eventLatencies()).doesNotContainKey("serialData");
+		assertThat(metrics.listeners().get("pinState").maxNanos()).isEqualTo(3000);
+		assertThat(metrics.eventRate("pinState")).isPositive();
+
+		metrics.reset();
+		assertThat(metrics.events()).isEmpty();
+		assertThat(metrics.eventRate("pinState")).isZero();
+	}
+
+	@Test
+	void publishesToMicrometer() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		MicrometerMetricsRecorder recorder = new MicrometerMetricsRecorder(registry);
+		recorder.roundTrip("pinState", 1000);
+		recorder.roundTrip("pinState", 3000);
+		recorder.event("lag", -1);
+
+		assertThat(registry.get(MicrometerMetricsRecorder.ROUND_TRIP).tag("type", "pinState").timer().totalTime(NANOSECONDS))
+				.isEqualTo(4000);
+		assertThat(registry.get(MicrometerMetricsRecorder.EVENTS).tag("type", "lag").counter().count()).isEqualTo(1);
+		assertThat(registry.find(MicrometerMetricsRecorder.EVENT_LATENCY).timers()).isEmpty();
+	}
+
+}
@@ -0,0 +1,184 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static com.github.pfichtner.testcontainers.virtualavr.EventPublisher.Overflow.DROP_NEWEST;
+import static com.github.pfichtner.testcontainers.virtualavr.EventPublisher.Overflow.DROP_OLDEST;
+import static com.github.pfichtner.testcontainers.virtualavr.EventPublisher.Overflow.ERROR;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+
+import org.junit.jupiter.api.Test;
+
+class EventPublisherTest {
+
+	private final List<VirtualAvrConnection.Listener<Integer>> listeners = new CopyOnWriteArrayList<>();
+
+	private static class TestSubscriber<T> implements Flow.Subscriber<T> {
+
+		private final List<T> received = new CopyOnWriteArrayList<>();
+		private Flow.Subscription subscription;
+		private boolean completed;
+		private Throwable error;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(T item) {
+			received.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			this.completed = true;
+		}
+
+		TestSubscriber<T> request(long n) {
+			subscription.request(n);
+			return this;
+		}
+
+	}
+
+	private EventPublisher<Integer> publisher(int bufferSize, EventPublisher.Overflow overflow) {
+		return new EventPublisher<>(bufferSize, overflow, listeners::add, listeners::remove);
+	}
+
+	private void publish(int... events) {
+		for (int event : events) {
+			listeners.forEach(l -> l.accept(event));
+		}
+	}
+
+	@Test
+	void deliversOnlyRequestedEvents() {
+		TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+		publisher(10, ERROR).subscribe(subscriber);
+		publish(1, 2, 3);
+		assertThat(subscriber.received).isEmpty();
+		subscriber.request(2);
+		assertThat(subscriber.received).containsExactly(1, 2);
+		subscriber.request(Long.MAX_VALUE);
+		publish(4);
+		assertThat(subscriber.received).containsExactly(1, 2, 3, 4);
+	}
+
+	@Test
+	void listenerIsOnlyRegisteredWhileSubscribed() {
+		EventPublisher<Integer> publisher = publisher(10, ERROR);
+		assertThat(listeners).isEmpty();
+		TestSubscriber<Integer> subscriber1 = new TestSubscriber<>();
+		TestSubscriber<Integer> subscriber2 = new TestSubscriber<>();
+		publisher.subscribe(subscriber1);
+		publisher.subscribe(subscriber2);
+		assertThat(listeners).hasSize(1);
+		subscriber1.subscription.cancel();
+		assertThat(listeners).hasSize(1);
+		subscriber2.subscription.cancel();
+		assertThat(listeners).isEmpty();
+	}
+
+	@Test
+	void dropOldest() {
+		EventPublisher<Integer> publisher = publisher(2, DROP_OLDEST);
+		TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+		publisher.subscribe(subscriber);
+		publish(1, 2, 3, 4);
+		subscriber.request(10);
+		assertThat(subscriber.received).containsExactly(3, 4);
+		assertThat(publisher.dropped()).isEqualTo(2);
+	}
+
+	@Test
+	void dropNewest() {
+		EventPublisher<Integer> publisher = publisher(2, DROP_NEWEST);
+		TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+		publisher.subscribe(subscriber);
+		publish(1, 2, 3, 4);
+		subscriber.request(10);
+		assertThat(subscriber.received).containsExactly(1, 2);
+		assertThat(publisher.dropped()).isEqualTo(2);
+	}
+
+	@Test
+	void errorAfterTheBufferedEvents() {
+		EventPublisher<Integer> publisher = publisher(2, ERROR);
+		TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+		publisher.subscribe(subscriber);
+		publish(1, 2, 3);
+		assertThat(listeners).isEmpty();
+		assertThat(subscriber.error).isNull();
+		subscriber.request(10);
+		assertThat(subscriber.received).containsExactly(1, 2);
+		assertThat(subscriber.error).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void nonPositiveRequestIsAnError() {
+		TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+		publisher(2, ERROR).subscribe(subscriber);
+		subscriber.request(0);
+		assertThat(subscriber.error).isInstanceOf(IllegalArgumentException.class);
+		assertThat(listeners).isEmpty();
+	}
+
+	@Test
+	void completesAfterTheBufferedEvents() {
+		EventPublisher<Integer> publisher = publisher(10, ERROR);
+		TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+		publisher.subscribe(subscriber);
+		publish(1);
+		publisher.complete();
+		assertThat(subscriber.completed).isFalse();
+		subscriber.request(1);
+		assertThat(subscriber.received).containsExactly(1);
+		assertThat(subscriber.completed).isTrue();
+		assertThat(listeners).isEmpty();
+
+		TestSubscriber<Integer> late = new TestSubscriber<>();
+		publisher.subscribe(late);
+		assertThat(late.completed).isTrue();
+	}
+
+	@Test
+	void serialConnectionPublisherCompletesOnClose() throws Exception {
+		SerialConnection connection = new SerialConnection() {
+
+			private boolean closed;
+
+			@Override
+			protected void write(byte[] bytes) {
+				receive(bytes);
+			}
+
+			@Override
+			public boolean isClosed() {
+				return closed;
+			}
+
+			@Override
+			public void close() {
+				closed = true;
+				completePublishers();
+			}
+
+		};
+		TestSubscriber<byte[]> subscriber = new TestSubscriber<>();
+		connection.receivedPublisher().subscribe(subscriber);
+		subscriber.request(Long.MAX_VALUE);
+		connection.send("abc");
+		connection.close();
+		assertThat(subscriber.received).containsExactly("abc".getBytes());
+		assertThat(subscriber.completed).isTrue();
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.time.Duration.ofSeconds;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.pfichtner.testcontainers.virtualavr.PinHistory.Interval;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+
+class PinHistoryTest {
+
+	private final PinHistory history = new PinHistory();
+
+	private void add(String pin, Object state, double cpuTime) {
+		history.add(new PinState(pin, state, cpuTime));
+	}
+
+	@Test
+	void valueAt() {
+		add("10", true, 1.0);
+		add("10", false, 1.5);
+		add("A0", 512, 1.2);
+		assertThat(history.valueAt("10", 0.5)).isNull();
+		assertThat(history.valueAt("10", 1.0)).isEqualTo(true);
+		assertThat(history.valueAt("10", 1.25)).isEqualTo(true);
+		assertThat(history.valueAt("10", 1.5)).isEqualTo(false);
+		assertThat(history.valueAt("A0", 2)).isEqualTo(512);
+		assertThat(history.valueAt("11", 2)).isNull();
+		assertThat(history.last("10")).isEqualTo(false);
+	}
+
+	@Test
+	void outOfOrderStatesAreSorted() {
+		add("10", false, 2.0);
+		add("10", true, 1.0);
+		assertThat(history.valueAt("10", 1.5)).isEqualTo(true);
+		assertThat(history.last("10")).isEqualTo(false);
+	}
+
+	@Test
+	void between() {
+		for (int i = 0; i < 100_000; i++) {
+			add("13", i % 2 == 0, i * 0.001);
+		}
+		assertThat(history.size("13")).isEqualTo(100_000);
+		assertThat(history.between("13", 10.0, 10.0025)).extracting(PinState::getCpuTime).containsExactly(10.0,
+				10.001, 10.002);
+		assertThat(history.between("13", 200, 300)).isEmpty();
+	}
+
+	@Test
+	void pulseWidths() {
+		add("9", false, 0.0);
+		add("9", true, 1.0);
+		add("9", true, 1.5); // unchanged
+		add("9", false, 3.0);
+		add("9", true, 4.0);
+		add("9", false, 4.5);
+		add("9", true, 6.0); // not ended yet
+		assertThat(history.pulseWidths("9", true)).containsExactly(new double[] { 2.0, 0.5 }, within(1e-9));
+		assertThat(history.pulseWidths("9", false)).containsExactly(new double[] { 1.0, 1.0, 1.5 }, within(1e-9));
+		assertThat(history.intervals("9", 3.5, 4.2)).extracting(Interval::start).containsExactly(3.0, 4.0);
+	}
+
+	@Test
+	void pinStatesUseTheHistory() {
+		DefaultVirtualAvrConnection.DefaultPinStates pinStates = new DefaultVirtualAvrConnection.DefaultPinStates();
+		pinStates.add(new PinState("13", true, 1.0));
+		pinStates.add(new PinState("13", false, 2.0));
+		assertThat(pinStates.valueAt("13", 1.9)).isEqualTo(true);
+		assertThat(pinStates.last()).containsEntry("13", false);
+		pinStates.clear();
+		assertThat(pinStates.valueAt("13", 1.9)).isNull();
+	}
+
+	@Test
+	void pinStatesIngestManyStatesWithoutCopying() {
+		DefaultVirtualAvrConnection.DefaultPinStates pinStates = new DefaultVirtualAvrConnection.DefaultPinStates();
+		int count = 100_000;
+		assertTimeout(ofSeconds(10), () -> {
+			for (int i = 0; i < count; i++) {
+				pinStates.add(new PinState("13", i % 2 == 0, i));
+				if (i == count / 2) {
+					// iterators see the states added until their creation
+					Iterator<PinState> iterator = pinStates.iterator();
+					pinStates.add(new PinState("12", true, i));
+					assertThat(iterator).toIterable().hasSize(i + 1);
+				}
+			}
+		});
+		assertThat(pinStates.stream()).hasSize(count + 1).last().extracting(PinState::getCpuTime)
+				.isEqualTo((double) count - 1);
+		assertThat(pinStates.history().size("13")).isEqualTo(count);
+		pinStates.clear();
+		assertThat(pinStates).isEmpty();
+	}
+
+}
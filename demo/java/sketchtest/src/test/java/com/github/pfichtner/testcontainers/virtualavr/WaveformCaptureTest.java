@@ -0,0 +1,111 @@
+package com.github.pfichtner.testcontainers.virtualavr;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.pfichtner.testcontainers.virtualavr.WaveformCapture.PinWaveform;
+
+class WaveformCaptureTest {
+
+	private static final int PORT_B = 0;
+	private static final int PORT_D = 2;
+
+	private static final int PIN_13 = 1 << 5;
+	private static final int PIN_12 = 1 << 4;
+	private static final int PIN_3 = 1 << 3;
+
+	private final ByteArrayOutputStream samples = new ByteArrayOutputStream();
+	private int sampleCount;
+
+	@Test
+	void decodesEdgesPerPin() {
+		sample(100, PORT_B, 0);
+		sample(100, PORT_D, PIN_3);
+		sample(200, PORT_B, PIN_13);
+		sample(300, PORT_B, PIN_13 | PIN_12);
+		sample(400, PORT_D, 0);
+		sample(500, PORT_B, PIN_12);
+
+		WaveformCapture capture = WaveformCapture.decode(frame(100, 600));
+
+		assertThat(capture.pins()).containsExactly("13", "12", "3");
+		PinWaveform pin13 = capture.pin("13");
+		assertThat(pin13.initialState()).isFalse();
+		assertThat(pin13.edges()).containsExactly(200, 500);
+		PinWaveform pin12 = capture.pin("12");
+		assertThat(pin12.edges()).containsExactly(300);
+		PinWaveform pin3 = capture.pin("3");
+		assertThat(pin3.initialState()).isTrue();
+		assertThat(pin3.edges()).containsExactly(400);
+	}
+
+	@Test
+	void stateAt() {
+		sample(0, PORT_B, 0);
+		sample(10, PORT_B, PIN_13);
+		sample(20, PORT_B, 0);
+
+		PinWaveform pin13 = WaveformCapture.decode(frame(0, 30)).pin("13");
+
+		assertThat(pin13.stateAt(5)).isFalse();
+		assertThat(pin13.stateAt(10)).isTrue();
+		assertThat(pin13.stateAt(15)).isTrue();
+		assertThat(pin13.stateAt(20)).isFalse();
+		assertThat(pin13.stateAfter(0)).isTrue();
+		assertThat(pin13.stateAfter(1)).isFalse();
+	}
+
+	@Test
+	void exportsVcd() {
+		sample(16, PORT_B, 0);
+		sample(16, PORT_D, 0);
+		sample(32, PORT_B, PIN_13);
+		sample(48, PORT_D, PIN_3);
+
+		String vcd = WaveformCapture.decode(frame(16, 64)).toVcd();
+
+		assertThat(vcd).contains("$timescale 1ps $end", //
+				"$var wire 1 ! D13 $end", //
+				"$var wire 1 \" D12 $end", //
+				"$var wire 1 # D3 $end", //
+				"#0\n$dumpvars\n0!\n0\"\n0#\n$end\n", //
+				"#1000000\n1!\n", //
+				"#2000000\n1#\n", //
+				"#3000000\n");
+	}
+
+	@Test
+	void unknownPin() {
+		sample(0, PORT_B, 0);
+		WaveformCapture capture = WaveformCapture.decode(frame(0, 0));
+		assertThatThrownBy(() -> capture.pin("7")).isInstanceOf(IllegalArgumentException.class)
+				.hasMessageContaining("7");
+	}
+
+	private void sample(long cycles, int port, int value) {
+		ByteBuffer sample = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+		sample.putDouble(cycles).put((byte) port).put((byte) value);
+		samples.writeBytes(sample.array());
+		sampleCount++;
+	}
+
+	private ByteBuffer frame(long startCycles, long endCycles) {
+		byte[] metadata = ("{\"replyId\":\"42\",\"clockFrequency\":16000000,\"startCycles\":" + startCycles
+				+ ",\"endCycles\":" + endCycles + ",\"samples\":" + sampleCount
+				+ ",\"overflow\":false,\"ports\":[\"B\",\"C\",\"D\"],\"pins\":{" //
+				+ "\"13\":{\"port\":\"B\",\"bit\":5}," //
+				+ "\"12\":{\"port\":\"B\",\"bit\":4}," //
+				+ "\"3\":{\"port\":\"D\",\"bit\":3}}}").getBytes(UTF_8);
+		ByteBuffer frame = ByteBuffer.allocate(5 + metadata.length + samples.size()).order(ByteOrder.LITTLE_ENDIAN);
+		frame.put(WaveformCapture.BINARY_CAPTURE).putInt(metadata.length).put(metadata).put(samples.toByteArray());
+		return frame.flip();
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.github.pfichtner.testcontainers.virtualavr.jfr;
+
+import static com.github.pfichtner.testcontainers.virtualavr.SerialConnectionAwait.awaiter;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.github.pfichtner.testcontainers.virtualavr.SerialConnection;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class VirtualAvrEventsTest {
+
+	private static final String PREFIX = "com.github.pfichtner.virtualavr.";
+
+	private static class EchoSerialConnection extends SerialConnection {
+
+		@Override
+		protected void write(byte[] bytes) {
+			receive(bytes);
+		}
+
+		@Override
+		public boolean isClosed() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			// nothing to close
+		}
+
+	}
+
+	@Test
+	void noEventsAreRecordedByDefault(@TempDir Path dir) throws IOException {
+		List<RecordedEvent> events = record(dir, false, () -> new EchoSerialConnection().send("x"));
+		assertThat(events).noneMatch(e -> e.getEventType().getName().startsWith(PREFIX));
+	}
+
+	@Test
+	void recordsSerialTrafficAndAwaits(@TempDir Path dir) throws IOException {
+		List<RecordedEvent> events = record(dir, true,
+				() -> awaiter(new EchoSerialConnection()).sendAwait("hello", "hello"));
+		assertThat(names(events)).containsExactly(PREFIX + "SerialBytesRead", PREFIX + "SerialBytesWritten",
+				PREFIX + "SerialAwaitStarted", PREFIX + "SerialAwait");
+		assertThat(events.get(1).getInt("bytes")).isEqualTo(5);
+		assertThat(events.get(1).getString("connection")).isEqualTo("EchoSerialConnection");
+		assertThat(events.get(3).getBoolean("satisfied")).isTrue();
+	}
+
+	@Test
+	void recordsCommandLatency(@TempDir Path dir) throws IOException {
+		List<RecordedEvent> events = record(dir, true, () -> {
+			VirtualAvrEvents.commandSent("42", 10);
+			VirtualAvrEvents.commandAcknowledged(VirtualAvrEvents.commandPending(), "pinState", "42", null);
+		});
+		assertThat(names(events)).containsExactly(PREFIX + "CommandSent", PREFIX + "CommandAcknowledged");
+		assertThat(events.get(1).getString("type")).isEqualTo("pinState");
+		assertThat(events.get(1).getString("error")).isNull();
+	}
+
+	private interface Action {
+		void run() throws IOException;
+	}
+
+	private static List<RecordedEvent> record(Path dir, boolean enabled, Action action) throws IOException {
+		Path file = dir.resolve("recording.jfr");
+		try (Recording recording = new Recording()) {
+			if (enabled) {
+				for (String name : List.of("CommandSent", "CommandAcknowledged", "PinEventReceived",
+						"SerialBytesRead", "SerialBytesWritten", "SerialAwaitStarted", "SerialAwait")) {
+					recording.enable(PREFIX + name).withoutThreshold();
+				}
+			}
+			recording.start();
+			action.run();
+			recording.stop();
+			recording.dump(file);
+		}
+		return RecordingFile.readAllEvents(file).stream()
+				.filter(e -> e.getEventType().getName().startsWith(PREFIX)).collect(toList());
+	}
+
+	private static List<String> names(List<RecordedEvent> events) {
+		return events.stream().map(e -> e.getEventType().getName()).collect(toList());
+	}
+
+}
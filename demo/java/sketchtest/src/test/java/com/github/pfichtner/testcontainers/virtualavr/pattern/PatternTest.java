@@ -0,0 +1,114 @@
+package com.github.pfichtner.testcontainers.virtualavr.pattern;
+
+import static com.github.pfichtner.testcontainers.virtualavr.pattern.Pattern.never;
+import static com.github.pfichtner.testcontainers.virtualavr.pattern.Pattern.sequence;
+import static com.github.pfichtner.testcontainers.virtualavr.pattern.Pattern.step;
+import static com.github.pfichtner.testcontainers.virtualavr.pattern.PinCondition.pin;
+import static java.time.Duration.ofMillis;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+
+class PatternTest {
+
+	private static final Pattern BLINK_THREE_TIMES = step(pin(13).rises()).then(pin(13).falls())
+			.within(ofMillis(1000)).times(3);
+
+	private static PatternMatcher feed(PatternMatcher matcher, Object... pinStateCpuTime) {
+		for (int i = 0; i < pinStateCpuTime.length; i += 3) {
+			matcher.accept(new PinState(String.valueOf(pinStateCpuTime[i]), pinStateCpuTime[i + 1],
+					((Number) pinStateCpuTime[i + 2]).doubleValue()));
+		}
+		return matcher;
+	}
+
+	@Test
+	void sequenceWithinWindowRepeated() {
+		PatternMatcher matcher = feed(BLINK_THREE_TIMES.matcher(), //
+				"13", true, 0.1, "13", false, 0.6, //
+				"12", true, 0.7, //
+				"13", true, 1.1, "13", false, 2.0, //
+				"13", true, 2.1);
+		assertThat(matcher.future()).isNotDone();
+		assertThat(matcher.matchedSteps()).isEqualTo(5);
+
+		feed(matcher, "13", false, 2.5);
+		Match match = matcher.future().join();
+		assertThat(match.events()).hasSize(6);
+		assertThat(match.startCpuTime()).isEqualTo(0.1);
+		assertThat(match.endCpuTime()).isEqualTo(2.5);
+	}
+
+	@Test
+	void windowExceeded() {
+		PatternMatcher matcher = feed(BLINK_THREE_TIMES.matcher(), "13", true, 0.1, "13", false, 1.2);
+		assertThatThrownBy(() -> matcher.future().join()).isInstanceOf(CompletionException.class)
+				.hasCauseInstanceOf(PatternViolationException.class).hasMessageContaining("within 1.0s");
+	}
+
+	@Test
+	void levelsAndEdges() {
+		Pattern ledPattern = sequence(step(pin("green").high()), step(pin("yellow").rises()),
+				step(pin("red").is(true)));
+		PatternMatcher matcher = feed(ledPattern.matcher(), //
+				"yellow", true, 0.1, "yellow", false, 0.2, // before green
+				"green", true, 0.3, "red", true, 0.4, "red", false, 0.5, //
+				"yellow", true, 0.6, "red", true, 0.7);
+		assertThat(matcher.future().join().events()).extracting(PinState::getPin).containsExactly("green", "yellow",
+				"red");
+	}
+
+	@Test
+	void invariantHoldsUntilClosed() {
+		PatternMatcher matcher = feed(never(pin(12).high().and(pin(13).high())).matcher(), //
+				"13", true, 0.1, "12", false, 0.2, "13", false, 0.3, "12", true, 0.4);
+		assertThat(matcher.future()).isNotDone();
+		matcher.close();
+		assertThat(matcher.future()).isCompleted();
+	}
+
+	@Test
+	void invariantViolated() {
+		PatternMatcher matcher = never(pin(12).high().and(pin(13).high())).matcher()
+				.withStates(Map.of("13", true));
+		feed(matcher, "12", true, 0.1);
+		assertThatThrownBy(() -> matcher.future().join()).hasCauseInstanceOf(PatternViolationException.class)
+				.hasMessageContaining("never (12 is high and 13 is high)");
+	}
+
+	@Test
+	void negationBetweenSteps() {
+		Pattern pattern = sequence(step(pin(2).rises()), never(pin(3).changes()), step(pin(4).rises()));
+		assertThat(feed(pattern.matcher(), "3", true, 0.0, "2", true, 0.1, "4", true, 0.2).future())
+				.isCompleted();
+		assertThat(feed(pattern.matcher(), "2", true, 0.1, "3", true, 0.15, "4", true, 0.2).future())
+				.isCompletedExceptionally();
+	}
+
+	@Test
+	void unless() {
+		Pattern pattern = step(pin(2).rises()).then(pin(2).falls()).unless(pin(9).high());
+		assertThat(feed(pattern.matcher(), "2", true, 0.1, "9", true, 0.2, "2", false, 0.3).future())
+				.isCompletedExceptionally();
+	}
+
+	@Test
+	void closingAnUnmatchedPatternIsAViolation() {
+		PatternMatcher matcher = feed(BLINK_THREE_TIMES.matcher(), "13", true, 0.1);
+		matcher.close();
+		assertThatThrownBy(() -> matcher.future().join()).hasMessageContaining("matched 1 of 6 steps");
+	}
+
+	@Test
+	void trailingNegationIsRejected() {
+		assertThatThrownBy(() -> step(pin(2).rises()).then(never(pin(3).high())).matcher())
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+}
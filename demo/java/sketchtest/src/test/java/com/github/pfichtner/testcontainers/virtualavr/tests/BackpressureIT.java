@@ -0,0 +1,123 @@
+package com.github.pfichtner.testcontainers.virtualavr.tests;
+
+import static com.github.pfichtner.testcontainers.virtualavr.DefaultVirtualAvrConnection.connectionToVirtualAvr;
+import static com.github.pfichtner.testcontainers.virtualavr.IOUtil.withSketchFromClasspath;
+import static com.github.pfichtner.testcontainers.virtualavr.TestcontainerSupport.virtualAvrContainer;
+import static com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinReportMode.DIGITAL;
+import static com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer.BackpressurePolicy.COALESCE;
+import static com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer.BackpressurePolicy.DROP_OLDEST;
+import static com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer.BackpressurePolicy.PAUSE;
+import static java.util.Comparator.comparingLong;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.pfichtner.testcontainers.virtualavr.PinSnapshot;
+import com.github.pfichtner.testcontainers.virtualavr.SimulatorMetrics.Client;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.Lag;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer.BackpressurePolicy;
+
+/**
+ * A client that stops reading (its websocket thread blocks in a pin state
+ * listener) while the simulator produces pin states as fast as it can, so the
+ * client exceeds the tiny high-water mark.
+ */
+class BackpressureIT {
+
+	private static final long HIGH_WATER_MARK = 1024;
+
+	private final CountDownLatch reading = new CountDownLatch(1);
+	private VirtualAvrContainer<?> container;
+	private VirtualAvrConnection stalled;
+
+	@AfterEach
+	void tearDown() {
+		reading.countDown();
+		if (stalled != null) {
+			stalled.close();
+		}
+		if (container != null) {
+			container.stop();
+		}
+	}
+
+	@Test
+	void lagIsReportedAndRepliesAreNotDropped() {
+		List<Lag> lags = new CopyOnWriteArrayList<>();
+		start(DROP_OLDEST, lags);
+		await().until(() -> stalledClient().dropped() > 0);
+		CompletableFuture<PinSnapshot> reply = stalled.snapshotPinsAsync();
+		await().until(() -> stalledClient().dropped() > 1_000);
+
+		reading.countDown();
+		await().untilAsserted(() -> {
+			assertThat(reply).isCompleted();
+			assertThat(lags).anySatisfy(l -> {
+				assertThat(l.isLagging()).isTrue();
+				assertThat(l.policy()).isEqualTo("drop-oldest");
+				assertThat(l.dropped()).isPositive();
+			});
+		});
+		assertThat(reply.join().digital()).containsKeys("12", "13");
+	}
+
+	@Test
+	void coalesceKeepsTheLatestStatePerPin() {
+		start(COALESCE, new CopyOnWriteArrayList<>());
+		await().until(() -> stalledClient().coalesced() > 1_000);
+		container.avr().pause();
+		PinSnapshot snapshot = container.avr().snapshotPins();
+
+		reading.countDown();
+		await().untilAsserted(() -> {
+			assertThat(stalled.pinStates().last("12")).isEqualTo(snapshot.digital("12"));
+			assertThat(stalled.pinStates().last("13")).isEqualTo(snapshot.digital("13"));
+		});
+	}
+
+	@Test
+	void pauseHoldsTheCpuUntilTheClientDrained() throws InterruptedException {
+		start(PAUSE, new CopyOnWriteArrayList<>());
+		await().until(() -> stalledClient().isLagging());
+		long cycles = container.avr().metrics().simulator().cycles();
+		TimeUnit.MILLISECONDS.sleep(500);
+		assertThat(container.avr().metrics().simulator().cycles()).isEqualTo(cycles);
+		assertThat(stalledClient().dropped()).isZero();
+
+		reading.countDown();
+		await().until(() -> container.avr().metrics().simulator().cycles() > cycles);
+	}
+
+	private void start(BackpressurePolicy policy, List<Lag> lags) {
+		container = virtualAvrContainer(withSketchFromClasspath("/toggle/toggle.ino")).withBackpressure(policy,
+				HIGH_WATER_MARK);
+		container.start();
+		stalled = connectionToVirtualAvr(container).addLagListener(lags::add)
+				.addPinStateListener(__ -> awaitReading());
+		stalled.batch().reportMode("12", DIGITAL).reportMode("13", DIGITAL).apply();
+	}
+
+	private void awaitReading() {
+		try {
+			reading.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Client stalledClient() {
+		// the container's connection does not subscribe to any pin, so the stalled one got most messages sent
+		return container.avr().metrics().clients().stream().max(comparingLong(Client::sentMessages)).orElseThrow();
+	}
+
+}
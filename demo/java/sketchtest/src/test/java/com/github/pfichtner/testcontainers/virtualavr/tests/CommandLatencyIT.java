@@ -0,0 +1,42 @@
+package com.github.pfichtner.testcontainers.virtualavr.tests;
+
+import static com.github.pfichtner.testcontainers.virtualavr.IOUtil.withSketchFromClasspath;
+import static com.github.pfichtner.testcontainers.virtualavr.TestcontainerSupport.virtualAvrContainer;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.github.pfichtner.testcontainers.virtualavr.SimulatorMetrics.Histogram;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+
+@Testcontainers
+class CommandLatencyIT {
+
+	@Container
+	VirtualAvrContainer<?> virtualAvrContainer = virtualAvrContainer(withSketchFromClasspath("/blink/blink.ino"))
+			.withMaxCommandLatency(Duration.ofMillis(20));
+
+	@Test
+	void chunksAreSizedByTheLatencyTarget() throws InterruptedException {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		assertThat(meanChunkMillis(avr)).isGreaterThan(5);
+
+		avr.maxCommandLatency(Duration.ofMillis(1));
+		meanChunkMillis(avr);
+		assertThat(meanChunkMillis(avr)).isLessThan(2);
+	}
+
+	private static double meanChunkMillis(VirtualAvrConnection avr) throws InterruptedException {
+		Histogram before = avr.metrics().simulator().chunkMillis();
+		TimeUnit.SECONDS.sleep(1);
+		Histogram after = avr.metrics().simulator().chunkMillis();
+		return (after.sum() - before.sum()) / (after.count() - before.count());
+	}
+
+}
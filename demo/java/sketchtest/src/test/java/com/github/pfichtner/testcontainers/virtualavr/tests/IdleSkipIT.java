@@ -0,0 +1,71 @@
+package com.github.pfichtner.testcontainers.virtualavr.tests;
+
+import static com.github.pfichtner.testcontainers.virtualavr.IOUtil.withSketchFromClasspath;
+import static com.github.pfichtner.testcontainers.virtualavr.TestcontainerSupport.virtualAvrContainer;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.time.Duration;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.RunResult;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer.IdleSkip;
+import com.github.pfichtner.testcontainers.virtualavr.WaveformCapture;
+import com.github.pfichtner.testcontainers.virtualavr.WaveformCapture.PinWaveform;
+
+@Testcontainers
+class IdleSkipIT {
+
+	private static final String INTERNAL_LED = "13";
+	// interrupts may be dispatched up to one loop iteration later
+	private static final double TOLERANCE_SECONDS = 0.000_01;
+
+	@Container
+	VirtualAvrContainer<?> executingEveryInstruction = sleepingSketch(IdleSkip.OFF);
+
+	@Container
+	VirtualAvrContainer<?> skippingIdleCycles = sleepingSketch(IdleSkip.EXACT);
+
+	private static VirtualAvrContainer<?> sleepingSketch(IdleSkip idleSkip) {
+		return virtualAvrContainer(withSketchFromClasspath("/sleep/sleep.ino")).withIdleSkip(idleSkip)
+				.withPausedStartup();
+	}
+
+	@Test
+	void idleSkipIsOffByDefault() {
+		VirtualAvrConnection avr = executingEveryInstruction.avr();
+		avr.runFor(Duration.ofSeconds(1));
+		assertThat(avr.metrics().simulator().skippedCycles()).isZero();
+	}
+
+	@Test
+	void skippingIdleCyclesKeepsThePinEdges() {
+		VirtualAvrConnection expected = executingEveryInstruction.avr();
+		VirtualAvrConnection actual = skippingIdleCycles.avr();
+		double[] expectedEdges = ledEdges(expected);
+		double[] actualEdges = ledEdges(actual);
+
+		// sleep.ino toggles the led each 100ms
+		assertThat(expectedEdges).hasSizeBetween(9, 10);
+		assertThat(actualEdges).hasSameSizeAs(expectedEdges);
+		IntStream.range(0, expectedEdges.length)
+				.forEach(i -> assertThat(actualEdges[i]).isCloseTo(expectedEdges[i], within(TOLERANCE_SECONDS)));
+		assertThat(actual.metrics().simulator().skippedCycles()).isPositive();
+	}
+
+	private static double[] ledEdges(VirtualAvrConnection avr) {
+		avr.startCapture(INTERNAL_LED);
+		RunResult result = avr.runFor(Duration.ofSeconds(1));
+		assertThat(result.cpuTime()).isCloseTo(1.0, within(0.001));
+		WaveformCapture capture = avr.downloadCapture();
+		PinWaveform led = capture.pin(INTERNAL_LED);
+		return IntStream.range(0, led.edgeCount()).mapToDouble(i -> capture.cpuTime(led.edge(i))).toArray();
+	}
+
+}
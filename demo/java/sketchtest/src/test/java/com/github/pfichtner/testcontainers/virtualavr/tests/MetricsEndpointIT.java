@@ -0,0 +1,60 @@
+package com.github.pfichtner.testcontainers.virtualavr.tests;
+
+import static com.github.pfichtner.testcontainers.virtualavr.IOUtil.withSketchFromClasspath;
+import static com.github.pfichtner.testcontainers.virtualavr.TestcontainerSupport.virtualAvrContainer;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+
+@Testcontainers
+class MetricsEndpointIT {
+
+	private static final Pattern INSTRUCTIONS = Pattern.compile("(?m)^virtualavr_instructions_total (\\S+)$");
+
+	@Container
+	VirtualAvrContainer<?> virtualAvrContainer = virtualAvrContainer(withSketchFromClasspath("/blink/blink.ino"))
+			.withMetricsEndpoint();
+
+	HttpClient client = HttpClient.newHttpClient();
+
+	@Test
+	void metricsAreServedInThePrometheusTextFormat() {
+		await().untilAsserted(() -> {
+			HttpResponse<String> response = get(virtualAvrContainer.metricsEndpoint());
+			assertThat(response.statusCode()).isEqualTo(200);
+			assertThat(response.headers().firstValue("Content-Type")).hasValueSatisfying(
+					contentType -> assertThat(contentType).startsWith("text/plain").contains("version=0.0.4"));
+			assertThat(response.body()).contains("# HELP virtualavr_instructions_total ",
+					"# TYPE virtualavr_instructions_total counter");
+			Matcher matcher = INSTRUCTIONS.matcher(response.body());
+			assertThat(matcher.find()).isTrue();
+			assertThat(Double.parseDouble(matcher.group(1))).isPositive();
+		});
+	}
+
+	@Test
+	void otherPlainRequestsHaveToUpgrade() throws IOException, InterruptedException {
+		HttpResponse<String> response = get(virtualAvrContainer.metricsEndpoint().resolve("/"));
+		assertThat(response.statusCode()).isEqualTo(426);
+		assertThat(response.body()).isEqualTo("Upgrade Required");
+	}
+
+	private HttpResponse<String> get(URI uri) throws IOException, InterruptedException {
+		return client.send(HttpRequest.newBuilder(uri).GET().build(), BodyHandlers.ofString());
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.github.pfichtner.testcontainers.virtualavr.tests;
+
+import static com.github.pfichtner.testcontainers.virtualavr.IOUtil.withSketchFromClasspath;
+import static com.github.pfichtner.testcontainers.virtualavr.TestcontainerSupport.virtualAvrContainer;
+import static com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinReportMode.DIGITAL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.awaitility.Awaitility.await;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.CommandReply;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.RunResult;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.RunUntil.Edge;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.RunUntilResult;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+import com.github.pfichtner.testcontainers.virtualavr.WaveformCapture;
+import com.github.pfichtner.testcontainers.virtualavr.WaveformCapture.PinWaveform;
+
+@Testcontainers
+class SimulatedTimeIT {
+
+	private static final String INTERNAL_LED = "13";
+
+	@Container
+	VirtualAvrContainer<?> virtualAvrContainer = virtualAvrContainer(withSketchFromClasspath("/blink/blink.ino"))
+			.withPausedStartup();
+
+	@Test
+	void runCyclesPausesAfterTheCyclesHaveBeenExecuted() {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		RunResult first = avr.runCycles(16_000);
+		RunResult second = avr.runCycles(16_000);
+		assertThat(first.cycles()).isGreaterThanOrEqualTo(16_000);
+		assertThat(second.cycles() - first.cycles()).isBetween(16_000L, 16_004L);
+	}
+
+	@Test
+	void pausingFailsThePendingRun() {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		CompletableFuture<RunResult> run = avr.runCyclesAsync(16_000_000_000L);
+		avr.pause();
+		assertThatThrownBy(run::join).hasRootCauseInstanceOf(IllegalStateException.class).rootCause()
+				.hasMessage("paused before reaching the target");
+	}
+
+	@Test
+	void runForIsDeterministic() {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		avr.pinReportMode(INTERNAL_LED, DIGITAL);
+		RunResult result = avr.runFor(Duration.ofSeconds(2));
+		assertThat(result.cpuTime()).isCloseTo(2.0, within(0.001));
+		// blink.ino toggles the led each 250ms
+		assertThat(avr.pinStates().stream().filter(p -> INTERNAL_LED.equals(p.getPin())).count()).isBetween(8L, 10L);
+	}
+
+	@Test
+	void captureRecordsTheEdgesAtCycleResolution() {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		avr.startCapture(INTERNAL_LED);
+		avr.runFor(Duration.ofSeconds(2));
+		WaveformCapture capture = avr.downloadCapture();
+		PinWaveform led = capture.pin(INTERNAL_LED);
+		assertThat(capture.isOverflow()).isFalse();
+		assertThat(led.edgeCount()).isBetween(7, 9);
+		// blink.ino toggles the led each 250ms
+		for (int i = 1; i < led.edgeCount(); i++) {
+			assertThat(capture.cpuTime(led.edge(i) - led.edge(i - 1))).isCloseTo(0.25, within(0.001));
+		}
+		assertThat(capture.toVcd()).contains("$var wire 1 ! D13 $end");
+	}
+
+	@Test
+	void stimulusIsAppliedAtTheExactCyclesAfterItsTrigger() {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		String input = "2";
+		avr.startCapture(INTERNAL_LED, input);
+		avr.stimulus().triggeredBy(INTERNAL_LED, Edge.FALLING) //
+				.advanceCycles(1_000).set(input, true) //
+				.advanceCycles(16_000).set(input, false) //
+				.start();
+		avr.runFor(Duration.ofSeconds(1));
+		WaveformCapture capture = avr.downloadCapture();
+		PinWaveform led = capture.pin(INTERNAL_LED);
+		PinWaveform pulse = capture.pin(input);
+		assertThat(pulse.edgeCount()).isEqualTo(2);
+		int falling = led.stateAfter(0) ? 1 : 0;
+		assertThat(pulse.edge(0) - led.edge(falling)).isBetween(1_000L, 1_004L);
+		assertThat(pulse.edge(1) - pulse.edge(0)).isBetween(15_996L, 16_004L);
+	}
+
+	@Test
+	void batchIsAppliedAtOneCycleWithASingleReply() {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		List<UUID> replies = new CopyOnWriteArrayList<>();
+		avr.addCommandReplyListener(r -> replies.add(r.replyId()));
+		avr.startCapture("2", "3", "4");
+		avr.unpause();
+		CommandReply reply = avr.batch().pin("2", true).pin("3", true).pin("4", true).applyAsync().join();
+		UUID paused = avr.runCycles(0).replyId();
+		// the listeners get called after the futures got completed
+		await().untilAsserted(
+				() -> assertThat(replies).endsWith(reply.replyId(), paused).containsOnlyOnce(reply.replyId()));
+
+		WaveformCapture capture = avr.downloadCapture();
+		long cycles = capture.pin("2").edge(0);
+		assertThat(Stream.of("2", "3", "4").map(capture::pin)).allSatisfy(p -> {
+			assertThat(p.edgeCount()).isEqualTo(1);
+			assertThat(p.edge(0)).isEqualTo(cycles);
+		});
+	}
+
+	@Test
+	void runUntilPausesAtTheCpuTime() {
+		RunResult result = virtualAvrContainer.avr().runUntil(0.5);
+		assertThat(result.cpuTime()).isCloseTo(0.5, within(0.001));
+	}
+
+	@Test
+	void runUntilHaltsAtTheExactEdge() {
+		RunUntilResult result = virtualAvrContainer.avr().runUntil().pinFalls(INTERNAL_LED).run();
+		assertThat(result.isConditionMet()).isTrue();
+		assertThat(result.matched()).isEqualTo(0);
+		assertThat(result.cpuTime()).isCloseTo(0.25, within(0.01));
+	}
+
+	@Test
+	void runUntilHaltsWhenTheCycleBudgetIsExhausted() {
+		RunUntilResult result = virtualAvrContainer.avr().runUntil().serialContains("never sent").maxCycles(1_000)
+				.run();
+		assertThat(result.isConditionMet()).isFalse();
+		assertThat(result.cycles()).isBetween(1_000L, 1_004L);
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.github.pfichtner.testcontainers.virtualavr.tests;
+
+import static com.github.pfichtner.testcontainers.virtualavr.IOUtil.withSketchFromClasspath;
+import static com.github.pfichtner.testcontainers.virtualavr.TestcontainerSupport.virtualAvrContainer;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+
+@Testcontainers
+class SpeedFactorIT {
+
+	@Container
+	VirtualAvrContainer<?> virtualAvrContainer = virtualAvrContainer(withSketchFromClasspath("/blink/blink.ino"))
+			.withSpeedFactor(0.5);
+
+	@Test
+	void runsAtHalfSpeed() throws InterruptedException {
+		assertThat(simulatedSecondsPerTwoSeconds(virtualAvrContainer.avr())).isCloseTo(1.0, within(0.3));
+	}
+
+	@Test
+	void speedCanBeChangedAtRuntime() throws InterruptedException {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		avr.speed(2.0);
+		assertThat(simulatedSecondsPerTwoSeconds(avr)).isCloseTo(4.0, within(1.0));
+	}
+
+	@Test
+	void invalidSpeedFactorsAreRejected() {
+		VirtualAvrConnection avr = virtualAvrContainer.avr();
+		assertThatThrownBy(() -> avr.speed(1000)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private static double simulatedSecondsPerTwoSeconds(VirtualAvrConnection avr) throws InterruptedException {
+		// runCycles(0) replies immediately with the current cpu time (and pauses the simulation)
+		double start = avr.runCycles(0).cpuTime();
+		avr.unpause();
+		TimeUnit.SECONDS.sleep(2);
+		return avr.runCycles(0).cpuTime() - start;
+	}
+
+}
@@ -15,13 +15,17 @@ import static java.lang.System.currentTimeMillis;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.function.Predicate.isEqual;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.awaitility.Awaitility.await;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -29,11 +33,15 @@ import org.junit.jupiter.api.Test;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 
+import com.github.pfichtner.testcontainers.virtualavr.DefaultVirtualAvrConnection;
+import com.github.pfichtner.testcontainers.virtualavr.PinSnapshot;
 import com.github.pfichtner.testcontainers.virtualavr.SerialConnection;
 import com.github.pfichtner.testcontainers.virtualavr.SerialConnectionAwait;
+import com.github.pfichtner.testcontainers.virtualavr.SimulatorMetrics;
 import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection;
 import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.Listener;
 import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PinState;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.PortState;
 import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.SerialDebug;
 import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrConnection.SerialDebug.Direction;
 import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
@@ -134,6 +142,16 @@ class VirtualAvrIT {
 				.contains(stateOfPinIs(PWM_PIN, 42)));
 	}
 
+	@Test
+	void pwmDutyIsReportedExactly() {
+		VirtualAvrConnection virtualAvr = virtualAvrContainer.avr();
+		virtualAvr.pinReportMode(PWM_PIN, ANALOG);
+		await().untilAsserted(() -> assertThat(virtualAvr.pinStates()).contains(stateOfPinIs(PWM_PIN, 42)));
+		// the duty is calculated from the timer registers, so there are no sampled values in between
+		assertThat(virtualAvr.pinStates()).filteredOn(p -> PWM_PIN.equals(p.getPin()))
+				.allMatch(p -> p.equals(stateOfPinIs(PWM_PIN, 0)) || p.equals(stateOfPinIs(PWM_PIN, 42)));
+	}
+
 	@Test
 	void canSwitchOffListening() throws InterruptedException {
 		VirtualAvrConnection virtualAvr = virtualAvrContainer.avr();
@@ -147,6 +165,83 @@ class VirtualAvrIT {
 		assertThat(virtualAvr.pinStates().stream()).noneMatch(s -> INTERNAL_LED.equals(s.getPin()));
 	}
 
+	@Test
+	void connectionsOnlyReceiveThePinsTheySubscribedTo() throws InterruptedException {
+		try (VirtualAvrConnection observer = DefaultVirtualAvrConnection.connectionToVirtualAvr(virtualAvrContainer)) {
+			VirtualAvrConnection virtualAvr = virtualAvrContainer.avr();
+			virtualAvr.pinReportMode(INTERNAL_LED, DIGITAL);
+			long timeToTogglePinThreeTimes = waitForToggles(INTERNAL_LED, 3);
+
+			MILLISECONDS.sleep(timeToTogglePinThreeTimes);
+			assertThat(observer.pinStates().stream()).noneMatch(s -> INTERNAL_LED.equals(s.getPin()));
+		}
+	}
+
+	@Test
+	void pinChangesAreReceivedAsPortStates() {
+		List<PortState> portStates = new CopyOnWriteArrayList<>();
+		VirtualAvrConnection virtualAvr = virtualAvrContainer.avr().addPortStateListener(portStates::add);
+		virtualAvr.pinReportMode(INTERNAL_LED, DIGITAL);
+		waitForToggles(INTERNAL_LED, 3);
+		assertThat(portStates).isNotEmpty().allSatisfy(p -> {
+			assertThat(p.port()).isEqualTo("B");
+			assertThat(p.isChanged(5)).isTrue();
+			assertThat(p.pin(5)).isEqualTo(INTERNAL_LED);
+		});
+	}
+
+	@Test
+	void metricsReportTheSimulatorsCounters() {
+		VirtualAvrConnection virtualAvr = virtualAvrContainer.avr();
+		virtualAvr.pinReportMode(INTERNAL_LED, DIGITAL);
+		waitForToggles(INTERNAL_LED, 1);
+
+		await().untilAsserted(() -> {
+			SimulatorMetrics metrics = virtualAvr.metrics();
+			assertThat(metrics.simulator().instructions()).isPositive();
+			assertThat(metrics.simulator().cycles()).isPositive();
+			assertThat(metrics.simulator().instructionsPerSecond()).isPositive();
+			assertThat(metrics.simulator().chunkMillis().count()).isPositive();
+			assertThat(metrics.server().sentMessages()).containsKey("pinState");
+			assertThat(metrics.clients()).isNotEmpty().anySatisfy(c -> assertThat(c.sentMessages()).isPositive());
+		});
+	}
+
+	@Test
+	void snapshotContainsAllPinsWithoutListening() {
+		VirtualAvrConnection virtualAvr = virtualAvrContainer.avr();
+		virtualAvr.pinState("A0", 42);
+		await().untilAsserted(() -> {
+			PinSnapshot snapshot = virtualAvr.snapshotPins();
+			assertThat(snapshot.cycles()).isPositive();
+			assertThat(snapshot.digital()).containsKeys(INTERNAL_LED, "A0");
+			assertThat(snapshot.ports()).containsKeys("B", "C", "D");
+			assertThat(snapshot.analog("A0")).isEqualTo(42);
+			assertThat(snapshot.pwm(PWM_PIN)).isEqualTo(42);
+		});
+	}
+
+	@Test
+	void commandsExceedingTheCommandRingAreAnsweredWithAnError() {
+		VirtualAvrConnection virtualAvr = virtualAvrContainer.avr();
+		int[] samples = new int[500_000];
+		Arrays.fill(samples, 1023);
+		assertThatThrownBy(() -> virtualAvr.analogPlayback("A0", samples, 1000, false))
+				.hasRootCauseInstanceOf(IllegalStateException.class).rootCause()
+				.hasMessageContaining("exceeds the command ring");
+		// the commands sent afterwards are still executed
+		virtualAvr.pinState("A0", 42);
+		await().untilAsserted(() -> assertThat(virtualAvr.snapshotPins().analog("A0")).isEqualTo(42));
+	}
+
+	@Test
+	void pinsWithControlCharactersAreRejected() {
+		VirtualAvrConnection virtualAvr = virtualAvrContainer.avr();
+		assertThatThrownBy(() -> virtualAvr.pinState("13\n\t", true))
+				.hasRootCauseInstanceOf(IllegalStateException.class).rootCause()
+				.hasMessageContaining("control characters are not allowed");
+	}
+
 	private long waitForToggles(String pin, int times) {
 		VirtualAvrConnection virtualAvr = virtualAvrContainer.avr();
 		long start = currentTimeMillis();
@@ -0,0 +1,44 @@
+package com.github.pfichtner.testcontainers.virtualavr.tests;
+
+import static com.github.pfichtner.testcontainers.virtualavr.IOUtil.withSketchFromClasspath;
+import static com.github.pfichtner.testcontainers.virtualavr.SerialConnectionAwait.awaiter;
+import static com.github.pfichtner.testcontainers.virtualavr.TestcontainerSupport.virtualAvrContainer;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import com.github.pfichtner.testcontainers.virtualavr.SerialConnectionAwait;
+import com.github.pfichtner.testcontainers.virtualavr.VirtualAvrContainer;
+import com.github.pfichtner.testcontainers.virtualavr.WebSocketSerialConnection;
+
+@Testcontainers
+class WebSocketSerialIT {
+
+	@Container
+	VirtualAvrContainer<?> virtualAvrContainer = virtualAvrContainer( //
+			withSketchFromClasspath("/byteecho/byteecho.ino")) //
+			.withWebSocketSerial() //
+	;
+
+	@Test
+	void startRemovesDevBind() {
+		assertThat(virtualAvrContainer.getBinds().stream().map(Object::toString))
+				.doesNotContain(VirtualAvrContainer.containerDev);
+	}
+
+	@Test
+	void canReadAndWriteViaWebSocket() throws Exception {
+		assertThat(virtualAvrContainer.serialConnection()).isInstanceOf(WebSocketSerialConnection.class);
+		SerialConnectionAwait awaiter = awaiter(virtualAvrContainer.serialConnection());
+		for (int i = 0; i < 255; i++) {
+			byte[] arr = new byte[] { (byte) i };
+			awaiter.sendAwait(arr, b -> Arrays.equals(b, arr));
+		}
+		awaiter.sendAwait(new byte[] { (byte) 255 }, b -> Arrays.equals(b, new byte[] { (byte) 255, 0 }));
+	}
+
+}
@@ -0,0 +1,24 @@
+#include <avr/sleep.h>
+
+#define LED LED_BUILTIN
+
+// toggles the led each 100ms, the cpu sleeps in between
+ISR(TIMER1_COMPA_vect) {
+        digitalWrite(LED, !digitalRead(LED));
+}
+
+void setup() {
+        pinMode(LED, OUTPUT);
+        noInterrupts();
+        TCCR1A = 0;
+        // CTC mode, prescaler 256: 16MHz / 256 / 6250 = 10Hz
+        TCCR1B = _BV(WGM12) | _BV(CS12);
+        OCR1A = 6249;
+        TIMSK1 = _BV(OCIE1A);
+        interrupts();
+        set_sleep_mode(SLEEP_MODE_IDLE);
+}
+
+void loop() {
+        sleep_mode();
+}
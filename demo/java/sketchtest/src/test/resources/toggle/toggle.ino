@@ -0,0 +1,10 @@
+// toggles the pins 12 and 13 as fast as possible, produces more pin states than a client can read
+
+void setup() {
+        pinMode(12, OUTPUT);
+        pinMode(13, OUTPUT);
+}
+
+void loop() {
+        PORTB ^= _BV(PB4) | _BV(PB5);
+}
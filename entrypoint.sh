@@ -26,8 +26,13 @@ virtualavr-compile-arduino "/sketch/$FILENAME" "$HEXFILE" || exit 1
 # TCP serial mode: connect to a TCP port on the host instead of creating a local PTY
 # This allows the serial port to work on macOS/Windows with Docker Desktop
 SERIAL_TCP=${SERIAL_TCP:-}
+# WebSocket serial mode: serial data is carried over the websocket, neither socat nor a PTY is needed
+SERIAL_WEBSOCKET=${SERIAL_WEBSOCKET:-}
 
-if [ -n "$SERIAL_TCP" ]; then
+if [ "$SERIAL_WEBSOCKET" == 'true' ]; then
+    echo "Using WebSocket serial mode: serial data is carried over the websocket"
+    SERIAL_WEBSOCKET=true node /app/virtualavr.js "$HEXFILE" &
+elif [ -n "$SERIAL_TCP" ]; then
     echo "Using TCP serial mode: connecting to $SERIAL_TCP"
     socat ${VERBOSITY:-} tcp:"$SERIAL_TCP" EXEC:"node /app/virtualavr.js $HEXFILE",pty,rawer,fdin=3,fdout=4 &
 else
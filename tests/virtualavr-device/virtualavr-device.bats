@@ -153,3 +153,27 @@ fail() {
   kill "$SOCAT_PID"
   wait "$ENTRYPOINT_PID" 2>/dev/null || true
 }
+
+@test "entrypoint starts node without socat when SERIAL_WEBSOCKET is true" {
+  export SERIAL_WEBSOCKET=true
+
+  # Prepare mocks to capture whether socat or node get called
+  SOCAT_CALLED_FILE="$TEST_ROOTDIR/socat_called.txt"
+  NODE_CALLED_FILE="$TEST_ROOTDIR/node_called.txt"
+  mkdir -p "$TEST_ROOTDIR/mocks"
+  echo -e '#!/usr/bin/env bash\necho "$*" > '"$SOCAT_CALLED_FILE" > "$TEST_ROOTDIR/mocks/socat"
+  echo -e '#!/usr/bin/env bash\necho "$SERIAL_WEBSOCKET $*" > '"$NODE_CALLED_FILE" > "$TEST_ROOTDIR/mocks/node"
+  chmod +x "$TEST_ROOTDIR/mocks/socat" "$TEST_ROOTDIR/mocks/node"
+
+  PATH="$TEST_ROOTDIR/mocks:$PATH"
+
+  run bash "$TEMP_ENTRYPOINT"
+
+  # Verify node was started directly and socat was not called at all
+  [ -e "$NODE_CALLED_FILE" ] || fail "node was not started"
+  [[ "$(cat "$NODE_CALLED_FILE")" == "true /app/virtualavr.js "* ]] || fail "node did not get SERIAL_WEBSOCKET and virtualavr.js"
+  [ ! -e "$SOCAT_CALLED_FILE" ] || fail "socat must not be called in WebSocket serial mode"
+
+  # Verify no PTY device created
+  [ ! -e "$TEST_ROOTDIR/dev/virtualavr0" ] || fail "/dev/virtualavr0 should not exist in WebSocket serial mode"
+}
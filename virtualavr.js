@@ -1,7 +1,9 @@
 const os = require('os')
 const fs = require('fs');
 const fsp = require('fs').promises;
+const http = require('http');
 const { performance } = require('perf_hooks');
+const { Worker, isMainThread, workerData } = require('worker_threads');
 const avr8js = require('avr8js');
 const intelhex = require('intel-hex');
 
@@ -9,16 +11,49 @@ const ws = require('ws');
 
 const PUBLISH_MILLIS = process.env.PUBLISH_MILLIS || 250;
 const BATCH_MILLIS = Number(process.env.BATCH_MILLIS) || 0;
+// upper bound for the instructions executed between two checks for websocket messages and serial input
 const INSTRUCTION_CHUNK_SIZE = Number(process.env.INSTRUCTION_CHUNK_SIZE) || 500000;
+// chunks get sized so that they take at most this many (host) millis, this is the max latency of commands
+const MAX_COMMAND_LATENCY = Number(process.env.MAX_COMMAND_LATENCY) || 2;
+// optional upper bound for the instructions the simulator thread executes before it checks for commands and serial
+// input, by default the chunks are sized by MAX_COMMAND_LATENCY only
+const COMMAND_POLL_INSTRUCTIONS = Number(process.env.COMMAND_POLL_INSTRUCTIONS) || Infinity;
 const REALTIME = process.env.REALTIME === 'true';
+const MIN_SPEED_FACTOR = 0.1;
+const MAX_SPEED_FACTOR = 100;
+// simulated time per wall-clock time (REALTIME=true is 1), 0 runs as fast as possible
+const SPEED_FACTOR = Number(process.env.SPEED_FACTOR) || (REALTIME ? 1 : 0);
 const MIN_DIFF_TO_PUBLISH = process.env.MIN_DIFF_TO_PUBLISH || 0;
+const SERIAL_WEBSOCKET = process.env.SERIAL_WEBSOCKET === 'true';
+// 'off' (default) executes every instruction, 'exact' skips SLEEP and loops that cannot change state until the next
+// event, 'loose' additionally skips loops polling the timer counters (e.g. delay()), they may end up to one interrupt
+// period late
+const IDLE_SKIP = process.env.IDLE_SKIP || 'off';
+// bytes buffered for a websocket client before the backpressure policy applies
+const CLIENT_HIGH_WATER_MARK = Number(process.env.CLIENT_HIGH_WATER_MARK) || 4 << 20;
+// 'drop-oldest' (default), 'coalesce' (keep the latest pin state per pin) or 'pause' (hold the cpu until drained)
+const BACKPRESSURE_POLICY = process.env.BACKPRESSURE_POLICY || 'drop-oldest';
+const BACKPRESSURE_POLICIES = ['drop-oldest', 'coalesce', 'pause'];
+// serve the metrics in the Prometheus text format at http://<host>:8080/metrics
+const METRICS_ENDPOINT = process.env.METRICS_ENDPOINT === 'true';
 let isPaused = !!process.env.PAUSE_ON_START;
+let speedFactor = validSpeedFactor(SPEED_FACTOR) ? SPEED_FACTOR : 0;
+// wall-clock time and cpu cycles the paced simulation is synchronized to
+const pacing = { startTime: 0, startCycles: 0 };
+// pending runCycles/runUntil/runFor request: { cycles, msg }, the cpu pauses when reaching the target cycles
+let runTarget = null;
+// the instruction loop stops as soon as the cpu reaches these cycles (set to cpu.cycles to halt immediately)
+let haltAtCycles = Infinity;
+// conditions of a pending runUntil request, evaluated inside the simulator loop
+let runConditions = null;
 
-// Open custom file descriptors
-const input = fs.createReadStream(null, { fd: 3 });
-const output = fs.createWriteStream(null, { fd: 4 });
+// Binary websocket frames start with one of these type bytes followed by the payload
+const BINARY_SERIAL_DATA = 0x01;
+const BINARY_CAPTURE = 0x02;
 
 let messageQueue = [];
+// bytes received that were not yet passed to the usart
+const serialRxBuffer = [];
 var cpu;
 var adc;
 const ports = {};
@@ -29,22 +64,26 @@ const activeAnalogListeners = new Set();
 const activeDigitalListeners = new Set();
 let sending = false;
 var serialDebug;
-var lastPublish = new Date();
+// publish the changes of digital pins as one portState message per port write instead of one message per pin
+var portEvents = false;
+var serialData;
+var serialReceive;
+var lastPublish = performance.now();
 
 const clockFrequency = 16e6;  // 16 MHz
 const unoPinMappings = {
      '0': { port: 'D', pin: 0 },
      '1': { port: 'D', pin: 1 },
      '2': { port: 'D', pin: 2 },
-     '3': { port: 'D', pin: 3, pwmFrequency: 490 }, // PWM (Timer 2)
+     '3': { port: 'D', pin: 3, pwmFrequency: 490, pwm: { timer: 2, channel: 'B' } }, // PWM (Timer 2)
      '4': { port: 'D', pin: 4 },
-     '5': { port: 'D', pin: 5, pwmFrequency: 980 }, // PWM (Timer 0)
-     '6': { port: 'D', pin: 6, pwmFrequency: 980 }, // PWM (Timer 0)
+     '5': { port: 'D', pin: 5, pwmFrequency: 980, pwm: { timer: 0, channel: 'B' } }, // PWM (Timer 0)
+     '6': { port: 'D', pin: 6, pwmFrequency: 980, pwm: { timer: 0, channel: 'A' } }, // PWM (Timer 0)
      '7': { port: 'D', pin: 7 },
      '8': { port: 'B', pin: 0 },
-     '9': { port: 'B', pin: 1, pwmFrequency: 490 }, // PWM (Timer 1)
-    '10': { port: 'B', pin: 2, pwmFrequency: 490 }, // PWM (Timer 1)
-    '11': { port: 'B', pin: 3, pwmFrequency: 490 }, // PWM (Timer 2)
+     '9': { port: 'B', pin: 1, pwmFrequency: 490, pwm: { timer: 1, channel: 'A' } }, // PWM (Timer 1)
+    '10': { port: 'B', pin: 2, pwmFrequency: 490, pwm: { timer: 1, channel: 'B' } }, // PWM (Timer 1)
+    '11': { port: 'B', pin: 3, pwmFrequency: 490, pwm: { timer: 2, channel: 'A' } }, // PWM (Timer 2)
     '12': { port: 'B', pin: 4 },
     '13': { port: 'B', pin: 5 },
     'A0': { port: 'C', pin: 0 },
@@ -92,15 +131,25 @@ const LAST_STATE_CYCLES_OFFSET = 1;
 const LAST_UPDATE_CYCLES_OFFSET = 2;
 const LAST_STATE_PUBLISHED_OFFSET = 3;
 const PIN_HIGH_CYCLES_OFFSET = 4;
+const portStates = new Float64Array(NUM_PINS * FIELDS_PER_PIN);
+// 1 if the duty of the pin (indexed by pinToIndex) has to be sampled by accounting its high cycles, that is, it is
+// listened to in analog mode and not driven by a hardware PWM channel (those are reported exactly, see pwmDuty)
+const sampledPins = new Uint8Array(NUM_PINS);
 
 const args = process.argv.slice(2);
 
-const runCode = async (hexContent, portCallback) => {
+/**
+ * Loads the hex file and sets up the cpu and its peripherals.
+ */
+const setupSimulation = (hexContent, portCallback) => {
     const { data } = intelhex.parse(fs.readFileSync(hexContent));
     const progData = new Uint8Array(data);
 
     // Set up the simulation
     cpu = new avr8js.CPU(new Uint16Array(progData.buffer));
+    if (peripheralProfile.enabled) {
+        profileClockEvents();
+    }
     adc = new avr8js.AVRADC(cpu, avr8js.adcConfig);
 
     for (const mapping of Object.values(unoPinMappings)) {
@@ -110,7 +159,6 @@ const runCode = async (hexContent, portCallback) => {
         }
     }
 
-    const portStates = new Float64Array(NUM_PINS * FIELDS_PER_PIN);
     const handlePort = (portName, portCallback) => {        
         const port = ports[portName];
         const arduinoPins = portAvrPinToArduino[portName] || [];
@@ -122,6 +170,8 @@ const runCode = async (hexContent, portCallback) => {
             }
             lastValue = value;
 
+            // bits of the pins listened to that changed, published as one portState message (see portEvents)
+            let publishMask = 0;
             for (let i = 0; i < arduinoPins.length; i++) {
                 if (changed & (1 << i)) {
                     const arduinoPin = arduinoPins[i];
@@ -130,19 +180,34 @@ const runCode = async (hexContent, portCallback) => {
 
                     const lastState = portStates[idx + LAST_STATE_OFFSET] === 1;
                     if (lastState !== state) {
-                        if (lastState) {
+                        if (lastState && sampledPins[pinToIndex[arduinoPin]]) {
                             portStates[idx + PIN_HIGH_CYCLES_OFFSET] += (cpu.cycles - portStates[idx + LAST_STATE_CYCLES_OFFSET]);
                         }
                         portStates[idx + LAST_STATE_OFFSET] = state ? 1 : 0;
                         portStates[idx + LAST_STATE_CYCLES_OFFSET] = cpu.cycles;
                         if (listeningModes[arduinoPin] === 'digital') {
-                            const cpuTime = (cpu.cycles / clockFrequency).toFixed(6);
-                            portCallback({ type: 'pinState', pin: arduinoPin, state: state, cpuTime: cpuTime });
+                            if (portEvents) {
+                                publishMask |= 1 << i;
+                            } else {
+                                const cpuTime = (cpu.cycles / clockFrequency).toFixed(6);
+                                portCallback({ type: 'pinState', pin: arduinoPin, state: state, cpuTime: cpuTime });
+                            }
                             portStates[idx + LAST_STATE_PUBLISHED_OFFSET] = state ? 1 : 0;
                         }
+                        if (runConditions) {
+                            checkPinConditions(arduinoPin, state);
+                        }
+                        if (armedStimuli.length > 0) {
+                            checkStimulusTriggers(arduinoPin, state);
+                        }
                     }
                 }
             }
+            if (publishMask !== 0) {
+                const cpuTime = (cpu.cycles / clockFrequency).toFixed(6);
+                portCallback({ type: 'portState', port: portName, value: portValue(portName, 0xFF), mask: publishMask,
+                    cycles: cpu.cycles, cpuTime: cpuTime });
+            }
         });
     };
     handlePort('B', portCallback);
@@ -150,17 +215,20 @@ const runCode = async (hexContent, portCallback) => {
 
     const usart = new avr8js.AVRUSART(cpu, avr8js.usart0Config, clockFrequency);
     usart.onByteTransmit = data => {
-            const arrBuff = new Uint8Array(1);
-            arrBuff[0] = data;
-            output.write(arrBuff);
+            if (serialData) {
+                portCallback({ type: 'serialData', bytes: [data] });
+            }
+            if (runConditions) {
+                checkSerialConditions(data);
+            }
             if (serialDebug) {
                 portCallback({ type: 'serialDebug', direction: 'TX', bytes: [data] });
             }
     }
-    const buff = [];
+    const buff = serialRxBuffer;
     usart.onRxComplete = () => sendNextChar(buff, usart);
-    input.on('data', data => {
-            var bytes = Array.prototype.slice.call(data, 0);
+    serialReceive = bytes => {
+            schedulerBusy();
             for (let i = 0; i < bytes.length; i++) buff.push(bytes[i]);
             if (!sending) {
                 sending = true;
@@ -169,70 +237,74 @@ const runCode = async (hexContent, portCallback) => {
             if (serialDebug) {
                 portCallback({ type: 'serialDebug', direction: 'RX', bytes: bytes });
             }
-    });
+    };
 
-    new avr8js.AVRTimer(cpu, avr8js.timer0Config);
-    new avr8js.AVRTimer(cpu, avr8js.timer1Config);
-    new avr8js.AVRTimer(cpu, avr8js.timer2Config);
+    const timers = [
+        new avr8js.AVRTimer(cpu, avr8js.timer0Config),
+        new avr8js.AVRTimer(cpu, avr8js.timer1Config),
+        new avr8js.AVRTimer(cpu, avr8js.timer2Config),
+    ];
+    setupPwm(portCallback);
+    setupCapture();
+    if (peripheralProfile.enabled) {
+        profileHooks();
+    }
+    setupIdleSkip(timers);
+};
 
-    let syncStartTime = performance.now();
-    let syncStartCycles = cpu.cycles;
-    let lastRealtimeCheck = syncStartTime;
+const runCode = async (hexContent, portCallback, host = inProcessHost()) => {
+    if (host.serialOutput) {
+        // the transmitted bytes are written to the stream instead of being passed to the callback
+        const output = host.serialOutput;
+        const callback = portCallback;
+        serialData = true;
+        portCallback = msg => msg.type === 'serialData' ? output.write(Uint8Array.from(msg.bytes)) : callback(msg);
+    }
+    setupSimulation(hexContent, portCallback);
 
+    resetPacing();
+    scheduler.maxChunk = host.maxChunk;
     while (true) {
-        if (!isPaused) {
-            if (REALTIME) {
-                const now = performance.now();
-                if (now - lastRealtimeCheck > 1) { // 1ms threshold
-                    const elapsedMs = now - syncStartTime;
-                    const targetCycles = Math.floor((elapsedMs * clockFrequency) / 1000);
-                    let cyclesToRun = targetCycles - (cpu.cycles - syncStartCycles);
-
-                    if (cyclesToRun > 0) {
-                        const maxBurst = clockFrequency / 10;
-                        if (cyclesToRun > maxBurst) {
-                            cyclesToRun = maxBurst;
-                            syncStartTime = now;
-                            syncStartCycles = cpu.cycles;
-                        }
-
-                        while (cyclesToRun > 0 && !isPaused) {
-                            const prevCycles = cpu.cycles;
-                            avr8js.avrInstruction(cpu);
-                            cpu.tick();
-                            cyclesToRun -= (cpu.cycles - prevCycles);
-                        }
-                    }
-                    lastRealtimeCheck = now;
-                }
+        let waitMillis = 0;
+        // a slow client with backpressure policy 'pause' holds the cpu (throttled) until it drained its buffer
+        if (!isPaused && !host.throttled()) {
+            if (speedFactor > 0 && !runTarget) {
+                waitMillis = runPaced();
             } else {
-                for (let i = 0; i < INSTRUCTION_CHUNK_SIZE; i++) {
-                    avr8js.avrInstruction(cpu);
-                    cpu.tick();
+                runChunk(Infinity);
+                if (runTarget && cpu.cycles >= haltAtCycles) {
+                    finishRun(portCallback);
                 }
             }
         } else {
-            syncStartTime = performance.now();
-            syncStartCycles = cpu.cycles;
-            lastRealtimeCheck = syncStartTime;
+            resetPacing();
+            waitMillis = PAUSED_WAIT_MILLIS;
+        }
+        const yielded = host.yield(waitMillis);
+        if (yielded) {
+            await yielded;
         }
-        await new Promise(resolve => setTimeout(resolve));
 
         try {
-            while (messageQueue.length > 0) {
-                processMessage(messageQueue.shift(), portCallback);
+            const commands = host.poll(msg => processMessage(msg, portCallback));
+            if (commands > 0) {
+                simulatorStats[STAT_COMMANDS] += commands;
+                schedulerBusy();
             }
         } catch (e) {
             console.log(e);
         }
+        simulatorStats[STAT_PAUSED] = isPaused ? 1 : 0;
+        simulatorStats[STAT_SPEED_FACTOR] = speedFactor;
+        simulatorStats[STAT_SERIAL_RX_QUEUED] = serialRxBuffer.length;
 
-        const now = new Date();
+        const now = performance.now();
         if (now - lastPublish > PUBLISH_MILLIS) {
             lastPublish = now;
 
             for (const arduinoPin of activeAnalogListeners) {
                 const mapping = pinToAvr[arduinoPin];
-                if (!mapping) continue;
+                if (!mapping || !sampledPins[pinToIndex[arduinoPin]]) continue;
 
                 const port = ports[mapping.port];
                 const avrPin = mapping.pin;
@@ -260,127 +332,2139 @@ const runCode = async (hexContent, portCallback) => {
     }
 }
 
-function sendNextChar(buff, usart) {
-    if (buff.length > 0) {
-        const ch = buff.shift();
-        usart.writeByte(ch);
-    } else {
-        sending = false;
+const CAPTURE_PORTS = ['B', 'C', 'D'];
+const CAPTURE_DEFAULT_SAMPLES = 1 << 20;
+const CAPTURE_MAX_SAMPLES = 1 << 24;
+// cycles (float64), port index (uint8), port value (uint8)
+const CAPTURE_SAMPLE_SIZE = 10;
+
+/**
+ * Waveform capture: each change of the captured pins gets recorded as (cycles, port, value) into preallocated
+ * typed arrays instead of being published as pinState message. The capture stops recording (overflow) when the
+ * buffer is full.
+ */
+const capture = {
+    active: false,
+    pins: {},
+    masks: new Uint8Array(CAPTURE_PORTS.length),
+    last: new Uint8Array(CAPTURE_PORTS.length),
+    cycles: new Float64Array(0),
+    ports: new Uint8Array(0),
+    values: new Uint8Array(0),
+    size: 0,
+    overflow: false,
+    startCycles: 0,
+    endCycles: 0,
+};
+
+function setupCapture() {
+    CAPTURE_PORTS.forEach((portName, index) => {
+        const port = ports[portName];
+        if (port) {
+            port.addListener(value => {
+                const masked = value & capture.masks[index];
+                if (masked !== capture.last[index]) {
+                    capture.last[index] = masked;
+                    captureSample(index, masked);
+                }
+            });
+        }
+    });
+}
+
+function captureSample(portIndex, value) {
+    const size = capture.size;
+    if (size === capture.cycles.length) {
+        capture.overflow = true;
+        return;
     }
+    capture.cycles[size] = cpu.cycles;
+    capture.ports[size] = portIndex;
+    capture.values[size] = value;
+    capture.size = size + 1;
 }
 
-function processMessage(msg, callbackPinState) {
-    // { "type": "pinMode", "pin": "12", "mode": "analog" }
-    const mapping = pinToAvr[msg.pin];
-    if (msg.type === 'pinMode') {
-        if (msg.mode === 'analog' || msg.mode === 'pwm') {
-            listeningModes[msg.pin] = 'analog';
-            activeAnalogListeners.add(msg.pin);
-            activeDigitalListeners.delete(msg.pin);
-        } else if (msg.mode === 'digital') {
-            listeningModes[msg.pin] = 'digital';
-            activeAnalogListeners.delete(msg.pin);
-            activeDigitalListeners.add(msg.pin);
-            const cpuTime = (cpu.cycles / clockFrequency).toFixed(6);
-            // Immediately publish the current state
-            if (mapping && (mapping.port === 'B' || mapping.port === 'D')) {
-                const state = ports[mapping.port].pinState(mapping.pin) === avr8js.PinState.High;
-                callbackPinState({ type: 'pinState', pin: msg.pin, state: state, cpuTime: cpuTime });
-            }
-        } else {
-            listeningModes[msg.pin] = undefined;
-            activeAnalogListeners.delete(msg.pin);
-            activeDigitalListeners.delete(msg.pin);
+function portValue(portName, mask) {
+    let value = 0;
+    for (let bit = 0; bit < 8; bit++) {
+        if ((mask & (1 << bit)) && ports[portName].pinState(bit) === avr8js.PinState.High) {
+            value |= 1 << bit;
         }
-    } else if (msg.type === 'fakePinState' || msg.type === 'pinState') {
-        if (typeof msg.state === 'boolean') {
-            // { "type": "pinState", "pin": "12", "state": true }
-            if (mapping && (mapping.port === 'B' || mapping.port === 'D')) {
-                ports[mapping.port].setPin(mapping.pin, msg.state);
-            }
-        } else if (typeof msg.state === 'number') {
-            // { "type": "pinState", "pin": "12", "state": 42 }
-            if (mapping && (mapping.port === 'C' || mapping.port === 'D')) {
-                adc.channelValues[mapping.pin] = msg.state * 5 / 1024;
+    }
+    return value;
+}
+
+/**
+ * { "type": "capture", "action": "start", "pins": [ "13", "9" ], "maxSamples": 100000 }
+ * Returns an error message or null if the capture has been started.
+ */
+function startCapture(msg) {
+    const pins = Array.isArray(msg.pins) ? msg.pins : [];
+    const unknown = pins.filter(pin => !pinToAvr[pin]);
+    if (pins.length === 0 || unknown.length > 0) {
+        return `Invalid capture pins ${JSON.stringify(unknown.length > 0 ? unknown : pins)}`;
+    }
+    const maxSamples = msg.maxSamples === undefined ? CAPTURE_DEFAULT_SAMPLES : Number(msg.maxSamples);
+    if (!(maxSamples > 0 && maxSamples <= CAPTURE_MAX_SAMPLES)) {
+        return `Invalid maxSamples ${msg.maxSamples}, allowed 1..${CAPTURE_MAX_SAMPLES}`;
+    }
+    if (capture.cycles.length !== maxSamples) {
+        capture.cycles = new Float64Array(maxSamples);
+        capture.ports = new Uint8Array(maxSamples);
+        capture.values = new Uint8Array(maxSamples);
+    }
+    capture.pins = {};
+    capture.masks.fill(0);
+    for (const pin of pins) {
+        const mapping = pinToAvr[pin];
+        capture.pins[pin] = { port: mapping.port, bit: mapping.pin };
+        capture.masks[CAPTURE_PORTS.indexOf(mapping.port)] |= 1 << mapping.pin;
+    }
+    capture.size = 0;
+    capture.overflow = false;
+    capture.active = true;
+    capture.startCycles = cpu.cycles;
+    // the initial state of each captured port is the first sample
+    CAPTURE_PORTS.forEach((portName, index) => {
+        if (capture.masks[index]) {
+            capture.last[index] = portValue(portName, capture.masks[index]);
+            captureSample(index, capture.last[index]);
+        }
+    });
+    return null;
+}
+
+function stopCapture() {
+    if (capture.active) {
+        capture.active = false;
+        capture.endCycles = cpu.cycles;
+        capture.masks.fill(0);
+        capture.last.fill(0);
+    }
+}
+
+/**
+ * The binary frame of the capture: type byte (BINARY_CAPTURE), length of the metadata (uint32), the metadata as
+ * JSON (UTF-8) followed by the samples (float64 cycles, uint8 port index, uint8 port value), all little endian.
+ */
+function captureFrame(replyId) {
+    const metadata = textEncoder.encode(JSON.stringify({
+        replyId: replyId,
+        clockFrequency: clockFrequency,
+        startCycles: capture.startCycles,
+        endCycles: capture.active ? cpu.cycles : capture.endCycles,
+        samples: capture.size,
+        overflow: capture.overflow,
+        ports: CAPTURE_PORTS,
+        pins: capture.pins,
+    }));
+    const frame = new Uint8Array(5 + metadata.length + capture.size * CAPTURE_SAMPLE_SIZE);
+    const view = new DataView(frame.buffer);
+    frame[0] = BINARY_CAPTURE;
+    view.setUint32(1, metadata.length, true);
+    frame.set(metadata, 5);
+    for (let i = 0, offset = 5 + metadata.length; i < capture.size; i++, offset += CAPTURE_SAMPLE_SIZE) {
+        view.setFloat64(offset, capture.cycles[i], true);
+        frame[offset + 8] = capture.ports[i];
+        frame[offset + 9] = capture.values[i];
+    }
+    return frame;
+}
+
+function applyPinState(mapping, state) {
+    if (typeof state === 'boolean') {
+        if (mapping && (mapping.port === 'B' || mapping.port === 'D')) {
+            ports[mapping.port].setPin(mapping.pin, state);
+        }
+    } else if (typeof state === 'number') {
+        if (mapping && (mapping.port === 'C' || mapping.port === 'D')) {
+            if (mapping.port === 'C') {
+                stopAnalogPlayback(mapping.pin);
             }
+            adc.channelValues[mapping.pin] = state * 5 / 1024;
         }
-    } else if (msg.type === 'control') {
-        if (msg.action === 'play' || msg.action === 'unpause') {
-            isPaused = false;
-        } else if (msg.action === 'pause') {
-            isPaused = true;
+    }
+}
+
+// stimuli waiting for their trigger edge
+const armedStimuli = [];
+// stimuli whose timeline is running (scheduled as clock event)
+const runningStimuli = new Set();
+
+/**
+ * A stimulus is a timeline of pin states applied at exact cycles (relative to the start of the stimulus) using the
+ * cpu's clock events. It starts immediately or at the edge of its trigger pin.
+ * Returns an error message or null if the stimulus has been started/armed.
+ */
+function startStimulus(msg) {
+    if (typeof cpu.addClockEvent !== 'function') {
+        return 'Stimuli are not supported by this avr8js version';
+    }
+    const events = Array.isArray(msg.events) ? msg.events : [];
+    if (events.length === 0) {
+        return 'Stimulus without events';
+    }
+    const timeline = [];
+    for (const event of events) {
+        const cycles = Number(event.cycles);
+        const mapping = pinToAvr[event.pin];
+        if (!mapping || !(cycles >= 0) || !Number.isFinite(cycles)
+            || (typeof event.state !== 'boolean' && typeof event.state !== 'number')) {
+            return `Invalid stimulus event ${JSON.stringify(event)}`;
         }
-    } else if (msg.type === 'serialDebug') {
-        serialDebug = msg.state;
+        timeline.push({ cycles: Math.round(cycles), mapping: mapping, state: event.state });
     }
-    if (msg.replyId) {
-        callbackPinState({ ...msg, executed: true });
+    timeline.sort((a, b) => a.cycles - b.cycles);
+    const stimulus = { timeline: timeline, index: 0, startCycles: 0, trigger: null, callback: null };
+    stimulus.callback = () => applyStimulus(stimulus);
+    if (msg.trigger) {
+        const pin = canonicalPin(msg.trigger.pin);
+        if (!pin) {
+            return `Invalid stimulus trigger ${JSON.stringify(msg.trigger)}`;
+        }
+        stimulus.trigger = { pin: pin, edge: msg.trigger.edge || 'any' };
+        armedStimuli.push(stimulus);
+    } else {
+        runStimulus(stimulus);
     }
+    return null;
 }
 
-function main() {
-    // const callback = (pin, state) => {};
-    const wss = new ws.WebSocketServer({
-        port: 8080,
-        perMessageDeflate: {
-            concurrencyLimit: 2, // Limits zlib concurrency for perf.
-            threshold: 1024 // Size (in bytes) below which messages should not be compressed if context takeover is disabled.
+function canonicalPin(pin) {
+    if (unoPinMappings[pin]) {
+        // numeric pins (13) are reported as strings ("13")
+        return String(pin);
+    }
+    return typeof pin === 'string' && pin.startsWith('D') && unoPinMappings[pin.substring(1)] ? pin.substring(1) : null;
+}
+
+function runStimulus(stimulus) {
+    stimulus.startCycles = cpu.cycles;
+    stimulus.index = 0;
+    runningStimuli.add(stimulus);
+    applyStimulus(stimulus);
+}
+
+function applyStimulus(stimulus) {
+    const { timeline } = stimulus;
+    const elapsed = cpu.cycles - stimulus.startCycles;
+    while (stimulus.index < timeline.length && timeline[stimulus.index].cycles <= elapsed) {
+        const event = timeline[stimulus.index++];
+        applyPinState(event.mapping, event.state);
+    }
+    if (stimulus.index < timeline.length) {
+        cpu.addClockEvent(stimulus.callback, timeline[stimulus.index].cycles - elapsed);
+    } else {
+        runningStimuli.delete(stimulus);
+    }
+}
+
+function checkStimulusTriggers(arduinoPin, state) {
+    for (let i = armedStimuli.length - 1; i >= 0; i--) {
+        const stimulus = armedStimuli[i];
+        if (stimulus.trigger.pin === arduinoPin && edgeMatches(stimulus.trigger.edge, state)) {
+            armedStimuli.splice(i, 1);
+            runStimulus(stimulus);
         }
-    });
+    }
+}
 
-    const pendingMessages = [];
-    let batchTimer = null;
+function clearStimuli() {
+    armedStimuli.length = 0;
+    for (const stimulus of runningStimuli) {
+        cpu.clearClockEvent(stimulus.callback);
+    }
+    runningStimuli.clear();
+    return null;
+}
 
-    const flushMessages = () => {
-        if (pendingMessages.length > 0) {
-            pendingMessages.forEach(msg => {
-                const json = JSON.stringify(msg);
-                wss.clients.forEach(client => {
-                    if (client !== ws && client.readyState === ws.WebSocket.OPEN) {
-                        client.send(json);
-                    }
-                });
-            });
-            pendingMessages.length = 0;
+// ADC channel -> running playback { samples, cyclesPerSample, startCycles, index, played, loop, callback }
+const analogPlaybacks = {};
+
+/**
+ * Plays the samples (0-1023) into the pin's ADC channel, each sample is applied exactly at its cycle using the
+ * cpu's clock events. An empty (or missing) sample array stops the playback of the pin, the last value is kept.
+ * Returns an error message or null if the playback has been started.
+ */
+function startAnalogPlayback(msg) {
+    const mapping = pinToAvr[msg.pin];
+    if (!mapping || mapping.port !== 'C') {
+        return `Invalid analog pin ${msg.pin}`;
+    }
+    if (typeof cpu.addClockEvent !== 'function') {
+        return 'Analog playback is not supported by this avr8js version';
+    }
+    const channel = mapping.pin;
+    stopAnalogPlayback(channel);
+    const samples = Array.isArray(msg.samples) ? msg.samples : [];
+    if (samples.length === 0) {
+        return null;
+    }
+    const sampleRate = Number(msg.sampleRate);
+    if (!(sampleRate > 0 && sampleRate <= clockFrequency)) {
+        return `Invalid sampleRate ${msg.sampleRate}`;
+    }
+    const voltages = Float64Array.from(samples, sample => Math.min(1023, Math.max(0, Number(sample) || 0)) * 5 / 1024);
+    const playback = {
+        voltages: voltages,
+        cyclesPerSample: clockFrequency / sampleRate,
+        startCycles: cpu.cycles,
+        played: 0,
+        loop: !!msg.loop,
+        callback: null,
+    };
+    playback.callback = () => {
+        playback.played++;
+        const index = playback.played % voltages.length;
+        if (!playback.loop && playback.played >= voltages.length) {
+            delete analogPlaybacks[channel];
+            return;
         }
-        batchTimer = null;
+        adc.channelValues[channel] = voltages[index];
+        scheduleNextSample(playback);
     };
+    analogPlaybacks[channel] = playback;
+    adc.channelValues[channel] = voltages[0];
+    scheduleNextSample(playback);
+    return null;
+}
 
-    const callbackPinState = (msg) => {
-        if (BATCH_MILLIS > 0) {
-            pendingMessages.push(msg);
-            if (!batchTimer) {
-                batchTimer = setTimeout(flushMessages, BATCH_MILLIS);
+function scheduleNextSample(playback) {
+    // absolute timing, so rounding errors don't accumulate
+    const next = playback.startCycles + Math.round((playback.played + 1) * playback.cyclesPerSample);
+    cpu.addClockEvent(playback.callback, Math.max(1, next - cpu.cycles));
+}
+
+function stopAnalogPlayback(channel) {
+    const playback = analogPlaybacks[channel];
+    if (playback) {
+        cpu.clearClockEvent(playback.callback);
+        delete analogPlaybacks[channel];
+    }
+}
+
+// Output compare/PWM channels of the timers, the register addresses are taken from the avr8js timer configs
+const pwmTimers = [avr8js.timer0Config, avr8js.timer1Config, avr8js.timer2Config].map((config, index) => ({
+    config: config,
+    wide: index === 1,
+    tccra: 0,
+    tccrb: 0,
+    ocr: { A: 0, B: 0 },
+    icr: 0,
+    // AVR's shared TEMP register for 16 bit accesses (the high byte gets written first)
+    temp: 0,
+}));
+const pwmPins = Object.entries(unoPinMappings).filter(([, mapping]) => mapping.pwm).map(([arduinoPin]) => arduinoPin);
+// arduino pin -> duty (0-255) of the pins currently driven by a PWM channel, null if not
+const pwmDuties = {};
+
+/**
+ * Shadows the timer control and compare registers by wrapping their write hooks so the duty of the PWM pins can be
+ * calculated exactly whenever the firmware changes them (instead of sampling the pin's high cycles).
+ */
+function setupPwm(portCallback) {
+    const observe = (addr, onWrite) => {
+        const original = cpu.writeHooks[addr];
+        cpu.writeHooks[addr] = (value, oldValue, address, mask) => {
+            const result = original ? original(value, oldValue, address, mask) : false;
+            onWrite(value);
+            updatePwm(portCallback);
+            return result;
+        };
+    };
+    for (const timer of pwmTimers) {
+        const { config } = timer;
+        observe(config.TCCRA, value => timer.tccra = value);
+        observe(config.TCCRB, value => timer.tccrb = value);
+        for (const channel of ['A', 'B']) {
+            const addr = config[`OCR${channel}`];
+            observe(addr, value => timer.ocr[channel] = timer.wide ? (timer.temp << 8) | value : value);
+            if (timer.wide) {
+                observe(addr + 1, value => timer.temp = value);
             }
-        } else {
-            const json = JSON.stringify(msg);
-            wss.clients.forEach(client => {
-                if (client !== ws && client.readyState === ws.WebSocket.OPEN) {
-                    client.send(json);
-                }
-            });
         }
-    };
+        if (timer.wide) {
+            observe(config.ICR, value => timer.icr = (timer.temp << 8) | value);
+            observe(config.ICR + 1, value => timer.temp = value);
+        }
+    }
+    // the compare output only drives the pin if it is configured as output
+    for (const portName of new Set(pwmPins.map(pin => unoPinMappings[pin].port))) {
+        observe(avr8js[`port${portName}Config`].DDR, () => {});
+    }
+    for (const arduinoPin of pwmPins) {
+        pwmDuties[arduinoPin] = null;
+    }
+}
 
-    wss.on('connection', function connection(ws) {
-        ws.on('message', function message(data) {
-            if (data) {
-                try {
-                    messageQueue.push(JSON.parse(data));
-                } catch (e) {
-                    console.error(`Failed to parse JSON: ${data}, Error: ${e.message}`);
-                }
+function updatePwm(portCallback) {
+    for (const arduinoPin of pwmPins) {
+        const duty = pwmDuty(unoPinMappings[arduinoPin]);
+        if (duty !== pwmDuties[arduinoPin]) {
+            pwmDuties[arduinoPin] = duty;
+            updateSampling(arduinoPin);
+            if (duty !== null && listeningModes[arduinoPin] === 'analog') {
+                publishPwm(arduinoPin, duty, portCallback);
             }
-        });
+        }
+    }
+}
+
+function publishPwm(arduinoPin, duty, portCallback) {
+    const cpuTime = (cpu.cycles / clockFrequency).toFixed(6);
+    portCallback({ type: 'pinState', pin: arduinoPin, state: duty, cpuTime: cpuTime });
+    portStates[pinToIndex[arduinoPin] * FIELDS_PER_PIN + LAST_STATE_PUBLISHED_OFFSET] = duty;
+}
+
+/**
+ * Returns the duty (0-255, relative to the timer's TOP) of the pin's PWM channel or null if the pin is not driven
+ * by the channel (compare output disconnected or toggling, timer stopped, no PWM mode or pin not an output).
+ */
+function pwmDuty(mapping) {
+    const timer = pwmTimers[mapping.pwm.timer];
+    const channel = mapping.pwm.channel;
+    const com = (timer.tccra >> (channel === 'A' ? 6 : 4)) & 3;
+    if (com < 2 || (timer.tccrb & 7) === 0) {
+        return null;
+    }
+    if (!(cpu.data[avr8js[`port${mapping.port}Config`].DDR] & (1 << mapping.pin))) {
+        return null;
+    }
+    const top = pwmTop(timer);
+    // if OCRA defines TOP channel A can't be used for PWM
+    if (!top || (channel === 'A' && pwmTopIsOcrA(timer))) {
+        return null;
+    }
+    const duty = Math.round(Math.min(timer.ocr[channel], top) * 255 / top);
+    return com === 3 ? 255 - duty : duty;
+}
+
+function pwmTop(timer) {
+    if (!timer.wide) {
+        const wgm = (timer.tccra & 3) | ((timer.tccrb >> 1) & 4);
+        return wgm === 1 || wgm === 3 ? 0xFF : wgm === 5 || wgm === 7 ? timer.ocr.A : null;
+    }
+    switch ((timer.tccra & 3) | ((timer.tccrb >> 1) & 0xC)) {
+        case 1: case 5: return 0xFF;
+        case 2: case 6: return 0x1FF;
+        case 3: case 7: return 0x3FF;
+        case 8: case 10: case 14: return timer.icr;
+        case 9: case 11: case 15: return timer.ocr.A;
+    }
+    return null;
+}
+
+function pwmTopIsOcrA(timer) {
+    if (!timer.wide) {
+        return (timer.tccrb & 8) !== 0;
+    }
+    const wgm = (timer.tccra & 3) | ((timer.tccrb >> 1) & 0xC);
+    return wgm === 9 || wgm === 11 || wgm === 15;
+}
+
+/**
+ * Starts or stops accounting the high cycles of the pin, the sampling window starts at the current cycles.
+ */
+function updateSampling(arduinoPin) {
+    const index = pinToIndex[arduinoPin];
+    if (index === undefined) {
+        return;
+    }
+    // listeners may have been registered with or without the 'D' prefix
+    const pin = unoPinMappings[arduinoPin] ? arduinoPin : arduinoPin.substring(1);
+    const sampled = activeAnalogListeners.has(pin) || activeAnalogListeners.has('D' + pin);
+    const wasSampled = sampledPins[index] === 1;
+    sampledPins[index] = sampled && (pwmDuties[pin] === undefined || pwmDuties[pin] === null) ? 1 : 0;
+    if (sampledPins[index] && !wasSampled && cpu) {
+        const idx = index * FIELDS_PER_PIN;
+        portStates[idx + LAST_UPDATE_CYCLES_OFFSET] = cpu.cycles;
+        portStates[idx + LAST_STATE_CYCLES_OFFSET] = cpu.cycles;
+        portStates[idx + PIN_HIGH_CYCLES_OFFSET] = 0;
+    }
+}
+
+/**
+ * Executes up to maxInstructions instructions, stops early when the cpu reaches untilCycles or haltAtCycles.
+ * With idle skip enabled SLEEP instructions and idle loops are detected and the cpu is fast-forwarded to the
+ * next event that could change the program flow instead of executing the same instructions over and over.
+ */
+function execute(maxInstructions, untilCycles) {
+    let i = 0;
+    if (!idle.enabled) {
+        for (; i < maxInstructions && cpu.cycles < untilCycles && cpu.cycles < haltAtCycles; i++) {
+            avr8js.avrInstruction(cpu);
+            cpu.tick();
+        }
+        return i;
+    }
+    const progMem = cpu.progMem;
+    for (; i < maxInstructions && cpu.cycles < untilCycles && cpu.cycles < haltAtCycles; i++) {
+        const pc = cpu.pc;
+        avr8js.avrInstruction(cpu);
+        cpu.tick();
+        const next = cpu.pc;
+        if (next <= pc) {
+            if (pc - next <= IDLE_LOOP_MAX_WORDS) {
+                loopHeadVisited(next, untilCycles);
+            }
+        } else if (next === pc + 1 && progMem[pc] === SLEEP_OPCODE) {
+            stall(untilCycles);
+        }
+    }
+    return i;
+}
+
+// don't try to catch up more than this many millis (simulated time) when the host fell behind
+const PACING_MAX_BEHIND_MILLIS = 100;
+// sleeps are at least this long so the simulation runs in bursts instead of spinning
+const PACING_MIN_SLEEP_MILLIS = 1;
+
+function validSpeedFactor(factor) {
+    return factor === 0 || (factor >= MIN_SPEED_FACTOR && factor <= MAX_SPEED_FACTOR);
+}
+
+function resetPacing() {
+    pacing.startTime = performance.now();
+    pacing.startCycles = cpu.cycles;
+}
+
+/**
+ * Runs a chunk if the simulation is behind the wall-clock time (scaled by the speed factor), returns the millis
+ * to sleep if it is ahead.
+ */
+function runPaced() {
+    const cyclesPerMilli = clockFrequency * speedFactor / 1000;
+    const targetCycles = pacing.startCycles + Math.floor((performance.now() - pacing.startTime) * cyclesPerMilli);
+    const maxBehind = PACING_MAX_BEHIND_MILLIS * cyclesPerMilli;
+    if (targetCycles - cpu.cycles > maxBehind) {
+        pacing.startCycles -= targetCycles - cpu.cycles - maxBehind;
+    }
+    if (targetCycles > cpu.cycles) {
+        runChunk(Math.min(targetCycles, cpu.cycles + maxBehind));
+        return 0;
+    }
+    return Math.min(PAUSED_WAIT_MILLIS, Math.max(PACING_MIN_SLEEP_MILLIS, (cpu.cycles - targetCycles) / cyclesPerMilli));
+}
+
+// counters of the simulator, written by the simulator thread after each chunk, read by the io thread (metrics)
+const STAT_INSTRUCTIONS = 0;
+const STAT_CYCLES = 1;
+const STAT_SKIPPED_CYCLES = 2;
+const STAT_COMMANDS = 3;
+const STAT_SERIAL_RX_QUEUED = 4;
+const STAT_PAUSED = 5;
+const STAT_SPEED_FACTOR = 6;
+const STAT_CHUNKS = 7;
+const STAT_CHUNK_MILLIS = 8;
+// upper bounds of the chunk duration histogram, one more bucket counts the longer chunks
+const CHUNK_MILLIS_BUCKETS = [0.1, 0.25, 0.5, 1, 2, 5, 10, 25, 50, 100];
+const STAT_CHUNK_BUCKETS = 9;
+const STATS_SIZE = STAT_CHUNK_BUCKETS + CHUNK_MILLIS_BUCKETS.length + 1;
+let simulatorStats = new Float64Array(STATS_SIZE);
+
+function recordChunk(instructions, millis) {
+    const stats = simulatorStats;
+    stats[STAT_INSTRUCTIONS] += instructions;
+    stats[STAT_CYCLES] = cpu.cycles;
+    stats[STAT_SKIPPED_CYCLES] = idle.skippedCycles;
+    stats[STAT_CHUNKS]++;
+    stats[STAT_CHUNK_MILLIS] += millis;
+    let bucket = 0;
+    while (bucket < CHUNK_MILLIS_BUCKETS.length && millis > CHUNK_MILLIS_BUCKETS[bucket]) {
+        bucket++;
+    }
+    stats[STAT_CHUNK_BUCKETS + bucket]++;
+}
+
+const MIN_CHUNK_SIZE = 1000;
+// after messages arrived the next chunks are shortened since commands tend to come in bursts
+const SCHEDULER_BUSY_CHUNKS = 16;
+const SCHEDULER_BUSY_DIVISOR = 4;
+
+const scheduler = {
+    maxLatency: MAX_COMMAND_LATENCY,
+    maxChunk: INSTRUCTION_CHUNK_SIZE,
+    // measured host speed, exponentially smoothed
+    instructionsPerMilli: 10000,
+    busyChunks: 0,
+};
+
+/**
+ * Executes as many instructions as fit into the latency target (based on the measured host speed) and adapts
+ * the measured speed afterwards.
+ */
+function runChunk(untilCycles) {
+    const budget = scheduler.busyChunks > 0 ? scheduler.maxLatency / SCHEDULER_BUSY_DIVISOR : scheduler.maxLatency;
+    const chunkSize = Math.min(scheduler.maxChunk,
+        Math.max(MIN_CHUNK_SIZE, Math.floor(scheduler.instructionsPerMilli * budget)));
+    const start = performance.now();
+    const instructions = execute(chunkSize, untilCycles);
+    const elapsed = performance.now() - start;
+    recordChunk(instructions, elapsed);
+    if (instructions >= MIN_CHUNK_SIZE && elapsed > 0) {
+        scheduler.instructionsPerMilli = 0.7 * scheduler.instructionsPerMilli + 0.3 * (instructions / elapsed);
+    }
+    if (scheduler.busyChunks > 0) {
+        scheduler.busyChunks--;
+    }
+}
+
+function schedulerBusy() {
+    scheduler.busyChunks = SCHEDULER_BUSY_CHUNKS;
+}
+
+const SLEEP_OPCODE = 0x9588;
+// backward jumps of at most this many words are considered as loops
+const IDLE_LOOP_MAX_WORDS = 64;
+// upper bound for a single fast-forward, so loops without any pending event do not jump arbitrarily far
+const IDLE_MAX_SKIP_CYCLES = clockFrequency / 100;
+// interrupt flag registers (ATmega328P) idle loops may poll: TIFR0-2, PCIFR, EIFR, SPSR, ADCSRA, TWCR, UCSR0A
+const IDLE_FLAG_REGISTERS = [0x35, 0x36, 0x37, 0x3B, 0x3C, 0x4D, 0x7A, 0xBC, 0xC0];
+// registers r0-r31 and SPL, SPH, SREG
+const IDLE_CPU_REGISTERS = [...Array(32).keys(), 0x5D, 0x5E, 0x5F];
+
+const idle = {
+    enabled: false,
+    timerCallbacks: new Set(),
+    loopHead: -1,
+    // peripheral write (write hook) since the last visit of the loop head
+    sideEffect: false,
+    // read of a timer counter since the last visit of the loop head
+    timerRead: false,
+    // read of any other peripheral (read hook) since the last visit of the loop head
+    volatileRead: false,
+    registers: new Uint8Array(IDLE_CPU_REGISTERS.length),
+    data: null,
+    dataValid: false,
+    flags: new Uint8Array(IDLE_FLAG_REGISTERS.length),
+    skippedCycles: 0,
+};
+
+function setupIdleSkip(timers) {
+    if (IDLE_SKIP === 'off') {
+        return;
+    }
+    if (!('nextClockEvent' in cpu)) {
+        console.warn('Idle skip disabled: avr8js does not expose its clock events');
+        return;
+    }
+    const timerCounters = new Set();
+    for (const config of [avr8js.timer0Config, avr8js.timer1Config, avr8js.timer2Config]) {
+        timerCounters.add(config.TCNT);
+    }
+    timerCounters.add(avr8js.timer1Config.TCNT + 1);
+    // the pin registers only change between chunks or by clock events, both end any fast-forward
+    const stableReads = new Set(Object.keys(ports).map(name => avr8js[`port${name}Config`].PIN));
+
+    cpu.readHooks.forEach((hook, addr) => {
+        if (stableReads.has(addr)) {
+            return;
+        }
+        cpu.readHooks[addr] = timerCounters.has(addr)
+            ? (...args) => { idle.timerRead = true; return hook(...args); }
+            : (...args) => { idle.volatileRead = true; return hook(...args); };
     });
+    cpu.writeHooks.forEach((hook, addr) => {
+        cpu.writeHooks[addr] = (...args) => { idle.sideEffect = true; return hook(...args); };
+    });
+    // the timers reschedule their counting each prescaler tick, those events alone do not change the program flow
+    for (const timer of timers) {
+        if (typeof timer.count === 'function') {
+            idle.timerCallbacks.add(profiled(timer.count));
+        }
+    }
+    idle.data = new Uint8Array(cpu.data.length);
+    idle.enabled = true;
+}
+
+function loopHeadVisited(head, untilCycles) {
+    const sameLoop = head === idle.loopHead && !idle.sideEffect && !idle.volatileRead;
+    if (sameLoop) {
+        if (idle.timerRead ? IDLE_SKIP === 'loose' : isFixedPoint()) {
+            stall(untilCycles);
+        }
+    } else {
+        idle.loopHead = head;
+        idle.dataValid = false;
+    }
+    const data = cpu.data;
+    for (let i = 0; i < IDLE_CPU_REGISTERS.length; i++) {
+        idle.registers[i] = data[IDLE_CPU_REGISTERS[i]];
+    }
+    idle.sideEffect = idle.timerRead = idle.volatileRead = false;
+}
 
-    runCode(args.length == 0 ? 'sketch.ino' : args[0], callbackPinState);
+/**
+ * A loop iteration that neither touched peripherals nor changed any register or memory cell will do exactly the
+ * same again until an event (interrupt, peripheral clock event) changes something.
+ */
+function isFixedPoint() {
+    const data = cpu.data;
+    for (let i = 0; i < IDLE_CPU_REGISTERS.length; i++) {
+        if (idle.registers[i] !== data[IDLE_CPU_REGISTERS[i]]) {
+            idle.dataValid = false;
+            return false;
+        }
+    }
+    if (idle.dataValid) {
+        const snapshot = idle.data;
+        for (let i = 0; i < data.length; i++) {
+            if (snapshot[i] !== data[i]) {
+                snapshot.set(data);
+                return false;
+            }
+        }
+        return true;
+    }
+    idle.data.set(data);
+    idle.dataValid = true;
+    return false;
+}
+
+/**
+ * Fast-forwards the cpu clock event by event without executing instructions until an interrupt gets dispatched,
+ * a non-timer event fired, an interrupt flag changed or the limit is reached.
+ */
+function stall(untilCycles) {
+    const limit = Math.min(untilCycles, haltAtCycles, cpu.cycles + IDLE_MAX_SKIP_CYCLES);
+    const data = cpu.data;
+    const flags = idle.flags;
+    for (let i = 0; i < IDLE_FLAG_REGISTERS.length; i++) {
+        flags[i] = data[IDLE_FLAG_REGISTERS[i]];
+    }
+    const start = cpu.cycles;
+    while (true) {
+        const event = cpu.nextClockEvent;
+        if (!event || event.cycles >= limit) {
+            cpu.cycles = Math.max(cpu.cycles, limit);
+            break;
+        }
+        if (event.cycles > cpu.cycles) {
+            cpu.cycles = event.cycles;
+        }
+        const pc = cpu.pc;
+        cpu.tick();
+        if (cpu.pc !== pc || !idle.timerCallbacks.has(event.callback) || flagsChanged(flags)) {
+            break;
+        }
+    }
+    idle.skippedCycles += cpu.cycles - start;
+}
+
+function flagsChanged(flags) {
+    const data = cpu.data;
+    for (let i = 0; i < IDLE_FLAG_REGISTERS.length; i++) {
+        if (flags[i] !== data[IDLE_FLAG_REGISTERS[i]]) {
+            return true;
+        }
+    }
+    return false;
+}
+
+// time spent in peripherals (clock events and the hooks of the I/O registers), only measured by the benchmark
+const peripheralProfile = {
+    enabled: false,
+    millis: 0,
+    calls: 0,
+    // nested calls (e.g. a port listener called by a write hook) are measured by the outermost one
+    depth: 0,
+    // original (and profiled) callback -> profiled callback, so clearing/updating clock events finds the same callback
+    callbacks: new Map(),
+};
+
+function profiled(callback) {
+    if (!peripheralProfile.enabled) {
+        return callback;
+    }
+    let wrapper = peripheralProfile.callbacks.get(callback);
+    if (!wrapper) {
+        wrapper = (...args) => {
+            if (peripheralProfile.depth++ > 0) {
+                try {
+                    return callback(...args);
+                } finally {
+                    peripheralProfile.depth--;
+                }
+            }
+            const start = performance.now();
+            try {
+                return callback(...args);
+            } finally {
+                peripheralProfile.millis += performance.now() - start;
+                peripheralProfile.calls++;
+                peripheralProfile.depth--;
+            }
+        };
+        peripheralProfile.callbacks.set(callback, wrapper);
+        peripheralProfile.callbacks.set(wrapper, wrapper);
+    }
+    return wrapper;
+}
+
+function profileClockEvents() {
+    const addClockEvent = cpu.addClockEvent.bind(cpu);
+    const updateClockEvent = cpu.updateClockEvent.bind(cpu);
+    const clearClockEvent = cpu.clearClockEvent.bind(cpu);
+    cpu.addClockEvent = (callback, cycles) => addClockEvent(profiled(callback), cycles);
+    cpu.updateClockEvent = (callback, cycles) => updateClockEvent(profiled(callback), cycles);
+    cpu.clearClockEvent = callback => clearClockEvent(profiled(callback));
+}
+
+function profileHooks() {
+    cpu.readHooks.forEach((hook, addr) => cpu.readHooks[addr] = profiled(hook));
+    cpu.writeHooks.forEach((hook, addr) => cpu.writeHooks[addr] = profiled(hook));
+}
+
+/**
+ * Runs the hex file for the passed number of cycles without any I/O (nothing is published, no websocket, no serial
+ * device) and returns the execution speed. The warmup cycles are executed before measuring so the JIT compiled the
+ * hot paths. The speed is measured in an unprofiled pass, the peripheral time in a second (profiled) pass since
+ * measuring it adds two performance.now() calls per call.
+ */
+function benchmark(hexFile, cycles, warmupCycles) {
+    const unprofiled = benchmarkPass(hexFile, cycles, warmupCycles, false);
+    const profiled = benchmarkPass(hexFile, cycles, warmupCycles, true);
+    const millis = unprofiled.millis;
+    const simulatedSeconds = cycles / clockFrequency;
+    return {
+        hexFile: hexFile,
+        node: process.version,
+        host: os.cpus()[0].model,
+        idleSkip: idle.enabled ? IDLE_SKIP : 'off',
+        cycles: cycles,
+        warmupCycles: warmupCycles,
+        instructions: unprofiled.instructions,
+        skippedCycles: unprofiled.skippedCycles,
+        millis: millis,
+        instructionsPerSecond: unprofiled.instructions / millis * 1000,
+        cyclesPerSecond: cycles / millis * 1000,
+        realtimeFactor: simulatedSeconds / (millis / 1000),
+        profiledMillis: profiled.millis,
+        peripheralMillis: peripheralProfile.millis,
+        peripheralCalls: peripheralProfile.calls,
+        peripheralShare: peripheralProfile.millis / profiled.millis,
+    };
+}
+
+function benchmarkPass(hexFile, cycles, warmupCycles, profile) {
+    peripheralProfile.enabled = profile;
+    // each pass runs on a new cpu, so the ports get recreated
+    Object.keys(ports).forEach(portName => delete ports[portName]);
+    setupSimulation(hexFile, () => {});
+    runCycles(warmupCycles);
+
+    peripheralProfile.millis = 0;
+    peripheralProfile.calls = 0;
+    const skippedCycles = idle.skippedCycles;
+    const start = performance.now();
+    const instructions = runCycles(cycles);
+    return {
+        instructions: instructions,
+        millis: performance.now() - start,
+        skippedCycles: idle.skippedCycles - skippedCycles,
+    };
+}
+
+function runCycles(cycles) {
+    const untilCycles = cpu.cycles + cycles;
+    let instructions = 0;
+    while (cpu.cycles < untilCycles) {
+        instructions += execute(INSTRUCTION_CHUNK_SIZE, untilCycles);
+    }
+    return instructions;
+}
+
+/**
+ * node virtualavr.js --benchmark=<cycles> [--warmup=<cycles>] &lt;hexFile&gt;, prints the result as JSON.
+ */
+function benchmarkMain(args) {
+    const options = {};
+    const files = [];
+    for (const arg of args) {
+        const match = /^--(\w+)=(.*)$/.exec(arg);
+        match ? options[match[1]] = Number(match[2]) : files.push(arg);
+    }
+    if (files.length !== 1 || !(options.benchmark > 0)) {
+        console.error('Usage: node virtualavr.js --benchmark=<cycles> [--warmup=<cycles>] <hexFile>');
+        process.exit(2);
+    }
+    const warmupCycles = options.warmup >= 0 ? options.warmup : Math.floor(options.benchmark / 10);
+    console.log(JSON.stringify(benchmark(files[0], options.benchmark, warmupCycles)));
+}
+
+function sendNextChar(buff, usart) {
+    if (buff.length > 0) {
+        const ch = buff.shift();
+        usart.writeByte(ch);
+    } else {
+        sending = false;
+    }
+}
+
+function runTargetCycles(msg) {
+    if (msg.type === 'runUntil') {
+        return msg.maxCycles === undefined ? Infinity : cpu.cycles + Number(msg.maxCycles);
+    } else if (msg.action === 'runCycles') {
+        return cpu.cycles + Number(msg.cycles);
+    } else if (msg.action === 'runUntil') {
+        return Math.round(Number(msg.cpuTime) * clockFrequency);
+    }
+    return cpu.cycles + Math.round(Number(msg.seconds) * clockFrequency);
+}
+
+function startRun(msg, callback) {
+    const cycles = runTargetCycles(msg);
+    const conditions = msg.type === 'runUntil' ? compileConditions(msg.conditions || []) : null;
+    const invalid = conditions && conditions.find(c => c.kind !== 'serial' && !c.pin);
+    const error = Number.isNaN(cycles) || (msg.type !== 'runUntil' && !Number.isFinite(cycles))
+        ? `Invalid run target for ${msg.action}`
+        : invalid ? `Invalid runUntil condition ${JSON.stringify(msg.conditions[invalid.index])}` : null;
+    if (error) {
+        console.error(`${error}: ${JSON.stringify(msg)}`);
+        if (msg.replyId) {
+            callback({ ...msg, executed: true, error: error });
+        }
+        return;
+    }
+    if (runTarget) {
+        finishRun(callback, `superseded by ${msg.replyId ? `replyId ${msg.replyId}` : msg.type}`);
+    }
+    runTarget = { cycles: cycles, msg: msg, matched: -1 };
+    haltAtCycles = cycles;
+    isPaused = false;
+    if (conditions) {
+        runConditions = conditions;
+        checkInitialConditions();
+    }
+    if (cpu.cycles >= haltAtCycles) {
+        finishRun(callback);
+    }
+}
+
+/**
+ * Pauses the simulation and replies to the run, with an error if the run did not reach its target (e.g. because
+ * another run superseded it).
+ */
+function finishRun(callback, error) {
+    const { msg, matched } = runTarget;
+    runTarget = null;
+    runConditions = null;
+    haltAtCycles = Infinity;
+    isPaused = true;
+    if (msg.replyId) {
+        const cpuTime = (cpu.cycles / clockFrequency).toFixed(6);
+        const reply = { ...msg, executed: true, cycles: cpu.cycles, cpuTime: cpuTime };
+        if (error) {
+            reply.error = error;
+        }
+        callback(msg.type === 'runUntil' ? { ...reply, matched: matched } : reply);
+    }
+}
+
+/**
+ * Conditions of a runUntil message, e.g.
+ * { "pin": "13", "edge": "rising|falling|any" }, { "pin": "13", "state": true } or { "serial": [ 79, 75 ] }
+ * Serial patterns are matched incrementally (KMP) against the bytes the avr transmits.
+ */
+function compileConditions(conditions) {
+    return conditions.map((condition, index) => {
+        if (Array.isArray(condition.serial)) {
+            const pattern = Uint8Array.from(condition.serial);
+            return { index: index, kind: 'serial', pattern: pattern, failure: kmpFailure(pattern), matched: 0 };
+        } else if (typeof condition.state === 'boolean') {
+            return { index: index, kind: 'state', pin: canonicalPin(condition.pin), state: condition.state };
+        }
+        return { index: index, kind: 'edge', pin: canonicalPin(condition.pin), edge: condition.edge || 'any' };
+    }).filter(c => c.kind !== 'serial' || c.pattern.length > 0);
+}
+
+function kmpFailure(pattern) {
+    const failure = new Uint16Array(pattern.length);
+    for (let i = 1, k = 0; i < pattern.length; i++) {
+        while (k > 0 && pattern[i] !== pattern[k]) k = failure[k - 1];
+        if (pattern[i] === pattern[k]) k++;
+        failure[i] = k;
+    }
+    return failure;
+}
+
+function conditionMet(condition) {
+    if (runTarget.matched < 0) {
+        runTarget.matched = condition.index;
+        haltAtCycles = cpu.cycles;
+    }
+}
+
+function edgeMatches(edge, state) {
+    return edge === 'rising' ? state : edge === 'falling' ? !state : true;
+}
+
+function checkInitialConditions() {
+    for (const condition of runConditions) {
+        const mapping = pinToAvr[condition.pin];
+        if (condition.kind === 'state' && mapping && ports[mapping.port]) {
+            const state = ports[mapping.port].pinState(mapping.pin) === avr8js.PinState.High;
+            if (state === condition.state) {
+                return conditionMet(condition);
+            }
+        }
+    }
+}
+
+function checkPinConditions(arduinoPin, state) {
+    for (const condition of runConditions) {
+        if (condition.pin === arduinoPin && (
+            (condition.kind === 'state' && condition.state === state) ||
+            (condition.kind === 'edge' && edgeMatches(condition.edge, state)))) {
+            return conditionMet(condition);
+        }
+    }
+}
+
+function checkSerialConditions(data) {
+    for (const condition of runConditions) {
+        if (condition.kind === 'serial') {
+            const { pattern, failure } = condition;
+            let k = condition.matched;
+            while (k > 0 && pattern[k] !== data) k = failure[k - 1];
+            if (pattern[k] === data) k++;
+            if (k === pattern.length) {
+                condition.matched = 0;
+                return conditionMet(condition);
+            }
+            condition.matched = k;
+        }
+    }
+}
+
+/**
+ * The states of all pins at the current cycle: the levels of the ports (their PIN registers, so inputs are included),
+ * the level of each pin, the values (0-1023) of the ADC channels and the duties (0-255, null if not driven by the
+ * timer) of the PWM pins.
+ */
+function pinSnapshot() {
+    const portLevels = {};
+    for (const portName of Object.keys(ports)) {
+        portLevels[portName] = cpu.data[avr8js[`port${portName}Config`].PIN];
+    }
+    const digital = {};
+    const analog = {};
+    for (const [arduinoPin, mapping] of Object.entries(unoPinMappings)) {
+        digital[arduinoPin] = (portLevels[mapping.port] & (1 << mapping.pin)) !== 0;
+        if (mapping.port === 'C') {
+            analog[arduinoPin] = Math.min(1023, Math.round(adc.channelValues[mapping.pin] * 1024 / 5));
+        }
+    }
+    const pwm = {};
+    for (const arduinoPin of pwmPins) {
+        pwm[arduinoPin] = pwmDuty(unoPinMappings[arduinoPin]);
+    }
+    return {
+        cycles: cpu.cycles, cpuTime: (cpu.cycles / clockFrequency).toFixed(6),
+        ports: portLevels, digital: digital, analog: analog, pwm: pwm,
+    };
+}
+
+function processMessage(msg, callbackPinState) {
+    // { "type": "pinMode", "pin": "12", "mode": "analog" }
+    const mapping = pinToAvr[msg.pin];
+    if (msg.type === 'pinMode') {
+        if (msg.mode === 'analog' || msg.mode === 'pwm') {
+            listeningModes[msg.pin] = 'analog';
+            activeAnalogListeners.add(msg.pin);
+            activeDigitalListeners.delete(msg.pin);
+            updateSampling(msg.pin);
+            // PWM pins driven by their timer are published immediately (and then on each change)
+            const duty = pwmDuties[msg.pin];
+            if (duty !== undefined && duty !== null) {
+                publishPwm(msg.pin, duty, callbackPinState);
+            }
+        } else if (msg.mode === 'digital') {
+            listeningModes[msg.pin] = 'digital';
+            activeAnalogListeners.delete(msg.pin);
+            activeDigitalListeners.add(msg.pin);
+            updateSampling(msg.pin);
+            const cpuTime = (cpu.cycles / clockFrequency).toFixed(6);
+            // Immediately publish the current state
+            if (mapping && (mapping.port === 'B' || mapping.port === 'D')) {
+                const state = ports[mapping.port].pinState(mapping.pin) === avr8js.PinState.High;
+                callbackPinState({ type: 'pinState', pin: msg.pin, state: state, cpuTime: cpuTime });
+            }
+        } else {
+            listeningModes[msg.pin] = undefined;
+            activeAnalogListeners.delete(msg.pin);
+            activeDigitalListeners.delete(msg.pin);
+            updateSampling(msg.pin);
+        }
+    } else if (msg.type === 'fakePinState' || msg.type === 'pinState') {
+        // { "type": "pinState", "pin": "12", "state": true } or { "type": "pinState", "pin": "12", "state": 42 }
+        applyPinState(mapping, msg.state);
+    } else if (msg.type === 'stimulus') {
+        // { "type": "stimulus", "events": [ { "cycles": 0, "pin": "2", "state": true } ], "trigger": { "pin": "13", "edge": "rising" } }
+        const error = msg.action === 'clear' ? clearStimuli() : startStimulus(msg);
+        if (error) {
+            console.error(error);
+            if (msg.replyId) {
+                callbackPinState({ ...msg, executed: true, events: undefined, error: error });
+            }
+            return;
+        }
+        if (msg.replyId) {
+            callbackPinState({ ...msg, executed: true, events: msg.events ? msg.events.length : undefined });
+        }
+        return;
+    } else if (msg.type === 'control') {
+        if (msg.action === 'play' || msg.action === 'unpause') {
+            isPaused = false;
+        } else if (msg.action === 'pause') {
+            isPaused = true;
+            if (runTarget) {
+                finishRun(callbackPinState, 'paused before reaching the target');
+            }
+        } else if (msg.action === 'speed') {
+            // { "type": "control", "action": "speed", "factor": 2.5 }
+            const factor = Number(msg.factor);
+            if (!validSpeedFactor(factor)) {
+                console.error(`Invalid speed factor ${msg.factor}`);
+                if (msg.replyId) {
+                    callbackPinState({ ...msg, executed: true,
+                        error: `Invalid speed factor ${msg.factor}, allowed 0 or ${MIN_SPEED_FACTOR}..${MAX_SPEED_FACTOR}` });
+                }
+                return;
+            }
+            speedFactor = factor;
+            resetPacing();
+        } else if (msg.action === 'maxLatency') {
+            // { "type": "control", "action": "maxLatency", "millis": 5 }
+            if (!(Number(msg.millis) > 0)) {
+                console.error(`Invalid maxLatency ${msg.millis}`);
+                if (msg.replyId) {
+                    callbackPinState({ ...msg, executed: true, error: `Invalid maxLatency ${msg.millis}` });
+                }
+                return;
+            }
+            scheduler.maxLatency = Number(msg.millis);
+        } else if (msg.action === 'runCycles' || msg.action === 'runUntil' || msg.action === 'runFor') {
+            // { "type": "control", "action": "runCycles", "cycles": 16000 } gets replied when the target is reached
+            startRun(msg, callbackPinState);
+            return;
+        }
+    } else if (msg.type === 'runUntil') {
+        // { "type": "runUntil", "conditions": [ { "pin": "13", "edge": "rising" } ], "maxCycles": 16000000 }
+        startRun(msg, callbackPinState);
+        return;
+    } else if (msg.type === 'analogPlayback') {
+        // { "type": "analogPlayback", "pin": "A0", "samples": [ 512, 600, 512, 424 ], "sampleRate": 8000, "loop": true }
+        const error = startAnalogPlayback(msg);
+        if (error) {
+            console.error(error);
+            if (msg.replyId) {
+                callbackPinState({ ...msg, executed: true, samples: undefined, error: error });
+            }
+            return;
+        }
+        if (msg.replyId) {
+            // don't echo the (possibly large) sample array
+            callbackPinState({ ...msg, executed: true, samples: msg.samples ? msg.samples.length : 0 });
+        }
+        return;
+    } else if (msg.type === 'batch') {
+        // { "type": "batch", "pinModes": [ { "pin": "12", "mode": "digital" } ], "pinStates": [ { "pin": "A0", "state": 1000 } ] }
+        // all operations get applied before the cpu executes its next instruction, so at the same cycle
+        const pinModes = Array.isArray(msg.pinModes) ? msg.pinModes : [];
+        const pinStates = Array.isArray(msg.pinStates) ? msg.pinStates : [];
+        for (const operation of pinModes) {
+            processMessage({ type: 'pinMode', pin: operation.pin, mode: operation.mode }, callbackPinState);
+        }
+        for (const operation of pinStates) {
+            processMessage({ type: 'pinState', pin: operation.pin, state: operation.state }, callbackPinState);
+        }
+    } else if (msg.type === 'capture') {
+        if (msg.action === 'start') {
+            const error = startCapture(msg);
+            if (error) {
+                console.error(error);
+                if (msg.replyId) {
+                    callbackPinState({ ...msg, executed: true, error: error });
+                }
+                return;
+            }
+        } else if (msg.action === 'stop') {
+            stopCapture();
+        } else if (msg.action === 'download') {
+            // the binary frame is sent first, the reply afterwards
+            callbackPinState({ type: 'binaryFrame', frame: captureFrame(msg.replyId) });
+            if (msg.replyId) {
+                callbackPinState({ ...msg, executed: true, samples: capture.size, overflow: capture.overflow });
+            }
+            return;
+        }
+    } else if (msg.type === 'snapshot') {
+        // { "type": "snapshot" } gets replied with the states of all pins at the current cycle
+        if (msg.replyId) {
+            callbackPinState({ ...msg, executed: true, ...pinSnapshot() });
+        }
+        return;
+    } else if (msg.type === 'serialDebug') {
+        serialDebug = msg.state;
+    } else if (msg.type === 'portEvents') {
+        // { "type": "portEvents", "state": true }
+        portEvents = !!msg.state;
+    } else if (msg.type === 'serialWrite') {
+        // { "type": "serialWrite", "bytes": [ 72, 105 ] }
+        if (Array.isArray(msg.bytes) && serialReceive) {
+            serialReceive(msg.bytes);
+        }
+    }
+    if (msg.replyId) {
+        callbackPinState({ ...msg, executed: true });
+    }
+}
+
+// Record kinds of the rings between the websocket/io thread and the simulator thread
+const RECORD_JSON = 1;
+const RECORD_SERIAL = 2;
+// binary websocket frames (e.g. captures) might exceed the ring, so they are split into parts
+const RECORD_BINARY_PART = 3;
+const RECORD_BINARY_END = 4;
+const BINARY_PART_SIZE = 64 * 1024;
+// JSON events exceeding BINARY_PART_SIZE are split the same way, the last part is a RECORD_JSON
+const RECORD_JSON_PART = 5;
+// interval the queued messages of lagging clients are sent in
+const DRAIN_INTERVAL_MILLIS = 5;
+const LAG_REPORT_MILLIS = 1000;
+// interval the io thread samples the simulator counters to compute the rates
+const METRICS_SAMPLE_MILLIS = 1000;
+const RECORD_HEADER_SIZE = 5;
+// JSON event records are prefixed by a route line ("type\tpin\treplyId\n") so the io thread can dispatch them
+// to the subscribed clients without parsing the JSON
+const ROUTE_SEPARATOR = 0x0A;
+// the type, pin and replyId of a command are echoed in the route line of its reply, so they must not contain
+// control characters (the separators)
+const ROUTE_FIELDS = ['type', 'pin', 'replyId'];
+const INVALID_ROUTE_FIELD = /[\x00-\x1f]/;
+const RING_WRITE = 0;
+const RING_READ = 1;
+const RING_HEADER_BYTES = 8;
+const COMMAND_RING_SIZE = 1 << 20;
+const EVENT_RING_SIZE = 4 << 20;
+// websocket messages exceeding this close the connection, smaller commands that still do not fit into the command
+// ring are answered with an error
+const MAX_PAYLOAD_SIZE = 4 * COMMAND_RING_SIZE;
+// max millis the simulator blocks while paused (or ahead of time) before it runs its loop again, the simulator
+// thread gets woken up by incoming commands
+const PAUSED_WAIT_MILLIS = 50;
+// the in-process simulator only sees commands between chunks, so it does not sleep longer than this
+const IN_PROCESS_MAX_WAIT_MILLIS = 10;
+
+const textEncoder = new TextEncoder();
+const textDecoder = new TextDecoder();
+
+/**
+ * Single producer/single consumer ring of length prefixed records on top of a SharedArrayBuffer, used for the
+ * commands (io thread -> simulator thread) and the events (simulator thread -> io thread). Each record is
+ * { length (4 bytes, LE), kind (1 byte), payload }. One byte always stays free to distinguish full from empty.
+ * The consumer can wait for records on the write index (Atomics.wait/waitAsync), the producer for free space on
+ * the read index.
+ */
+class MessageRing {
+
+    constructor(buffer) {
+        this.buffer = buffer;
+        this.header = new Int32Array(buffer, 0, 2);
+        this.data = new Uint8Array(buffer, RING_HEADER_BYTES);
+        this.capacity = this.data.length;
+        this.recordHeader = new Uint8Array(RECORD_HEADER_SIZE);
+    }
+
+    static create(capacity) {
+        return new MessageRing(new SharedArrayBuffer(RING_HEADER_BYTES + capacity));
+    }
+
+    used() {
+        const used = Atomics.load(this.header, RING_WRITE) - Atomics.load(this.header, RING_READ);
+        return used < 0 ? used + this.capacity : used;
+    }
+
+    free() {
+        return this.capacity - 1 - this.used();
+    }
+
+    /**
+     * Whether a record with the passed payload length fits into the (empty) ring at all, records that don't would
+     * never be written.
+     */
+    fits(length) {
+        return RECORD_HEADER_SIZE + length <= this.capacity - 1;
+    }
+
+    write(kind, payload) {
+        if (RECORD_HEADER_SIZE + payload.length > this.free()) {
+            return false;
+        }
+        const recordHeader = this.recordHeader;
+        const length = payload.length;
+        recordHeader[0] = length & 0xFF;
+        recordHeader[1] = (length >>> 8) & 0xFF;
+        recordHeader[2] = (length >>> 16) & 0xFF;
+        recordHeader[3] = (length >>> 24) & 0xFF;
+        recordHeader[4] = kind;
+        let pos = Atomics.load(this.header, RING_WRITE);
+        pos = this.copyIn(pos, recordHeader);
+        pos = this.copyIn(pos, payload);
+        Atomics.store(this.header, RING_WRITE, pos);
+        return true;
+    }
+
+    copyIn(pos, bytes) {
+        const first = Math.min(bytes.length, this.capacity - pos);
+        this.data.set(first === bytes.length ? bytes : bytes.subarray(0, first), pos);
+        if (first < bytes.length) {
+            this.data.set(bytes.subarray(first), 0);
+        }
+        return (pos + bytes.length) % this.capacity;
+    }
+
+    copyOut(pos, target) {
+        const first = Math.min(target.length, this.capacity - pos);
+        target.set(this.data.subarray(pos, pos + first));
+        if (first < target.length) {
+            target.set(this.data.subarray(0, target.length - first), first);
+        }
+        return (pos + target.length) % this.capacity;
+    }
+
+    /**
+     * Returns the next record { kind, payload } or null if the ring is empty.
+     */
+    read() {
+        let pos = Atomics.load(this.header, RING_READ);
+        if (pos === Atomics.load(this.header, RING_WRITE)) {
+            return null;
+        }
+        pos = this.copyOut(pos, this.recordHeader);
+        const h = this.recordHeader;
+        const payload = new Uint8Array(h[0] | (h[1] << 8) | (h[2] << 16) | (h[3] << 24));
+        pos = this.copyOut(pos, payload);
+        Atomics.store(this.header, RING_READ, pos);
+        Atomics.notify(this.header, RING_READ);
+        return { kind: h[4], payload: payload };
+    }
+
+    notifyConsumer() {
+        Atomics.notify(this.header, RING_WRITE);
+    }
+
+}
+
+/**
+ * The simulator running on the calling thread (e.g. when using runCode as module), commands are taken from
+ * messageQueue and the loop yields to the event loop after each chunk. The bytes read from serial.input (a readable
+ * stream) are passed to the avr's usart, the bytes it transmits are written to serial.output (a writable stream),
+ * e.g. inProcessHost({ input: fs.createReadStream(null, { fd: 3 }), output: fs.createWriteStream(null, { fd: 4 }) })
+ */
+function inProcessHost(serial = {}) {
+    if (serial.input) {
+        serial.input.on('data', data => messageQueue.push({ type: 'serialWrite', bytes: Array.from(data) }));
+    }
+    return {
+        maxChunk: INSTRUCTION_CHUNK_SIZE,
+        serialOutput: serial.output || null,
+        throttled: () => false,
+        // setImmediate does not delay (setTimeout does for at least 1ms) but still lets the I/O callbacks run
+        yield: waitMillis => new Promise(resolve => waitMillis > 0
+            ? setTimeout(resolve, Math.min(waitMillis, IN_PROCESS_MAX_WAIT_MILLIS))
+            : setImmediate(resolve)),
+        poll: handler => {
+            const count = messageQueue.length;
+            while (messageQueue.length > 0) {
+                handler(messageQueue.shift());
+            }
+            return count;
+        },
+    };
+}
+
+/**
+ * The simulator running in a worker thread: it never yields, commands are polled from the command ring after each
+ * chunk (sized by the latency target) and it blocks on the command ring while paused. Events are written to the
+ * event ring, the io thread gets notified once per loop.
+ */
+function workerHost(commands, events, throttle) {
+    let pendingEvents = false;
+    const emit = (kind, payload) => {
+        while (!events.write(kind, payload)) {
+            // the io thread does not keep up, so block the cpu until it consumed some events
+            events.notifyConsumer();
+            Atomics.wait(events.header, RING_READ, Atomics.load(events.header, RING_READ), 10);
+        }
+        pendingEvents = true;
+    };
+    const flush = () => {
+        if (pendingEvents) {
+            pendingEvents = false;
+            events.notifyConsumer();
+        }
+    };
+    return {
+        maxChunk: Math.min(INSTRUCTION_CHUNK_SIZE, COMMAND_POLL_INSTRUCTIONS),
+        throttled: () => Atomics.load(throttle, 0) === 1,
+        yield: waitMillis => {
+            flush();
+            if (waitMillis > 0) {
+                const pos = Atomics.load(commands.header, RING_WRITE);
+                if (pos === Atomics.load(commands.header, RING_READ)) {
+                    Atomics.wait(commands.header, RING_WRITE, pos, waitMillis);
+                }
+            }
+        },
+        poll: handler => {
+            let count = 0;
+            for (let record; (record = commands.read()) !== null; count++) {
+                if (record.kind === RECORD_SERIAL) {
+                    handler({ type: 'serialWrite', bytes: Array.from(record.payload) });
+                } else {
+                    handler(JSON.parse(textDecoder.decode(record.payload)));
+                }
+            }
+            return count;
+        },
+        callback: msg => {
+            if (msg.type === 'serialData') {
+                emit(RECORD_SERIAL, Uint8Array.from(msg.bytes));
+            } else if (msg.type === 'binaryFrame') {
+                const frame = msg.frame;
+                for (let offset = 0; offset < frame.length; offset += BINARY_PART_SIZE) {
+                    emit(offset + BINARY_PART_SIZE >= frame.length ? RECORD_BINARY_END : RECORD_BINARY_PART,
+                        frame.subarray(offset, offset + BINARY_PART_SIZE));
+                }
+            } else {
+                const pin = msg.pin === undefined ? '' : msg.pin;
+                // epoch millis, lets clients measure the latency of the events
+                msg.emitTime = performance.timeOrigin + performance.now();
+                const record = textEncoder.encode(`${msg.type}\t${pin}\t${msg.replyId || ''}\n${JSON.stringify(msg)}`);
+                let offset = 0;
+                for (; record.length - offset > BINARY_PART_SIZE; offset += BINARY_PART_SIZE) {
+                    emit(RECORD_JSON_PART, record.subarray(offset, offset + BINARY_PART_SIZE));
+                }
+                emit(RECORD_JSON, record.subarray(offset));
+            }
+        },
+    };
+}
+
+/**
+ * The messages sent to one websocket client. As long as the client's socket buffer is below the high-water mark
+ * messages are sent directly, afterwards the backpressure policy applies:
+ * - 'drop-oldest' queues the messages and drops the oldest ones exceeding the high-water mark
+ * - 'coalesce' like 'drop-oldest' but queued pin states are replaced by newer states of the same pin
+ * - 'pause' keeps on sending, the simulator holds the cpu until the client drained its buffer
+ * Replies and binary frames are never dropped. While lagging the client receives 'lag' messages (at most one per
+ * LAG_REPORT_MILLIS and one when it caught up) with the counts since the previous one.
+ */
+class ClientChannel {
+
+    constructor(client, highWaterMark, policy, onLag) {
+        this.client = client;
+        this.highWaterMark = highWaterMark;
+        this.policy = policy;
+        this.onLag = onLag;
+        this.queue = [];
+        this.head = 0;
+        // messages that can't be dropped but were in front of dropped ones, they are sent first
+        this.kept = [];
+        this.droppableBytes = 0;
+        // pin -> queued pin state (policy 'coalesce')
+        this.latestPinStates = new Map();
+        this.lagging = false;
+        this.lastLagReport = 0;
+        this.dropped = 0;
+        this.coalesced = 0;
+        // totals for the metrics (dropped/coalesced are reset with each lag report)
+        this.droppedTotal = 0;
+        this.coalescedTotal = 0;
+        this.sentMessages = 0;
+        this.sentBytes = 0;
+    }
+
+    queued() {
+        return this.kept.length + this.queue.length - this.head;
+    }
+
+    isFull() {
+        return this.client.bufferedAmount >= this.highWaterMark;
+    }
+
+    send(data, pin, droppable) {
+        if (this.client.readyState !== ws.WebSocket.OPEN) {
+            return;
+        }
+        if (this.policy === 'pause' || (this.queued() === 0 && !this.isFull())) {
+            this.write(data);
+            if (!this.lagging && this.isFull()) {
+                this.startLagging();
+            }
+            return;
+        }
+        if (!this.lagging) {
+            this.startLagging();
+        }
+        const coalesce = droppable && pin !== undefined && this.policy === 'coalesce';
+        if (coalesce) {
+            const queued = this.latestPinStates.get(pin);
+            if (queued) {
+                this.droppableBytes += data.length - queued.data.length;
+                queued.data = data;
+                this.coalesced++;
+                this.coalescedTotal++;
+                return;
+            }
+        }
+        const entry = { data: data, pin: pin, droppable: droppable };
+        this.queue.push(entry);
+        if (droppable) {
+            this.droppableBytes += data.length;
+            if (coalesce) {
+                this.latestPinStates.set(pin, entry);
+            }
+            this.dropOldest();
+        }
+    }
+
+    dropOldest() {
+        while (this.droppableBytes > this.highWaterMark && this.head < this.queue.length) {
+            const entry = this.next();
+            if (entry.droppable) {
+                this.dropped++;
+                this.droppedTotal++;
+            } else {
+                this.kept.push(entry);
+            }
+        }
+    }
+
+    write(data) {
+        this.client.send(data);
+        this.sentMessages++;
+        this.sentBytes += data.length;
+    }
+
+    next() {
+        const entry = this.queue[this.head];
+        this.queue[this.head++] = undefined;
+        if (entry.droppable) {
+            this.droppableBytes -= entry.data.length;
+            if (this.latestPinStates.get(entry.pin) === entry) {
+                this.latestPinStates.delete(entry.pin);
+            }
+        }
+        if (this.head === this.queue.length) {
+            this.queue.length = 0;
+            this.head = 0;
+        }
+        return entry;
+    }
+
+    startLagging() {
+        this.lagging = true;
+        this.reportLag(performance.now());
+        this.onLag(this);
+    }
+
+    /**
+     * Sends the queued messages as far as the client's buffer allows, returns true if the client caught up.
+     */
+    drain(now) {
+        while (this.queued() > 0 && !this.isFull()) {
+            this.write(this.kept.length > 0 ? this.kept.shift().data : this.next().data);
+        }
+        if (this.head > 1024 && this.head * 2 > this.queue.length) {
+            this.queue = this.queue.slice(this.head);
+            this.head = 0;
+        }
+        const drained = this.client.readyState !== ws.WebSocket.OPEN
+            || (this.queued() === 0 && this.client.bufferedAmount < this.highWaterMark / 2);
+        if (drained) {
+            this.lagging = false;
+            this.reportLag(now);
+        } else if (now - this.lastLagReport >= LAG_REPORT_MILLIS) {
+            this.reportLag(now);
+        }
+        return drained;
+    }
+
+    reportLag(now) {
+        this.lastLagReport = now;
+        if (this.client.readyState === ws.WebSocket.OPEN) {
+            this.write(JSON.stringify({
+                type: 'lag', lagging: this.lagging, policy: this.policy, highWaterMark: this.highWaterMark,
+                bufferedAmount: this.client.bufferedAmount, queued: this.queued(),
+                dropped: this.dropped, coalesced: this.coalesced
+            }));
+        }
+        this.dropped = 0;
+        this.coalesced = 0;
+    }
+
+}
+
+function runWorker() {
+    const host = workerHost(new MessageRing(workerData.commands), new MessageRing(workerData.events),
+        new Int32Array(workerData.throttle));
+    simulatorStats = new Float64Array(workerData.stats);
+    // every transmitted byte is forwarded to the io thread which writes it to the PTY and/or the websocket clients
+    serialData = true;
+    runCode(workerData.hexFile, host.callback, host).catch(e => {
+        console.error(e);
+        process.exit(1);
+    });
+}
+
+function main() {
+    // Open custom file descriptors (not available when the serial line is carried over the websocket)
+    const input = SERIAL_WEBSOCKET ? null : fs.createReadStream(null, { fd: 3 });
+    const output = SERIAL_WEBSOCKET ? null : fs.createWriteStream(null, { fd: 4 });
+
+    const commands = MessageRing.create(COMMAND_RING_SIZE);
+    const events = MessageRing.create(EVENT_RING_SIZE);
+    // set while a client with backpressure policy 'pause' lags
+    const throttle = new Int32Array(new SharedArrayBuffer(4));
+    const stats = new Float64Array(new SharedArrayBuffer(STATS_SIZE * Float64Array.BYTES_PER_ELEMENT));
+    const worker = new Worker(__filename, {
+        workerData: {
+            hexFile: args.length == 0 ? 'sketch.ino' : args[0],
+            commands: commands.buffer,
+            events: events.buffer,
+            throttle: throttle.buffer,
+            stats: stats.buffer
+        }
+    });
+    worker.on('error', e => {
+        console.error(e);
+        process.exit(1);
+    });
+    worker.on('exit', code => process.exit(code));
+
+    // commands that did not fit into the ring, retried as soon as the simulator consumed some
+    const backlog = [];
+    const flushBacklog = () => {
+        while (backlog.length > 0 && commands.write(backlog[0].kind, backlog[0].payload)) {
+            backlog.shift();
+        }
+        commands.notifyConsumer();
+        if (backlog.length > 0) {
+            setTimeout(flushBacklog, 1);
+        }
+    };
+    const sendCommand = (kind, payload) => {
+        if (kind === RECORD_SERIAL && payload.length > BINARY_PART_SIZE) {
+            // the serial line is a byte stream, so the bytes can be split into records fitting into the ring
+            for (let offset = 0; offset < payload.length; offset += BINARY_PART_SIZE) {
+                sendCommand(kind, payload.subarray(offset, offset + BINARY_PART_SIZE));
+            }
+            return;
+        }
+        if (backlog.length > 0 || !commands.write(kind, payload)) {
+            backlog.push({ kind: kind, payload: payload });
+            if (backlog.length === 1) {
+                setTimeout(flushBacklog, 1);
+            }
+        }
+        commands.notifyConsumer();
+    };
+
+    // plain http requests get the metrics (if enabled), everything else has to upgrade to a websocket
+    const server = http.createServer((request, response) => {
+        if (METRICS_ENDPOINT && request.method === 'GET' && request.url === '/metrics') {
+            response.writeHead(200, { 'Content-Type': 'text/plain; version=0.0.4' });
+            response.end(prometheusText(metrics()));
+        } else {
+            response.writeHead(426, { 'Content-Type': 'text/plain' });
+            response.end('Upgrade Required');
+        }
+    });
+    const wss = new ws.WebSocketServer({
+        server: server,
+        maxPayload: MAX_PAYLOAD_SIZE,
+        perMessageDeflate: {
+            concurrencyLimit: 2, // Limits zlib concurrency for perf.
+            threshold: 1024 // Size (in bytes) below which messages should not be compressed if context takeover is disabled.
+        }
+    });
+
+    const pendingMessages = [];
+    let batchTimer = null;
+    const serialDataClients = new Set();
+    // client -> { pins, portMasks, events, serialDebug, portEvents, channel }, pins/portMasks/events are null (everything) until the client subscribes
+    const subscriptions = new Map();
+    // replyId -> client that sent the command, replies are only sent to this client
+    const replyClients = new Map();
+    // clients that requested a capture download (the binary frames are sent in the order of the requests)
+    const binaryFrameClients = [];
+    // message type -> messages sent to the clients
+    const sentMessages = new Map();
+    const countSent = (type, count = 1) => sentMessages.set(type, (sentMessages.get(type) || 0) + count);
+
+    const sendSerialData = (bytes) => {
+        if (serialDataClients.size === 0) {
+            return;
+        }
+        const frame = Buffer.allocUnsafe(bytes.length + 1);
+        frame[0] = BINARY_SERIAL_DATA;
+        frame.set(bytes, 1);
+        serialDataClients.forEach(client => sendTo(client, frame, undefined, true));
+        countSent('serialData', serialDataClients.size);
+    };
+
+    const laggingChannels = new Set();
+    let drainTimer = null;
+    const updateThrottle = () => {
+        const throttled = Array.from(laggingChannels).some(c => c.policy === 'pause') ? 1 : 0;
+        if (Atomics.exchange(throttle, 0, throttled) !== throttled && !throttled) {
+            // wake up the simulator waiting for commands
+            commands.notifyConsumer();
+        }
+    };
+    const drainChannels = () => {
+        const now = performance.now();
+        laggingChannels.forEach(channel => {
+            if (channel.drain(now)) {
+                laggingChannels.delete(channel);
+            }
+        });
+        updateThrottle();
+        if (laggingChannels.size === 0) {
+            clearInterval(drainTimer);
+            drainTimer = null;
+        }
+    };
+    const channelLags = (channel) => {
+        laggingChannels.add(channel);
+        updateThrottle();
+        if (!drainTimer) {
+            drainTimer = setInterval(drainChannels, DRAIN_INTERVAL_MILLIS);
+        }
+    };
+
+    // data is either a JSON string or a binary frame (Buffer), only droppable messages are subject to the client's
+    // backpressure policy (pin is set for the pin states that can be coalesced)
+    const sendTo = (client, data, pin, droppable) => {
+        const subscription = subscriptions.get(client);
+        if (subscription) {
+            subscription.channel.send(data, pin, droppable);
+        }
+    };
+
+    const broadcast = (data) => {
+        wss.clients.forEach(client => sendTo(client, data));
+    };
+
+    // clients that did not opt in to port events get them as pin states
+    const expandPortState = (event) => {
+        if (!event.pinStates) {
+            const msg = JSON.parse(event.data);
+            const arduinoPins = portAvrPinToArduino[msg.port] || [];
+            event.pinStates = [];
+            for (let i = 0; i < arduinoPins.length; i++) {
+                if (msg.mask & (1 << i)) {
+                    const pinState = { type: 'pinState', pin: arduinoPins[i], state: (msg.value & (1 << i)) !== 0, cpuTime: msg.cpuTime, emitTime: msg.emitTime };
+                    event.pinStates.push({ type: 'pinState', pin: pinState.pin, replyId: '', data: JSON.stringify(pinState) });
+                }
+            }
+        }
+        return event.pinStates;
+    };
+
+    // port -> bits of the pins the client subscribed to, null if it subscribed to all pins
+    const portMasks = (pins) => {
+        if (pins === null) {
+            return null;
+        }
+        const masks = {};
+        Object.entries(portAvrPinToArduino).forEach(([port, arduinoPins]) => {
+            masks[port] = 0;
+            arduinoPins.forEach((pin, bit) => {
+                if (pins.has(pin)) {
+                    masks[port] |= 1 << bit;
+                }
+            });
+        });
+        return masks;
+    };
+
+    // the port event restricted to the changes of the client's pins, null if none of them changed
+    const maskPortState = (subscription, event) => {
+        if (subscription.portMasks === null) {
+            return event.data;
+        }
+        if (!event.msg) {
+            event.msg = JSON.parse(event.data);
+        }
+        const mask = event.msg.mask & (subscription.portMasks[event.msg.port] || 0);
+        return mask === 0 ? null : mask === event.msg.mask ? event.data : JSON.stringify({ ...event.msg, mask: mask });
+    };
+
+    const accepts = (subscription, event) =>
+        (event.type !== 'serialDebug' || subscription.serialDebug)
+        && (subscription.events === null || subscription.events.has(event.type))
+        && (subscription.pins === null || event.pin === '' || subscription.pins.has(event.pin));
+
+    const dispatch = (event) => {
+        if (event.replyId) {
+            const client = replyClients.get(event.replyId);
+            if (client) {
+                replyClients.delete(event.replyId);
+                sendTo(client, event.data);
+                countSent(event.type);
+                return;
+            }
+        }
+        const pin = event.type === 'pinState' && !event.replyId ? event.pin : undefined;
+        const droppable = !event.replyId;
+        subscriptions.forEach((subscription, client) => {
+            if (event.type === 'portState' && !subscription.portEvents) {
+                expandPortState(event).forEach(pinState => {
+                    if (accepts(subscription, pinState)) {
+                        subscription.channel.send(pinState.data, pinState.pin, true);
+                        countSent(pinState.type);
+                    }
+                });
+            } else if (event.type === 'portState') {
+                const data = accepts(subscription, event) ? maskPortState(subscription, event) : null;
+                if (data !== null) {
+                    subscription.channel.send(data, pin, droppable);
+                    countSent(event.type);
+                }
+            } else if (accepts(subscription, event)) {
+                subscription.channel.send(event.data, pin, droppable);
+                countSent(event.type);
+            }
+        });
+    };
+
+    const flushMessages = () => {
+        if (pendingMessages.length > 0) {
+            pendingMessages.forEach(dispatch);
+            pendingMessages.length = 0;
+        }
+        batchTimer = null;
+    };
+
+    // the events are already serialized by the simulator thread, so they are passed on as they are
+    const callbackPinState = (event) => {
+        if (BATCH_MILLIS > 0) {
+            pendingMessages.push(event);
+            if (!batchTimer) {
+                batchTimer = setTimeout(flushMessages, BATCH_MILLIS);
+            }
+        } else {
+            dispatch(event);
+        }
+    };
+
+    // the simulator only emits serial debug messages as long as at least one client is interested in them
+    let serialDebugEnabled = false;
+    const updateSerialDebug = (msg) => {
+        const enabled = Array.from(subscriptions.values()).some(s => s.serialDebug);
+        if (msg || enabled !== serialDebugEnabled) {
+            serialDebugEnabled = enabled;
+            sendCommand(RECORD_JSON, textEncoder.encode(JSON.stringify({ ...msg, type: 'serialDebug', state: enabled })));
+        }
+    };
+
+    // the simulator publishes port events as long as at least one client opted in to them
+    let portEventsEnabled = false;
+    const updatePortEvents = () => {
+        const enabled = Array.from(subscriptions.values()).some(s => s.portEvents);
+        if (enabled !== portEventsEnabled) {
+            portEventsEnabled = enabled;
+            sendCommand(RECORD_JSON, textEncoder.encode(JSON.stringify({ type: 'portEvents', state: enabled })));
+        }
+    };
+
+    const subscribe = (client, msg) => {
+        // { "type": "subscribe", "pins": [ "13", "A0" ], "events": [ "pinState" ] }, missing means everything
+        const subscription = subscriptions.get(client);
+        const policy = msg.policy || subscription.channel.policy;
+        const highWaterMark = msg.highWaterMark === undefined ? subscription.channel.highWaterMark : Number(msg.highWaterMark);
+        if (!BACKPRESSURE_POLICIES.includes(policy) || !(highWaterMark > 0)) {
+            const error = `Invalid backpressure policy ${policy} or highWaterMark ${msg.highWaterMark}`;
+            console.error(error);
+            if (msg.replyId) {
+                sendTo(client, JSON.stringify({ ...msg, executed: true, error: error }));
+            }
+            return;
+        }
+        subscription.channel.policy = policy;
+        subscription.channel.highWaterMark = highWaterMark;
+        subscription.pins = Array.isArray(msg.pins) ? new Set(msg.pins.map(String)) : null;
+        subscription.portMasks = portMasks(subscription.pins);
+        subscription.events = Array.isArray(msg.events) ? new Set(msg.events) : null;
+        subscription.portEvents = !!msg.portEvents;
+        updatePortEvents();
+        if (msg.replyId) {
+            sendTo(client, JSON.stringify({ ...msg, executed: true }));
+        }
+    };
+
+    const binaryParts = [];
+    const jsonParts = [];
+    const drainEvents = () => {
+        for (let record; (record = events.read()) !== null;) {
+            if (record.kind === RECORD_SERIAL) {
+                if (output) {
+                    output.write(record.payload);
+                }
+                sendSerialData(record.payload);
+            } else if (record.kind === RECORD_BINARY_PART) {
+                binaryParts.push(record.payload);
+            } else if (record.kind === RECORD_BINARY_END) {
+                binaryParts.push(record.payload);
+                const frame = Buffer.concat(binaryParts);
+                binaryParts.length = 0;
+                const client = binaryFrameClients.shift();
+                client ? sendTo(client, frame) : broadcast(frame);
+                countSent('capture', client ? 1 : wss.clients.size);
+            } else if (record.kind === RECORD_JSON_PART) {
+                jsonParts.push(record.payload);
+            } else {
+                let payload = record.payload;
+                if (jsonParts.length > 0) {
+                    jsonParts.push(payload);
+                    payload = Buffer.concat(jsonParts);
+                    jsonParts.length = 0;
+                }
+                const split = payload.indexOf(ROUTE_SEPARATOR);
+                const route = textDecoder.decode(payload.subarray(0, split)).split('\t');
+                callbackPinState({
+                    type: route[0],
+                    pin: route[1],
+                    replyId: route[2],
+                    data: textDecoder.decode(payload.subarray(split + 1))
+                });
+            }
+        }
+    };
+    const pumpEvents = async () => {
+        while (true) {
+            const pos = Atomics.load(events.header, RING_WRITE);
+            drainEvents();
+            const result = Atomics.waitAsync(events.header, RING_WRITE, pos);
+            if (result.async) {
+                await result.value;
+            }
+        }
+    };
+    if (typeof Atomics.waitAsync === 'function') {
+        pumpEvents();
+    } else {
+        setInterval(drainEvents, 1);
+    }
+
+    if (input) {
+        input.on('data', data => sendCommand(RECORD_SERIAL, new Uint8Array(data)));
+    }
+
+    // the rates are sampled (not computed per request) so they don't depend on how often the metrics are requested
+    const startTime = performance.now();
+    const rates = { time: startTime, instructions: 0, cycles: 0, instructionsPerSecond: 0, cyclesPerSecond: 0 };
+    setInterval(() => {
+        const now = performance.now();
+        const seconds = (now - rates.time) / 1000;
+        rates.instructionsPerSecond = (stats[STAT_INSTRUCTIONS] - rates.instructions) / seconds;
+        rates.cyclesPerSecond = (stats[STAT_CYCLES] - rates.cycles) / seconds;
+        rates.time = now;
+        rates.instructions = stats[STAT_INSTRUCTIONS];
+        rates.cycles = stats[STAT_CYCLES];
+    }, METRICS_SAMPLE_MILLIS);
+
+    const metrics = () => {
+        let cumulative = 0;
+        const chunkCounts = [];
+        for (let i = 0; i <= CHUNK_MILLIS_BUCKETS.length; i++) {
+            cumulative += stats[STAT_CHUNK_BUCKETS + i];
+            chunkCounts.push(cumulative);
+        }
+        const clients = [];
+        subscriptions.forEach(subscription => {
+            const channel = subscription.channel;
+            clients.push({
+                address: subscription.address, policy: channel.policy, highWaterMark: channel.highWaterMark,
+                lagging: channel.lagging, queued: channel.queued(), bufferedAmount: channel.client.bufferedAmount,
+                sentMessages: channel.sentMessages, sentBytes: channel.sentBytes,
+                dropped: channel.droppedTotal, coalesced: channel.coalescedTotal
+            });
+        });
+        return {
+            simulator: {
+                cycles: stats[STAT_CYCLES],
+                cpuTime: stats[STAT_CYCLES] / clockFrequency,
+                instructions: stats[STAT_INSTRUCTIONS],
+                skippedCycles: stats[STAT_SKIPPED_CYCLES],
+                commands: stats[STAT_COMMANDS],
+                serialRxQueued: stats[STAT_SERIAL_RX_QUEUED],
+                paused: stats[STAT_PAUSED] === 1,
+                speedFactor: stats[STAT_SPEED_FACTOR],
+                instructionsPerSecond: rates.instructionsPerSecond,
+                cyclesPerSecond: rates.cyclesPerSecond,
+                realtimeFactor: rates.cyclesPerSecond / clockFrequency,
+                chunkMillis: {
+                    upperBounds: CHUNK_MILLIS_BUCKETS,
+                    counts: chunkCounts,
+                    sum: stats[STAT_CHUNK_MILLIS],
+                    count: stats[STAT_CHUNKS]
+                }
+            },
+            server: {
+                uptimeSeconds: (performance.now() - startTime) / 1000,
+                clients: subscriptions.size,
+                pendingMessages: pendingMessages.length,
+                commandBacklog: backlog.length,
+                commandRingBytes: commands.used(),
+                eventRingBytes: events.used(),
+                serialOutputQueued: output ? output.writableLength : 0,
+                sentMessages: Object.fromEntries(sentMessages)
+            },
+            clients: clients
+        };
+    };
+
+    wss.on('connection', function connection(client, request) {
+        const channel = new ClientChannel(client, CLIENT_HIGH_WATER_MARK, BACKPRESSURE_POLICY, channelLags);
+        subscriptions.set(client, {
+            pins: null, portMasks: null, events: null, serialDebug: false, portEvents: false, channel: channel,
+            address: `${request.socket.remoteAddress}:${request.socket.remotePort}`
+        });
+        client.on('message', function message(data, isBinary) {
+            if (isBinary) {
+                // binary frames written by the client are bytes to send to the avr's serial line
+                if (data.length > 1 && data[0] === BINARY_SERIAL_DATA) {
+                    sendCommand(RECORD_SERIAL, new Uint8Array(data.subarray(1)));
+                }
+            } else if (data) {
+                try {
+                    const msg = JSON.parse(data);
+                    const invalid = ROUTE_FIELDS.find(f => msg[f] !== undefined && INVALID_ROUTE_FIELD.test(String(msg[f])));
+                    if (invalid) {
+                        const error = `Invalid ${invalid} ${JSON.stringify(msg[invalid])}, control characters are not allowed`;
+                        console.error(error);
+                        if (msg.replyId) {
+                            sendTo(client, JSON.stringify({ ...msg, executed: true, error: error }));
+                        }
+                        return;
+                    }
+                    if (msg.type === 'subscribe') {
+                        subscribe(client, msg);
+                        return;
+                    }
+                    if (msg.type === 'metrics') {
+                        // { "type": "metrics", "replyId": "..." } is answered by the io thread, the simulator's
+                        // counters are shared memory
+                        sendTo(client, JSON.stringify({ ...msg, ...metrics(), executed: true }));
+                        countSent('metrics');
+                        return;
+                    }
+                    if (!commands.fits(data.length)) {
+                        // a command larger than the ring could never be written and would block all later ones
+                        const error = `Command of ${data.length} bytes exceeds the command ring of ${commands.capacity} bytes`;
+                        console.error(error);
+                        if (msg.replyId) {
+                            sendTo(client, JSON.stringify({ type: msg.type, replyId: msg.replyId, executed: true, error: error }));
+                        }
+                        return;
+                    }
+                    if (msg.replyId) {
+                        replyClients.set(String(msg.replyId), client);
+                    }
+                    if (msg.type === 'serialData') {
+                        // { "type": "serialData", "state": true } subscribes this client to binary serial frames
+                        msg.state ? serialDataClients.add(client) : serialDataClients.delete(client);
+                    } else if (msg.type === 'serialDebug') {
+                        // serial debug is per client, the simulator emits it if any client enabled it
+                        subscriptions.get(client).serialDebug = !!msg.state;
+                        updateSerialDebug(msg);
+                        return;
+                    } else if (msg.type === 'capture' && msg.action === 'download') {
+                        binaryFrameClients.push(client);
+                    }
+                    sendCommand(RECORD_JSON, data);
+                } catch (e) {
+                    console.error(`Failed to parse JSON: ${data}, Error: ${e.message}`);
+                }
+            }
+        });
+        client.on('close', () => {
+            serialDataClients.delete(client);
+            const subscription = subscriptions.get(client);
+            subscriptions.delete(client);
+            laggingChannels.delete(subscription.channel);
+            updateThrottle();
+            replyClients.forEach((replyClient, replyId) => {
+                if (replyClient === client) {
+                    replyClients.delete(replyId);
+                }
+            });
+            updateSerialDebug(null);
+            updatePortEvents();
+        });
+    });
+    server.listen(8080);
+}
+
+/**
+ * The metrics in the Prometheus text exposition format.
+ */
+function prometheusText(metrics) {
+    const lines = [];
+    const metric = (name, type, help, samples) => {
+        lines.push(`# HELP virtualavr_${name} ${help}`, `# TYPE virtualavr_${name} ${type}`);
+        samples.forEach(([labels, value]) => lines.push(`virtualavr_${name}${labels} ${value}`));
+    };
+    const label = (name, value) => `{${name}="${String(value).replace(/[\\"]/g, '\\$&')}"}`;
+    const simulator = metrics.simulator;
+    const server = metrics.server;
+    metric('instructions_total', 'counter', 'Executed instructions', [['', simulator.instructions]]);
+    metric('cycles_total', 'counter', 'Simulated cpu cycles', [['', simulator.cycles]]);
+    metric('skipped_cycles_total', 'counter', 'Cycles fast-forwarded by idle skip', [['', simulator.skippedCycles]]);
+    metric('commands_total', 'counter', 'Commands processed by the simulator', [['', simulator.commands]]);
+    metric('instructions_per_second', 'gauge', 'Instructions executed per second', [['', simulator.instructionsPerSecond]]);
+    metric('realtime_factor', 'gauge', 'Simulated seconds per wall-clock second', [['', simulator.realtimeFactor]]);
+    metric('paused', 'gauge', 'Whether the simulation is paused', [['', simulator.paused ? 1 : 0]]);
+    metric('serial_rx_queued_bytes', 'gauge', 'Bytes received not yet passed to the usart', [['', simulator.serialRxQueued]]);
+    const chunkMillis = simulator.chunkMillis;
+    metric('chunk_duration_seconds', 'histogram', 'Host time of the instruction chunks', [
+        ...chunkMillis.upperBounds.map((le, i) => [`_bucket${label('le', le / 1000)}`, chunkMillis.counts[i]]),
+        [`_bucket${label('le', '+Inf')}`, chunkMillis.counts[chunkMillis.upperBounds.length]],
+        ['_sum', chunkMillis.sum / 1000],
+        ['_count', chunkMillis.count]
+    ]);
+    metric('clients', 'gauge', 'Connected websocket clients', [['', server.clients]]);
+    metric('pending_messages', 'gauge', 'Messages waiting for the next batch', [['', server.pendingMessages]]);
+    metric('command_backlog', 'gauge', 'Commands waiting for space in the command ring', [['', server.commandBacklog]]);
+    metric('ring_used_bytes', 'gauge', 'Bytes used in the rings between the threads',
+        [[label('ring', 'commands'), server.commandRingBytes], [label('ring', 'events'), server.eventRingBytes]]);
+    metric('serial_output_queued_bytes', 'gauge', 'Bytes not yet written to the serial device', [['', server.serialOutputQueued]]);
+    metric('messages_sent_total', 'counter', 'Messages sent to the clients',
+        Object.entries(server.sentMessages).map(([type, count]) => [label('type', type), count]));
+    const perClient = key => metrics.clients.map(client => [label('client', client.address), client[key]]);
+    metric('client_sent_messages_total', 'counter', 'Messages sent to the client', perClient('sentMessages'));
+    metric('client_sent_bytes_total', 'counter', 'Bytes sent to the client', perClient('sentBytes'));
+    metric('client_queued_messages', 'gauge', 'Messages queued for the client', perClient('queued'));
+    metric('client_buffered_bytes', 'gauge', 'Bytes buffered in the client\'s socket', perClient('bufferedAmount'));
+    metric('client_dropped_total', 'counter', 'Messages dropped for the client', perClient('dropped'));
+    metric('client_coalesced_total', 'counter', 'Pin states coalesced for the client', perClient('coalesced'));
+    return lines.join('\n') + '\n';
 }
 
-if (require.main === module) {
+if (!isMainThread && workerData && workerData.hexFile) {
+    runWorker();
+} else if (require.main === module && args.some(arg => arg.startsWith('--benchmark='))) {
+    benchmarkMain(args);
+} else if (require.main === module) {
     main();
 }
 
 module.exports = {
-    runCode
+    runCode,
+    inProcessHost
 }